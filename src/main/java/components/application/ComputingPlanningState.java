@@ -2,10 +2,12 @@ package components.application;
 
 
 import java.lang.management.PlatformLoggingMXBean;
+import java.util.concurrent.ForkJoinPool;
 import models.DeliveryGraph;
 import models.DeliveryRequest;
 import models.Planning;
 import services.tsp.BasicBoundTspSolver;
+import services.tsp.LocalSearch;
 import services.tsp.TspSolver;
 
 public class ComputingPlanningState extends WaitOpenDeliveryRequestState implements TspCompletedListener{
@@ -13,6 +15,12 @@ public class ComputingPlanningState extends WaitOpenDeliveryRequestState impleme
     private long beforeTspTime;
     private long completionTime;
     private TspSolver tspSolver;
+    private DeliveryGraph deliveryGraph;
+
+    /**
+     * Whether the user has interrupted the solver, whose planning is then improved by a local search.
+     */
+    private volatile boolean interrupted;
 
     ComputingPlanningState(MainController mainController) {
         super(mainController);
@@ -25,7 +33,7 @@ public class ComputingPlanningState extends WaitOpenDeliveryRequestState impleme
         DeliveryRequest deliveryRequest = mainController.getDeliveryRequest();
 
         this.beforeDijkstraTime = System.nanoTime();
-        DeliveryGraph deliveryGraph = deliveryRequest.computeDeliveryGraph();
+        this.deliveryGraph = deliveryRequest.computeDeliveryGraph(ForkJoinPool.commonPool());
 
         this.beforeTspTime = System.nanoTime();
         tspSolver = new BasicBoundTspSolver();
@@ -57,15 +65,25 @@ public class ComputingPlanningState extends WaitOpenDeliveryRequestState impleme
 
     @Override
     public MainControllerState onComputePlanningButtonAction() {
-        if (tspSolver != null)
+        if (tspSolver != null) {
+            this.interrupted = true;
             tspSolver.stopComputing();
+        }
         
         return new ReadyToComputeState(mainController);
     }
 
 
+    @Override
+    public void notifyOfTspImprovement(Planning bestPlanning) {
+        mainController.setPlanning(bestPlanning);
+    }
+
     @Override
     public void notifyOfTspComplete(Planning bestPlanning) {
+        if (this.interrupted && bestPlanning != null) {
+            bestPlanning = new LocalSearch(this.deliveryGraph).improve(bestPlanning);
+        }
         mainController.setPlanning(bestPlanning);
         mainController.applyState(new ComputedPlanningState(mainController));
     }
@@ -5,4 +5,11 @@ import models.Planning;
 public interface TspCompletedListener {
 
     public void notifyOfTspComplete(Planning bestPlanning);
+
+    /**
+     * Called when the solver has found a better planning, before the end of the computation.
+     * @param bestPlanning the best planning found so far
+     */
+    default void notifyOfTspImprovement(Planning bestPlanning) {
+    }
 }
@@ -4,64 +4,71 @@ import com.google.java.contract.Ensures;
 import com.google.java.contract.Requires;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class CityMap {
 
     /**
-     * All known intersections.
-     * Key: `intersectionId` Value: The associated Intersection
+     * All known intersections and street sections, as a frozen graph indexed by dense intersection indices.
      */
-    private Map<Integer, Intersection> intersections;
+    private final StreetGraph graph;
 
     /**
-     * All known street sections.
-     * Key: `startIntersectionId` Value: Map: - Key: `endIntersectionId` - Value: `StreetSection`, the StreetSection from the intersection
-     * with the id `startIntersectionId` to the intersection with the id `endIntersectionId`
+     * The lowest ratio between the duration of a street section and the euclidean distance between its ends.
+     * The euclidean distance between two intersections multiplied by this ratio is a lower bound of the duration
+     * of the paths between them, which is used as heuristic by the A* search.
      */
-    private Map<Integer, Map<Integer, StreetSection>> streetSections;
+    private final double durationPerDistance;
 
     /**
-     * Create a city map which contain the given intersections and street sections.
-     * @param intersections The intersections contained in the new city map.
-     * @param streetSections The street sections contained in the city map.
+     * The strongly connected components of the graph, which tell if an intersection can be reached from another one.
      */
-    public CityMap(Iterable<Intersection> intersections, Iterable<StreetSection> streetSections) {
-        this.intersections = new TreeMap<Integer, Intersection>();
-        this.streetSections = new TreeMap<Integer, Map<Integer, StreetSection>>();
+    private final ReachabilityIndex reachabilityIndex;
 
-        for (Intersection intersection : intersections) {
-            this.addIntersection(intersection);
-        }
-        for (StreetSection streetSection : streetSections) {
-            this.addStreetSection(streetSection);
-        }
-    }
+    /**
+     * The contraction hierarchy of the graph, used to answer the shortest path queries if it has been built or loaded.
+     */
+    private volatile ContractionHierarchy contractionHierarchy;
 
     /**
-     * Add the given intersection to the current city map.
-     * @param intersection the intersection to add.
+     * The shortest path trees already computed, by start intersection.
      */
-    @Requires({"intersection != null", "!intersections.containsKey(intersection.getId())"})
-    @Ensures({"intersections.containsKey(intersection.getId())", "intersections.containsValue(intersection)",
-        "intersections.get(intersection.getId()) == intersection"})
-    private void addIntersection(Intersection intersection) {
-        this.intersections.put(intersection.getId(), intersection);
-    }
+    private final ShortestPathCache shortestPathCache = new ShortestPathCache(ShortestPathCache.DEFAULT_CAPACITY);
 
     /**
-     * Add the given street section to the city map.
-     * @param streetSection The street section to add to the city map.
+     * The landmarks used to compute lower bounds of the durations if they have been chosen, or null.
      */
-    @Requires({"streetSection != null", "intersections.containsKey(streetSection.getStartIntersection().getId())",
-        "intersections.containsKey(streetSection.getEndIntersection().getId())"})
-    private void addStreetSection(StreetSection streetSection) {
-        Map<Integer, StreetSection> streetSectionsFromStartIntersection = streetSections.get(streetSection.getStartIntersection().getId());
-        if (streetSectionsFromStartIntersection == null) {
-            streetSectionsFromStartIntersection = new TreeMap<Integer, StreetSection>();
-        }
+    private volatile LandmarkIndex landmarkIndex;
+
+    /**
+     * The states of the searches, lent to each query and reused by the next ones. A bidirectional query borrows
+     * two of them.
+     */
+    private final WorkspacePool<SearchWorkspace> workspaces;
+
+    /**
+     * Create a city map which contain the given intersections and street sections.
+     * @param intersections The intersections contained in the new city map.
+     * @param streetSections The street sections contained in the city map.
+     */
+    public CityMap(Iterable<Intersection> intersections, Iterable<StreetSection> streetSections) {
+        this.graph = new StreetGraph(intersections, streetSections);
 
-        streetSectionsFromStartIntersection.put(streetSection.getEndIntersection().getId(), streetSection);
-        this.streetSections.put(streetSection.getStartIntersection().getId(), streetSectionsFromStartIntersection);
+        double durationPerDistance = Double.MAX_VALUE;
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+            double distance = distance(graph.getIntersection(graph.getEdgeSource(edge)), graph.getIntersection(graph.getEdgeTarget(edge)));
+            if (distance > 0) {
+                durationPerDistance = Math.min(durationPerDistance, graph.getEdgeDuration(edge) / distance);
+            }
+        }
+        // Slightly lowered so that rounding errors can not make the heuristic overestimate a duration
+        this.durationPerDistance = durationPerDistance == Double.MAX_VALUE ? 0 : durationPerDistance * (1 - 1e-9);
+        this.reachabilityIndex = new ReachabilityIndex(graph);
+        final int size = graph.size();
+        this.workspaces = new WorkspacePool<SearchWorkspace>(() -> new SearchWorkspace(size));
     }
 
     /**
@@ -74,152 +81,533 @@ public class CityMap {
      * point given as parameters.
      */
     public Route shortestPath(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint) {
-        return this.shortestPath(startWaypoint, Collections.singletonList(endWaypoint)).get(0);
+        ContractionHierarchy contractionHierarchy = this.contractionHierarchy;
+        if (contractionHierarchy != null) {
+            return this.hierarchyShortestPath(contractionHierarchy, startWaypoint, endWaypoint);
+        } else if (!this.canReach(startWaypoint, endWaypoint)) {
+            return new Route(startWaypoint, endWaypoint, new ArrayList<StreetSection>());
+        }
+        List<AbstractWaypoint> endWaypoints = Collections.singletonList(endWaypoint);
+        ShortestPathTree tree = this.shortestPathCache.get(graph.getIndex(startWaypoint.getId()), getIndexes(endWaypoints));
+        if (tree != null) {
+            return this.computeReturn(tree, startWaypoint, endWaypoints).get(0);
+        } else if (this.durationPerDistance == 0 && this.landmarkIndex == null) {
+            // Without coordinates to guide A*, searching from both ends visits fewer intersections
+            return this.bidirectionalShortestPath(startWaypoint, endWaypoint);
+        }
+        tree = this.aStarShortestPath(startWaypoint, endWaypoint, Integer.MAX_VALUE);
+        this.shortestPathCache.put(tree);
+        return this.computeReturn(tree, startWaypoint, endWaypoints).get(0);
+    }
+
+    /**
+     * Find the shortest path between the start and the end way points
+     * given as parameters, if its duration does not exceed the given one.
+     * The search stops as soon as the end way point is reached, or when all the
+     * intersections which can be reached within the maximal duration have been visited.
+     * @param startWaypoint Start point from which the shortest path begin.
+     * @param endWaypoint End point on which the shortest path end.
+     * @param maxDuration The maximal duration of the path.
+     * @return A Route instance which contains a list of street sections
+     * which corresponds to the shortest path between the start and the end
+     * point given as parameters, or null if there is no path whose duration is lower or
+     * equal to the maximal duration.
+     */
+    @Requires({"maxDuration >= 0"})
+    @Ensures({"result == null || result.getDuration() <= maxDuration"})
+    public Route shortestPath(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint, int maxDuration) {
+        if (!this.canReach(startWaypoint, endWaypoint)) {
+            return null;
+        }
+        ContractionHierarchy contractionHierarchy = this.contractionHierarchy;
+        List<AbstractWaypoint> endWaypoints = Collections.singletonList(endWaypoint);
+        Route route;
+        if (contractionHierarchy != null) {
+            route = this.hierarchyShortestPath(contractionHierarchy, startWaypoint, endWaypoint);
+        } else {
+            ShortestPathTree tree = this.shortestPathCache.get(graph.getIndex(startWaypoint.getId()), getIndexes(endWaypoints));
+            if (tree == null) {
+                tree = this.aStarShortestPath(startWaypoint, endWaypoint, maxDuration);
+                this.shortestPathCache.put(tree);
+            }
+            route = this.computeReturn(tree, startWaypoint, endWaypoints).get(0);
+        }
+        if ((route.getStreetSections().isEmpty() && startWaypoint.getId() != endWaypoint.getId())
+            || route.getDuration() > maxDuration) {
+            return null;
+        }
+        return route;
     }
 
     /**
      * Find the shortest paths between the start way point and each end way points
      * given as parameters.
-     * @param startWayPoint The start point from which the shortest paths begin.
-     * @param endWatPoints The end points on which the shortest paths end.
+     * @param startWaypoint The start point from which the shortest paths begin.
+     * @param endWaypoints The end points on which the shortest paths end.
      * return A list of Route each composed of a list of street sections
      * which correspond to the shortests path between the start and each end points
      * given as parameters.
      */
-    // TODO Complexity to improve by using a min-heap for the greys intersections
-    @Requires({"startWaypoint != null", "endWaypoints != null",
-        "intersections.containsValue(startWaypoint.getIntersection())"})
     protected List<Route> shortestPath(AbstractWaypoint startWaypoint, List<AbstractWaypoint> endWaypoints) {
-        /* Key : the id of an intersection.
-         * Value : an int which will be used as an array index. */
-        Map<Integer, Integer> index = new TreeMap<Integer, Integer>();
-        int counter = 0;
-        for (Map.Entry<Integer, Intersection> entry : intersections.entrySet()) {
-            index.put(entry.getKey(), counter++);
+        return this.shortestPath(startWaypoint, endWaypoints, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find the shortest paths between the start way point and each end way points
+     * given as parameters, whose duration does not exceed the given one.
+     * The grey intersections are kept in a min-heap ordered by duration, so each query
+     * runs in O((V + E) log V). Ties are broken by the order in which the intersections
+     * became grey, so the routes are the same as with a linear scan of the greys.
+     * The search stops as soon as all the end way points have been visited, or when the
+     * remaining grey intersections are farther than the maximal duration.
+     * @param startWaypoint The start point from which the shortest paths begin.
+     * @param endWaypoints The end points on which the shortest paths end.
+     * @param maxDuration The maximal duration of the paths.
+     * return A list of Route each composed of a list of street sections
+     * which correspond to the shortests path between the start and each end points
+     * given as parameters. The route to an end point which cannot be reached within the
+     * maximal duration is empty, as the route to an unreachable end point.
+     */
+    @Requires({"startWaypoint != null", "endWaypoints != null", "maxDuration >= 0",
+        "isIntersectionInCityMap(startWaypoint.getId())"})
+    protected List<Route> shortestPath(AbstractWaypoint startWaypoint, List<AbstractWaypoint> endWaypoints, int maxDuration) {
+        /* Compute and return the list of Route which contains for each end way points
+         * a list of street sections corresponding to the shortest path between the start
+         * way point and the end way point of the route. */
+        return computeReturn(shortestPathTree(startWaypoint, endWaypoints, maxDuration), startWaypoint, endWaypoints);
+    }
+
+    /**
+     * Search the shortest paths from the start way point until all the end way points are visited
+     * (see `shortestPath`), or get them from the cache if they were already searched.
+     * @param startWaypoint The start point from which the shortest paths begin.
+     * @param endWaypoints The end points on which the shortest paths end.
+     * @param maxDuration The maximal duration of the paths.
+     * @return The tree of the search, which settled all the end points which can be reached within the maximal duration.
+     */
+    @Requires({"startWaypoint != null", "endWaypoints != null", "maxDuration >= 0",
+        "isIntersectionInCityMap(startWaypoint.getId())"})
+    ShortestPathTree shortestPathTree(AbstractWaypoint startWaypoint, List<? extends AbstractWaypoint> endWaypoints, int maxDuration) {
+        int startIndex = graph.getIndex(startWaypoint.getId());
+        ShortestPathTree cachedTree = this.shortestPathCache.get(startIndex, getIndexes(endWaypoints));
+        if (cachedTree != null) {
+            return cachedTree;
         }
 
-        Intersection[] predecessors = new Intersection[intersections.size()];
-        int[] durations = new int[intersections.size()];
-        // Intersections which have not been visit yet.
-        Map<Integer, Intersection> blacks = new TreeMap<Integer, Intersection>();
-        /* Intersections which have been visited but whose neighbors have not all
-         * been visited yet. */
-        List<Intersection> greys = new LinkedList<Intersection>();
-        /* Intersections which have been visited and whose all neighbors have
-         * been visited too. */
-        Map<Integer, Intersection> whites = new TreeMap<Integer, Intersection>(intersections);
-
-        /* Remove the start way point to the whites intersections map and
-         * put it in the grey intersections list. */
-        whites.remove(startWaypoint.getId());
-        greys.add(startWaypoint.getIntersection());
-        for (int i = 0; i < durations.length; i++) {
-            durations[i] = Integer.MAX_VALUE;
+        SearchWorkspace workspace = this.workspaces.borrow();
+        workspace.reset();
+        // The end way points which have not been visited yet.
+        int targetsLeft = 0;
+        for (AbstractWaypoint endWaypoint : endWaypoints) {
+            // An unreachable end way point would make the search visit all the intersections it can reach
+            int target = graph.getIndex(endWaypoint.getId());
+            if (reachabilityIndex.canReach(startIndex, target) && workspace.addTarget(target)) {
+                targetsLeft++;
+            }
+        }
+        workspace.reach(startIndex, 0, -1, 0);
+
+        // While all end way points have not been visited...
+        while (targetsLeft > 0 && workspace.hasGreys()) {
+            if (workspace.peekGreyDuration() > maxDuration) {
+                break; // All the remaining intersections are too far
+            }
+            // The grey intersection with the smallest duration becomes black.
+            int minimalGreyIntersection = workspace.settle();
+            if (workspace.isTarget(minimalGreyIntersection) && --targetsLeft == 0) {
+                break; // All the end way points have been reached
+            }
+            // For each street section going out of this grey intersection, its successor is released.
+            int duration = workspace.getDuration(minimalGreyIntersection);
+            for (int edge = graph.getFirstEdge(minimalGreyIntersection); edge < graph.getFirstEdge(minimalGreyIntersection + 1); edge++) {
+                workspace.release(graph.getEdgeTarget(edge), duration + graph.getEdgeDuration(edge), edge, 0);
+            }
         }
-        durations[index.get(startWaypoint.getId())] = 0;
-
-        // While all intersections have not been visited...
-        while (greys.size() != 0) {
-            // Get the grey intersection with the smallest duration.
-            Intersection minimalGreyIntersection = getMinimalGreyIntersection(index, greys, durations);
-            // For each successor of this grey intersection...
-            for (Intersection successor : getNeighbourIntersection(minimalGreyIntersection)) {
-                /* If this successor is white or grey, then the street section between
-                 * the intersection which is being visited and its successor is released. */
-                if (!blacks.containsKey(successor.getId())) {
-                    StreetSection streetSection = getStreetSection(minimalGreyIntersection, successor);
-                    release(index, streetSection, predecessors, durations);
-                    // If this successor is white, he becomes grey.
-                    if (whites.containsKey(successor.getId())) {
-                        whites.remove(successor.getId());
-                        greys.add(successor);
+        ShortestPathTree tree = workspace.toTree(startIndex);
+        this.workspaces.giveBack(workspace);
+        this.shortestPathCache.put(tree);
+        return tree;
+    }
+
+    /**
+     * Search the shortest paths from each start way point to the end way point, with a Dijkstra from the end way
+     * point over the reversed street sections, until all the start way points are visited.
+     * The tree of this search is not cached, as its predecessors are the next street sections towards the end.
+     * @param endWaypoint The end point on which the shortest paths end.
+     * @param startWaypoints The start points from which the shortest paths begin.
+     * @return The tree of the search: its source is the end way point, and the predecessor of an intersection is
+     * the first street section of its shortest path to the end way point.
+     */
+    @Requires({"endWaypoint != null", "startWaypoints != null", "isIntersectionInCityMap(endWaypoint.getId())"})
+    ShortestPathTree reverseShortestPathTree(AbstractWaypoint endWaypoint, List<? extends AbstractWaypoint> startWaypoints) {
+        SearchWorkspace workspace = this.workspaces.borrow();
+        workspace.reset();
+        int endIndex = graph.getIndex(endWaypoint.getId());
+        int targetsLeft = 0;
+        for (int target : getIndexes(startWaypoints)) {
+            if (reachabilityIndex.canReach(target, endIndex) && workspace.addTarget(target)) {
+                targetsLeft++;
+            }
+        }
+        workspace.reach(endIndex, 0, -1, 0);
+
+        while (targetsLeft > 0 && workspace.hasGreys()) {
+            int minimalGreyIntersection = workspace.settle();
+            if (workspace.isTarget(minimalGreyIntersection) && --targetsLeft == 0) {
+                break;
+            }
+            // For each street section coming into this grey intersection...
+            int duration = workspace.getDuration(minimalGreyIntersection);
+            for (int position = graph.getFirstIncomingEdge(minimalGreyIntersection);
+                 position < graph.getFirstIncomingEdge(minimalGreyIntersection + 1); position++) {
+                int edge = graph.getIncomingEdge(position);
+                workspace.release(graph.getEdgeSource(edge), duration + graph.getEdgeDuration(edge), edge, 0);
+            }
+        }
+        ShortestPathTree tree = workspace.toTree(endIndex);
+        this.workspaces.giveBack(workspace);
+        return tree;
+    }
+
+    /**
+     * Find the shortest path between the start and the end way points given as parameters with
+     * the A* algorithm: the grey intersections are visited by increasing duration from the start
+     * plus lower bound of the duration to the end (see `getLowerBound`). This lower bound never
+     * decreases by more than the duration of a street section, so the search can stop as soon as
+     * the end way point is visited, and the path has the same duration as the one found by Dijkstra.
+     * @param startWaypoint Start point from which the shortest path begin.
+     * @param endWaypoint End point on which the shortest path end.
+     * @param maxDuration The maximal duration of the path.
+     * @return The tree of the search. The intersections it settled, which include the end way point unless
+     * there is no path whose duration is lower or equal to the maximal duration, have their shortest path.
+     */
+    @Requires({"startWaypoint != null", "endWaypoint != null", "maxDuration >= 0",
+        "isIntersectionInCityMap(startWaypoint.getId())", "isIntersectionInCityMap(endWaypoint.getId())"})
+    private ShortestPathTree aStarShortestPath(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint, int maxDuration) {
+        int startIndex = graph.getIndex(startWaypoint.getId());
+        int endIndex = graph.getIndex(endWaypoint.getId());
+        LandmarkIndex landmarkIndex = this.landmarkIndex;
+        SearchWorkspace workspace = this.workspaces.borrow();
+        workspace.reset();
+        workspace.reach(startIndex, 0, -1, heuristic(startIndex, endIndex, landmarkIndex));
+
+        while (workspace.hasGreys()) {
+            if (workspace.peekGreyDuration() > maxDuration) {
+                break; // The end way point is too far
+            }
+            int minimalGreyIntersection = workspace.settle();
+            if (minimalGreyIntersection == endIndex) {
+                break;
+            }
+            int duration = workspace.getDuration(minimalGreyIntersection);
+            for (int edge = graph.getFirstEdge(minimalGreyIntersection); edge < graph.getFirstEdge(minimalGreyIntersection + 1); edge++) {
+                int successor = graph.getEdgeTarget(edge);
+                // The lower bound of an intersection is only computed when it is reached for the first time
+                if (!workspace.isReached(successor)) {
+                    int bound = heuristic(successor, endIndex, landmarkIndex);
+                    if (bound != LandmarkIndex.UNREACHABLE) {
+                        workspace.reach(successor, duration + graph.getEdgeDuration(edge), edge, bound);
+                    } // else the end cannot be reached from the successor: it is skipped
+                } else {
+                    workspace.release(successor, duration + graph.getEdgeDuration(edge), edge, 0);
+                }
+            }
+        }
+        ShortestPathTree tree = workspace.toTree(startIndex);
+        this.workspaces.giveBack(workspace);
+        return tree;
+    }
+
+    /**
+     * Find the shortest path between the start and the end way points given as parameters with a
+     * bidirectional Dijkstra: a search from the start over the street sections and a search from the end
+     * over the reversed street sections are run alternately, the one with the closest grey intersection first.
+     * Each street section between an intersection visited from the start and one reached from the end gives
+     * a path, and the search stops as soon as the sum of the smallest grey durations of both searches reaches
+     * the duration of the best of these paths: no shorter path can be found anymore.
+     * Both searches visit about the intersections within half the duration of the path, instead of all the
+     * intersections within the whole duration for a single search.
+     * @param startWaypoint Start point from which the shortest path begin.
+     * @param endWaypoint End point on which the shortest path end.
+     * @return A Route instance which contains a list of street sections
+     * which corresponds to the shortest path between the start and the end
+     * point given as parameters. The route is empty if there is no path.
+     */
+    @Requires({"startWaypoint != null", "endWaypoint != null",
+        "isIntersectionInCityMap(startWaypoint.getId())", "isIntersectionInCityMap(endWaypoint.getId())"})
+    public Route bidirectionalShortestPath(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint) {
+        int startIndex = graph.getIndex(startWaypoint.getId());
+        int endIndex = graph.getIndex(endWaypoint.getId());
+        // The street section by which each intersection is reached from the start
+        SearchWorkspace forward = this.workspaces.borrow();
+        // The street section by which the end is reached from each intersection
+        SearchWorkspace backward = this.workspaces.borrow();
+        forward.reset();
+        backward.reset();
+        forward.reach(startIndex, 0, -1, 0);
+        backward.reach(endIndex, 0, -1, 0);
+
+        // The duration of the best path found, and the street section joining both searches on it
+        long bestDuration = startIndex == endIndex ? 0 : Long.MAX_VALUE;
+        int meetingEdge = -1;
+        while (forward.hasGreys() && backward.hasGreys()
+            && (long) forward.peekGreyDuration() + backward.peekGreyDuration() < bestDuration) {
+            if (forward.peekGreyDuration() <= backward.peekGreyDuration()) {
+                int current = forward.settle();
+                int duration = forward.getDuration(current);
+                for (int edge = graph.getFirstEdge(current); edge < graph.getFirstEdge(current + 1); edge++) {
+                    int successor = graph.getEdgeTarget(edge);
+                    forward.release(successor, duration + graph.getEdgeDuration(edge), edge, 0);
+                    if (backward.isReached(successor)
+                        && (long) duration + graph.getEdgeDuration(edge) + backward.getDuration(successor) < bestDuration) {
+                        bestDuration = (long) duration + graph.getEdgeDuration(edge) + backward.getDuration(successor);
+                        meetingEdge = edge;
+                    }
+                }
+            } else {
+                int current = backward.settle();
+                for (int position = graph.getFirstIncomingEdge(current); position < graph.getFirstIncomingEdge(current + 1); position++) {
+                    int edge = graph.getIncomingEdge(position);
+                    int predecessor = graph.getEdgeSource(edge);
+                    int duration = backward.getDuration(current) + graph.getEdgeDuration(edge);
+                    backward.release(predecessor, duration, edge, 0);
+                    if (forward.isReached(predecessor)
+                        && (long) forward.getDuration(predecessor) + duration < bestDuration) {
+                        bestDuration = (long) forward.getDuration(predecessor) + duration;
+                        meetingEdge = edge;
                     }
                 }
             }
-            // The point which was being visited become black.
-            greys.remove(minimalGreyIntersection);
-            blacks.put(minimalGreyIntersection.getId(), minimalGreyIntersection);
         }
-        /* Compute and return the list of Route which contains for each end way points
-         * a list of street sections corresponding to the shortest path between the start
-         * way point and the end way point of the route. */
-        return computeReturn(index, predecessors, startWaypoint, endWaypoints);
+
+        List<StreetSection> streetSections = new ArrayList<StreetSection>();
+        if (meetingEdge >= 0) {
+            for (int edge = forward.getPredecessor(graph.getEdgeSource(meetingEdge)); edge >= 0; edge = forward.getPredecessor(graph.getEdgeSource(edge))) {
+                streetSections.add(graph.getEdgeStreetSection(edge));
+            }
+            Collections.reverse(streetSections);
+            for (int edge = meetingEdge; edge >= 0; edge = backward.getPredecessor(graph.getEdgeTarget(edge))) {
+                streetSections.add(graph.getEdgeStreetSection(edge));
+            }
+        }
+        this.workspaces.giveBack(forward);
+        this.workspaces.giveBack(backward);
+        return new Route(startWaypoint, endWaypoint, streetSections);
+    }
+
+    /**
+     * Find the shortest path between the start and the end way points given as parameters with
+     * a bidirectional search in the contraction hierarchy, whose shortcuts are then replaced by the
+     * street sections they stand for.
+     * @param contractionHierarchy The contraction hierarchy of the city map.
+     * @param startWaypoint Start point from which the shortest path begin.
+     * @param endWaypoint End point on which the shortest path end.
+     * @return A Route instance which contains a list of street sections
+     * which corresponds to the shortest path between the start and the end
+     * point given as parameters. The route is empty if there is no path.
+     */
+    @Requires({"contractionHierarchy != null", "startWaypoint != null", "endWaypoint != null",
+        "isIntersectionInCityMap(startWaypoint.getId())", "isIntersectionInCityMap(endWaypoint.getId())"})
+    private Route hierarchyShortestPath(ContractionHierarchy contractionHierarchy, AbstractWaypoint startWaypoint,
+                                        AbstractWaypoint endWaypoint) {
+        List<Integer> edges = contractionHierarchy.getPath(graph.getIndex(startWaypoint.getId()), graph.getIndex(endWaypoint.getId()));
+        List<StreetSection> streetSections = new ArrayList<StreetSection>();
+        if (edges != null) {
+            for (int edge : edges) {
+                streetSections.add(graph.getEdgeStreetSection(edge));
+            }
+        }
+        return new Route(startWaypoint, endWaypoint, streetSections);
     }
 
     /**
-     * Get the grey intersection with the lowest duration value.
-     * @param index The map used to get a array index from the intersection id.
-     * @param greys The List of grey intersections.
-     * @param durations An array which contains the duration of each intersection.
-     * @return The grey intersection with the lowest duration value.
+     * Compute the shortest durations from each start way point to each end way point.
+     * The contraction hierarchy is used if it has been built, otherwise a search is run from each start way point.
+     * @param startWaypoints The start points from which the paths begin.
+     * @param endWaypoints The end points on which the paths end.
+     * @return The matrix of the durations, `result[i][j]` being the duration of the shortest path from the
+     * start point `i` to the end point `j`, or `ContractionHierarchy.UNREACHABLE` if there is no path.
      */
-    // TODO Improve complexity
-    @Requires({"greys != null", "durations != null", "greys.size() <= durations.length"})
-    @Ensures({"greys.contains(result)"})
-    private Intersection getMinimalGreyIntersection(Map<Integer, Integer> index, List<Intersection> greys, int[] durations) {
-        int minDuration = Integer.MAX_VALUE;
-        Intersection minimalGreyIntersection = null;
+    @Requires({"startWaypoints != null", "endWaypoints != null"})
+    @Ensures({"result.length == startWaypoints.size()"})
+    public int[][] getDurations(List<? extends AbstractWaypoint> startWaypoints, List<? extends AbstractWaypoint> endWaypoints) {
+        ContractionHierarchy contractionHierarchy = this.contractionHierarchy;
+        if (contractionHierarchy != null) {
+            return contractionHierarchy.getDurations(getIndexes(startWaypoints), getIndexes(endWaypoints));
+        }
 
-        for (Intersection greyIntersection : greys) {
-            if (durations[index.get(greyIntersection.getId())] < minDuration) {
-                minDuration = durations[index.get(greyIntersection.getId())];
-                minimalGreyIntersection = greyIntersection;
+        List<AbstractWaypoint> ends = new ArrayList<AbstractWaypoint>(endWaypoints);
+        int[][] durations = new int[startWaypoints.size()][];
+        for (int i = 0; i < durations.length; i++) {
+            AbstractWaypoint startWaypoint = startWaypoints.get(i);
+            List<Route> routes = this.shortestPath(startWaypoint, ends);
+            durations[i] = new int[ends.size()];
+            for (int j = 0; j < durations[i].length; j++) {
+                boolean unreachable = routes.get(j).getStreetSections().isEmpty() && ends.get(j).getId() != startWaypoint.getId();
+                durations[i][j] = unreachable ? ContractionHierarchy.UNREACHABLE : routes.get(j).getDuration();
             }
         }
-        return minimalGreyIntersection;
+        return durations;
+    }
+
+    /**
+     * Build the contraction hierarchy of the city map, so that the next shortest path queries use it.
+     * This takes much longer than a single query, so it should only be done for a city map which
+     * will be queried many times. The hierarchy can be serialized and later loaded back with
+     * `setContractionHierarchy` instead of being built again.
+     * @return The contraction hierarchy of the city map.
+     */
+    @Ensures({"result != null", "result == getContractionHierarchy()"})
+    public ContractionHierarchy buildContractionHierarchy() {
+        ContractionHierarchy contractionHierarchy = new ContractionHierarchy(graph);
+        this.contractionHierarchy = contractionHierarchy;
+        return contractionHierarchy;
+    }
+
+    /**
+     * Get the contraction hierarchy used by the shortest path queries.
+     * @return The contraction hierarchy of the city map, or null if it has been neither built nor loaded.
+     */
+    public ContractionHierarchy getContractionHierarchy() {
+        return this.contractionHierarchy;
     }
 
     /**
-     * Release the street section given as parameter.
-     * In other words update the predecessor and the duration value of the intersection
-     * at the end of the given street section.
-     * @param index The map used to get a array index from the intersection id.
-     * @param streetSection The street section to released.
-     * @param predecessors An array which contains the predecessor of each intersection.
-     * @param durations An array which contains the duration of each intersection.
-     */
-    @Requires({
-        "streetSection != null",
-        "predecessors != null",
-        "durations != null",
-        "predecessors.length == durations.length"})
-    @Ensures({"durations[index.get(streetSection.getEndIntersection().getId())] <= "
-        + "durations[index.get(streetSection.getStartIntersection().getId())] + streetSection.getDuration()"})
-    private void release(Map<Integer, Integer> index, StreetSection streetSection, /* IN/OUT */ Intersection[] predecessors, int[] durations) {
-        int idStartIntersection = streetSection.getStartIntersection().getId();
-        int idEndIntersection = streetSection.getEndIntersection().getId();
-
-        if (durations[index.get(idEndIntersection)] > durations[index.get(idStartIntersection)] + streetSection.getDuration()) {
-            durations[index.get(idEndIntersection)] = durations[index.get(idStartIntersection)] + streetSection.getDuration();
-            predecessors[index.get(idEndIntersection)] = streetSection.getStartIntersection();
+     * Set the contraction hierarchy used by the shortest path queries, for example after deserializing it.
+     * @param contractionHierarchy The contraction hierarchy of the city map, or null to stop using one.
+     * @throws IllegalArgumentException If the hierarchy was not built for the intersections and street sections of this city map.
+     */
+    @Ensures({"getContractionHierarchy() == contractionHierarchy"})
+    public void setContractionHierarchy(ContractionHierarchy contractionHierarchy) {
+        if (contractionHierarchy != null && !contractionHierarchy.isBuiltFor(graph)) {
+            throw new IllegalArgumentException("The contraction hierarchy was built for another city map");
         }
+        this.contractionHierarchy = contractionHierarchy;
+    }
+
+    /**
+     * Get the cache of the shortest path trees computed by the searches on the city map.
+     * Its capacity can be changed, and its counters tell how often the searches are avoided.
+     * @return the shortest path cache of the city map.
+     */
+    public ShortestPathCache getShortestPathCache() {
+        return this.shortestPathCache;
+    }
+
+    /**
+     * Get the indexes of the intersections of the given way points.
+     * @param waypoints The way points.
+     * @return The index of the intersection of each way point.
+     */
+    private int[] getIndexes(List<? extends AbstractWaypoint> waypoints) {
+        int[] indexes = new int[waypoints.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = graph.getIndex(waypoints.get(i).getId());
+        }
+        return indexes;
+    }
+
+    /**
+     * Choose landmark intersections and compute the durations from and to them, so that the lower bounds
+     * of the durations (and so the A* searches) also use the triangle inequality with the landmarks.
+     * This takes two full searches per landmark and stores two durations per landmark and intersection.
+     * @param landmarkCount The number of landmarks.
+     * @return The landmark index of the city map.
+     */
+    @Requires({"landmarkCount > 0"})
+    @Ensures({"result != null", "result == getLandmarkIndex()"})
+    public LandmarkIndex buildLandmarkIndex(int landmarkCount) {
+        LandmarkIndex landmarkIndex = new LandmarkIndex(graph, landmarkCount);
+        this.landmarkIndex = landmarkIndex;
+        return landmarkIndex;
+    }
+
+    /**
+     * Get the landmarks used to compute lower bounds of the durations.
+     * @return The landmark index of the city map, or null if no landmarks have been chosen.
+     */
+    public LandmarkIndex getLandmarkIndex() {
+        return this.landmarkIndex;
+    }
+
+    /**
+     * Check if there is a path from a way point to another one, without searching it: the strongly connected
+     * components of the city map are computed once when it is created.
+     * @param startWaypoint The way point from which the path begins.
+     * @param endWaypoint The way point on which the path ends.
+     * @return true if the end way point can be reached from the start way point, false otherwise.
+     */
+    @Requires({"startWaypoint != null", "endWaypoint != null",
+        "isIntersectionInCityMap(startWaypoint.getId())", "isIntersectionInCityMap(endWaypoint.getId())"})
+    public boolean canReach(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint) {
+        return this.reachabilityIndex.canReach(graph.getIndex(startWaypoint.getId()), graph.getIndex(endWaypoint.getId()));
+    }
+
+    /**
+     * Get a lower bound of the duration of the paths between two way points, without searching them: the
+     * largest of the euclidean bound and of the landmark bounds, if the landmarks have been chosen.
+     * @param startWaypoint The start way point.
+     * @param endWaypoint The end way point.
+     * @return A lower bound of the duration of the shortest path from the start to the end way point, or
+     * `LandmarkIndex.UNREACHABLE` if the landmarks show that there is no path.
+     */
+    @Requires({"startWaypoint != null", "endWaypoint != null",
+        "isIntersectionInCityMap(startWaypoint.getId())", "isIntersectionInCityMap(endWaypoint.getId())"})
+    @Ensures({"result >= 0"})
+    public int getLowerBound(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint) {
+        return heuristic(graph.getIndex(startWaypoint.getId()), graph.getIndex(endWaypoint.getId()), this.landmarkIndex);
+    }
+
+    /**
+     * Get a lower bound of the duration of the paths between two intersections. Both the euclidean bound
+     * and the landmark bounds are consistent, and so is their maximum. The intersections which cannot reach the
+     * end get `LandmarkIndex.UNREACHABLE`, and so do all their successors.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @param landmarkIndex The landmarks of the city map, or null.
+     * @return A lower bound of the duration of the paths from the start to the end intersection.
+     */
+    private int heuristic(int start, int end, LandmarkIndex landmarkIndex) {
+        int bound = (int) (durationPerDistance * distance(graph.getIntersection(start), graph.getIntersection(end)));
+        return landmarkIndex == null ? bound : Math.max(bound, landmarkIndex.getLowerBound(start, end));
+    }
+
+    /**
+     * Get the euclidean distance between two intersections.
+     * @param start The first intersection.
+     * @param end The second intersection.
+     * @return The euclidean distance between the two intersections.
+     */
+    private static double distance(Intersection start, Intersection end) {
+        double dx = end.getX() - start.getX();
+        double dy = end.getY() - start.getY();
+        return Math.sqrt(dx * dx + dy * dy);
     }
 
     /**
      * Create a list of Route which contains for each one the shortest path between
-     * its start and it end way point using the predecessors array given as parameter.
-     * @param index The map used to get a array index from the intersection id.
-     * @param predecessors An array which contains the predecessor of each intersection.
+     * its start and it end way point using the shortest path tree given as parameter.
+     * @param tree The shortest path tree of the start way point.
      * @param startWaypoint The way point from which the shortest paths begin.
      * @param endWaypoints The way points on which the shortest paths end.
-     * @return Return the list of Route which contains the shortest paths.
+     * @return Return the list of Route which contains the shortest paths. The route to an end way
+     * point whose shortest path has not been found is empty.
      */
-    @Requires({"endWaypoints != null", "startWaypoint != null"})
-    private List<Route> computeReturn(Map<Integer, Integer> index, Intersection[] predecessors, AbstractWaypoint startWaypoint, List<AbstractWaypoint> endWaypoints) {
+    @Requires({"tree != null", "endWaypoints != null", "startWaypoint != null"})
+    private List<Route> computeReturn(ShortestPathTree tree, AbstractWaypoint startWaypoint, List<AbstractWaypoint> endWaypoints) {
         List<Route> result = new ArrayList<Route>();
         for (AbstractWaypoint endWaypoint : endWaypoints) {
-            List<StreetSection> streetSectionsInCurrentRoute = new LinkedList<StreetSection>();
-
-            Intersection currentIntersection = endWaypoint.getIntersection();
-            Intersection precedentIntersection = predecessors[index.get(currentIntersection.getId())];
+            List<StreetSection> streetSectionsInCurrentRoute = new ArrayList<StreetSection>();
 
             /* For a given end way point, use the predecessor array to fill the list of way points
              * whereby the shortest path go through. */
-            while (precedentIntersection != null) {
-                streetSectionsInCurrentRoute.add(0, getStreetSection(precedentIntersection, currentIntersection));
-                currentIntersection = precedentIntersection;
-                precedentIntersection = predecessors[index.get(currentIntersection.getId())];
+            int endIndex = graph.getIndex(endWaypoint.getId());
+            int predecessor = tree.isSettled(endIndex) ? tree.getPredecessor(endIndex) : -1;
+            while (predecessor >= 0) {
+                streetSectionsInCurrentRoute.add(graph.getEdgeStreetSection(predecessor));
+                predecessor = tree.getPredecessor(graph.getEdgeSource(predecessor));
             }
+            Collections.reverse(streetSectionsInCurrentRoute);
 
             result.add(new Route(startWaypoint, endWaypoint, streetSectionsInCurrentRoute));
         }
@@ -227,34 +615,35 @@ public class CityMap {
     }
 
     /**
-     * Get a collection of intersections which are the neighbors of the given intersection.
-     * @param intersection The intersection for which the neighbors have to be found.
-     * @return A collection of intersections which are the neighbors of the given intersection.
+     * Compute a delivery graph by using a delivery request.
+     * @param request The delivery request for which the delivery graph has to be computed.
+     * @return A delivery graph which contains the way points contained in the given
+     * delivery request.
      */
-    @Requires({"intersections.containsValue(intersection)"})
-    private Collection<Intersection> getNeighbourIntersection(Intersection intersection) {
-        Map<Integer, StreetSection> outStreetSections = streetSections.get(intersection.getId());
-        List<Intersection> neighbourIntersections = new ArrayList<Intersection>();
-
-        if (outStreetSections != null) {
-            for (Map.Entry<Integer, StreetSection> entry : outStreetSections.entrySet()) {
-                neighbourIntersections.add(getIntersection(entry.getKey()));
-            }
-        }
-        return neighbourIntersections;
+    @Requires({"request != null", "request.getWarehouse() != null", "request.getDeliveryAddresses() != null"})
+    public DeliveryGraph computeDeliveryGraph(DeliveryRequest request) {
+        return this.computeDeliveryGraph(request, null);
     }
 
     /**
      * Compute a delivery graph by using a delivery request.
+     * The shortest paths from each way point are independent, so when an executor is given they
+     * are all computed at once on it, and merged into the delivery graph when they are all done.
+     * Only the durations and the shortest path trees are kept in the delivery graph: the routes
+     * are built when they are asked for. With a contraction hierarchy, the durations are computed
+     * all at once and the routes are searched in the hierarchy when they are asked for.
      * @param request The delivery request for which the delivery graph has to be computed.
+     * @param executor The executor on which the shortest paths are computed, or null to compute them
+     * one after another in the current thread.
      * @return A delivery graph which contains the way points contained in the given
      * delivery request.
+     * @throws IllegalArgumentException If a delivery address cannot be reached from the warehouse or cannot reach it.
      */
     @Requires({"request != null", "request.getWarehouse() != null", "request.getDeliveryAddresses() != null"})
-    public DeliveryGraph computeDeliveryGraph(DeliveryRequest request) {
+    public DeliveryGraph computeDeliveryGraph(DeliveryRequest request, ExecutorService executor) {
         /* Create a list of way points which contains the warehouse of the request
          * and all its delivery adresses. */
-        List<AbstractWaypoint> pointsContainedInRequest = new LinkedList<AbstractWaypoint>();
+        List<AbstractWaypoint> pointsContainedInRequest = new ArrayList<AbstractWaypoint>();
         pointsContainedInRequest.add(request.getWarehouse());
 
         Iterable<DeliveryAddress> adressContainedInRequest = request.getDeliveryAddresses();
@@ -262,22 +651,59 @@ public class CityMap {
             pointsContainedInRequest.add(adress);
         }
 
-        Map<AbstractWaypoint, Map<AbstractWaypoint, Route>> mappedRoutes = new TreeMap<AbstractWaypoint, Map<AbstractWaypoint, Route>>();
-        for (int i = 0; i < pointsContainedInRequest.size(); i++) {
-            // Always get first element as it will be deleted and pushed back at the end of the list.
-            AbstractWaypoint startPoint = pointsContainedInRequest.get(0);
-            Map<AbstractWaypoint, Route> routesFromGivenStartPoint = new TreeMap<AbstractWaypoint, Route>();
-            // Remove start point from list to prevent zero point route.
-            pointsContainedInRequest.remove(0); //Remove startPoint from the list.
-            List<Route> shortestPathRoutes = shortestPath(startPoint, pointsContainedInRequest);
-            pointsContainedInRequest.add(startPoint);// Add startPoint back to the list (at the end).
-
-            for (Route route : shortestPathRoutes) {
-                routesFromGivenStartPoint.put(route.getEndWaypoint(), route);
+        // Fail before any search if a delivery address cannot be reached from the warehouse or cannot reach it
+        for (AbstractWaypoint waypoint : pointsContainedInRequest) {
+            if (!this.canReach(request.getWarehouse(), waypoint) || !this.canReach(waypoint, request.getWarehouse())) {
+                throw new IllegalArgumentException("The delivery address " + waypoint.getId()
+                    + " cannot be reached from the warehouse or cannot reach it");
             }
-            mappedRoutes.put(startPoint, routesFromGivenStartPoint);
         }
-        return new DeliveryGraph(request.getCityMap(), mappedRoutes);
+
+        DeliveryGraph deliveryGraph = new DeliveryGraph(request.getCityMap(), pointsContainedInRequest);
+        List<AbstractWaypoint> nodes = deliveryGraph.getNodes();
+
+        ContractionHierarchy contractionHierarchy = this.contractionHierarchy;
+        if (contractionHierarchy != null) {
+            int[][] durations = contractionHierarchy.getDurations(getIndexes(nodes), getIndexes(nodes));
+            for (int i = 0; i < nodes.size(); i++) {
+                for (int j = 0; j < nodes.size(); j++) {
+                    if (durations[i][j] == ContractionHierarchy.UNREACHABLE) {
+                        durations[i][j] = 0; // As the duration of an empty route
+                    }
+                }
+                deliveryGraph.setRow(i, durations[i]);
+            }
+        } else if (executor == null) {
+            for (int i = 0; i < nodes.size(); i++) {
+                deliveryGraph.setRow(i, shortestPathTree(nodes.get(i), nodes, Integer.MAX_VALUE));
+            }
+        } else {
+            // One task (i.e. one row of the delivery graph) per start point
+            List<Callable<ShortestPathTree>> searches = new ArrayList<Callable<ShortestPathTree>>();
+            for (AbstractWaypoint startPoint : nodes) {
+                searches.add(() -> shortestPathTree(startPoint, nodes, Integer.MAX_VALUE));
+            }
+            try {
+                List<Future<ShortestPathTree>> rows = executor.invokeAll(searches);
+                for (int i = 0; i < nodes.size(); i++) {
+                    deliveryGraph.setRow(i, rows.get(i).get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while computing the delivery graph", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Unable to compute the delivery graph", e.getCause());
+            }
+        }
+        return deliveryGraph;
+    }
+
+    /**
+     * Get the graph of the intersections and street sections of the city map.
+     * @return the graph of the city map.
+     */
+    StreetGraph getGraph() {
+        return this.graph;
     }
 
     /**
@@ -286,8 +712,10 @@ public class CityMap {
      * city map.
      */
     public List<Intersection> getIntersections() {
-        List<Intersection> listIntersection = new ArrayList<Intersection>();
-        listIntersection.addAll(this.intersections.values());
+        List<Intersection> listIntersection = new ArrayList<Intersection>(graph.size());
+        for (int i = 0; i < graph.size(); i++) {
+            listIntersection.add(graph.getIntersection(i));
+        }
         return listIntersection;
     }
 
@@ -297,9 +725,9 @@ public class CityMap {
      * city map.
      */
     public List<StreetSection> getStreetSections() {
-        List<StreetSection> listStreetSection = new ArrayList<StreetSection>();
-        for (Map<Integer, StreetSection> value : this.streetSections.values()) {
-            listStreetSection.addAll(value.values());
+        List<StreetSection> listStreetSection = new ArrayList<StreetSection>(graph.getEdgeCount());
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+            listStreetSection.add(graph.getEdgeStreetSection(edge));
         }
         return listStreetSection;
     }
@@ -309,9 +737,9 @@ public class CityMap {
      * @param idIntersection the id of intersection to retrieve. The id must be in the map.
      * @return the intersection with the supplied id.
      */
-    @Requires({"intersections.containsKey(idIntersection)"})
+    @Requires({"isIntersectionInCityMap(idIntersection)"})
     public Intersection getIntersection(int idIntersection) {
-        return this.intersections.get(idIntersection);
+        return this.graph.getIntersection(this.graph.getIndex(idIntersection));
     }
 
     /**
@@ -322,28 +750,7 @@ public class CityMap {
      * false otherwise.
      */
     public boolean isIntersectionInCityMap(int idIntersection) {
-        return this.intersections.containsKey(idIntersection);
-    }
-
-    /**
-     * Get the street section contained in the city map which begins with the given start
-     * intersection and which ends with the given end intersection.
-     * @param startIntersection The intersection by which have to begin the searched
-     * street section.
-     * @param endIntersection The intersection by which have to end the searched
-     * street section.
-     * @return a street section contained in the city map which begins with the given start
-     * intersection and which ends with the given end intersection.
-     * Return null if the city map does not contain such a street section.
-     */
-    @Requires({"intersections.containsValue(startIntersection)", "intersections.containsValue(endIntersection)"})
-    @Ensures({"result.getStartIntersection().equals(startIntersection)", "result.getEndIntersection().equals(endIntersection)"})
-    private StreetSection getStreetSection(Intersection startIntersection, Intersection endIntersection) {
-        Map<Integer, StreetSection> outStreetSections = this.streetSections.get(startIntersection.getId());
-        if (outStreetSections != null) {
-            return outStreetSections.get(endIntersection.getId());
-        }
-        return null;
+        return this.graph.getIndex(idIntersection) >= 0;
     }
 
     /**
@@ -358,30 +765,6 @@ public class CityMap {
         } else if (this == obj)
             return true;
         CityMap other = (CityMap) obj;
-
-        if (intersections.size() != other.intersections.size())
-            return false;
-        for (Map.Entry<Integer, Intersection> entry : intersections.entrySet()) {
-            if (!entry.getValue().equals(other.intersections.get(entry.getKey())))
-                return false;
-        }
-
-        if (streetSections.size() != other.streetSections.size())
-            return false;
-        for (Map.Entry<Integer, Map<Integer, StreetSection>> entrySubMap : streetSections.entrySet()) {
-            Map<Integer, StreetSection> otherSubMap = other.streetSections.get(entrySubMap.getKey());
-            if (otherSubMap == null && entrySubMap.getValue() != null || otherSubMap != null && entrySubMap.getKey() == null)
-                return false;
-            if (otherSubMap == null)
-                continue; // The two sub item are null, so they are equals
-            if (otherSubMap.size() != entrySubMap.getValue().size())
-                return false;
-
-            for (Map.Entry<Integer, StreetSection> entry : entrySubMap.getValue().entrySet()) {
-                if (!entry.getValue().equals(otherSubMap.get(entry.getKey())))
-                    return false;
-            }
-        }
-        return true;
+        return this.graph.hasSameStructure(other.graph);
     }
 }
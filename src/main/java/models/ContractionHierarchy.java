@@ -0,0 +1,923 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Contraction hierarchy of a street graph: the intersections are contracted one after the other, in an order
+ * given by their importance, and shortcuts are added between their neighbours to preserve the shortest durations.
+ * A shortest path query is then a bidirectional Dijkstra only following edges towards more important intersections,
+ * which settles a few hundred intersections instead of the whole graph.
+ *
+ * The hierarchy only contains indexes of the street graph it was built from, so it can be serialized and loaded
+ * back for the same city map with `isBuiltFor`. Queries are thread safe.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximal number of intersections settled by a witness search during the construction.
+     * A lower value makes the construction faster but adds unnecessary shortcuts.
+     */
+    private static final int WITNESS_SEARCH_LIMIT = 500;
+
+    /**
+     * Duration returned for the pairs of intersections without any path between them.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * Fingerprint of the street graph the hierarchy was built from.
+     */
+    private final long graphFingerprint;
+
+    /**
+     * The position of each intersection in the contraction order.
+     */
+    private final int[] ranks;
+
+    /**
+     * The index of the start intersection of each edge (original edge or shortcut).
+     */
+    private final int[] edgeSources;
+
+    /**
+     * The index of the end intersection of each edge (original edge or shortcut).
+     */
+    private final int[] edgeTargets;
+
+    /**
+     * The index of the street graph edge of each original edge, or -1 for a shortcut.
+     */
+    private final int[] edgeOriginals;
+
+    /**
+     * The first edge replaced by each shortcut, or -1 for an original edge.
+     */
+    private final int[] edgeFirstChildren;
+
+    /**
+     * The second edge replaced by each shortcut, or -1 for an original edge.
+     */
+    private final int[] edgeSecondChildren;
+
+    /**
+     * The index of the first upward edge of each intersection, with one more cell for the end of the last one.
+     * The upward edges of `i` go from `i` to a more important intersection.
+     */
+    private final int[] upwardOffsets;
+
+    /**
+     * The upward edges, grouped by start intersection.
+     */
+    private final int[] upwardEdges;
+
+    /**
+     * The duration of the upward edges.
+     */
+    private final int[] upwardDurations;
+
+    /**
+     * The index of the first downward edge of each intersection, with one more cell for the end of the last one.
+     * The downward edges of `i` go from a more important intersection to `i`.
+     */
+    private final int[] downwardOffsets;
+
+    /**
+     * The downward edges, grouped by end intersection.
+     */
+    private final int[] downwardEdges;
+
+    /**
+     * The duration of the downward edges.
+     */
+    private final int[] downwardDurations;
+
+    /**
+     * The search states, lent to each query of the hierarchy and reused by the next ones.
+     */
+    private transient WorkspacePool<Workspace> workspaces;
+
+    /**
+     * Contract the given street graph.
+     * @param graph The graph to contract.
+     */
+    @Requires({"graph != null"})
+    ContractionHierarchy(StreetGraph graph) {
+        Builder builder = new Builder(graph);
+        builder.contract();
+
+        this.graphFingerprint = fingerprint(graph);
+        this.ranks = builder.ranks;
+        this.edgeSources = Arrays.copyOf(builder.sources, builder.edgeCount);
+        this.edgeTargets = Arrays.copyOf(builder.targets, builder.edgeCount);
+        this.edgeOriginals = Arrays.copyOf(builder.originals, builder.edgeCount);
+        this.edgeFirstChildren = Arrays.copyOf(builder.firstChildren, builder.edgeCount);
+        this.edgeSecondChildren = Arrays.copyOf(builder.secondChildren, builder.edgeCount);
+
+        int size = graph.size();
+        this.upwardOffsets = new int[size + 1];
+        this.downwardOffsets = new int[size + 1];
+        for (int edge = 0; edge < builder.edgeCount; edge++) {
+            if (this.isUpward(edge)) {
+                this.upwardOffsets[this.edgeSources[edge] + 1]++;
+            } else {
+                this.downwardOffsets[this.edgeTargets[edge] + 1]++;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            this.upwardOffsets[i + 1] += this.upwardOffsets[i];
+            this.downwardOffsets[i + 1] += this.downwardOffsets[i];
+        }
+        this.upwardEdges = new int[this.upwardOffsets[size]];
+        this.upwardDurations = new int[this.upwardOffsets[size]];
+        this.downwardEdges = new int[this.downwardOffsets[size]];
+        this.downwardDurations = new int[this.downwardOffsets[size]];
+        int[] upwardNext = Arrays.copyOf(this.upwardOffsets, size);
+        int[] downwardNext = Arrays.copyOf(this.downwardOffsets, size);
+        for (int edge = 0; edge < builder.edgeCount; edge++) {
+            if (this.isUpward(edge)) {
+                int position = upwardNext[this.edgeSources[edge]]++;
+                this.upwardEdges[position] = edge;
+                this.upwardDurations[position] = builder.durations[edge];
+            } else {
+                int position = downwardNext[this.edgeTargets[edge]]++;
+                this.downwardEdges[position] = edge;
+                this.downwardDurations[position] = builder.durations[edge];
+            }
+        }
+
+        this.initWorkspaces();
+    }
+
+    /**
+     * Check if the hierarchy was built from a graph with the same intersections and street sections as the given one.
+     * @param graph The graph to check.
+     * @return true if the hierarchy can answer the queries on the graph, false otherwise.
+     */
+    public boolean isBuiltFor(StreetGraph graph) {
+        return graph.size() == this.ranks.length && fingerprint(graph) == this.graphFingerprint;
+    }
+
+    /**
+     * Get the number of intersections of the hierarchy.
+     * @return the number of intersections of the hierarchy.
+     */
+    public int size() {
+        return this.ranks.length;
+    }
+
+    /**
+     * Get the number of shortcuts added by the contraction.
+     * @return the number of shortcuts of the hierarchy.
+     */
+    public int getShortcutCount() {
+        int count = 0;
+        for (int original : this.edgeOriginals) {
+            if (original < 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Compute the shortest duration from an intersection to another.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @return The shortest duration, or `UNREACHABLE` if there is no path.
+     */
+    @Requires({"start >= 0", "start < size()", "end >= 0", "end < size()"})
+    public int getDuration(int start, int end) {
+        Workspace workspace = this.workspaces.borrow();
+        int duration = this.search(start, end, workspace) < 0 ? UNREACHABLE : workspace.best;
+        this.workspaces.giveBack(workspace);
+        return duration;
+    }
+
+    /**
+     * Compute a shortest path from an intersection to another.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @return The street graph edges of the path, in order, or null if there is no path.
+     */
+    @Requires({"start >= 0", "start < size()", "end >= 0", "end < size()"})
+    public List<Integer> getPath(int start, int end) {
+        Workspace workspace = this.workspaces.borrow();
+        int meeting = this.search(start, end, workspace);
+        if (meeting < 0) {
+            this.workspaces.giveBack(workspace);
+            return null;
+        }
+
+        List<Integer> edges = new ArrayList<Integer>();
+        for (int current = meeting; current != start; ) {
+            int edge = workspace.forwardParents[current];
+            edges.add(edge);
+            current = this.edgeSources[edge];
+        }
+        List<Integer> path = new ArrayList<Integer>();
+        for (int i = edges.size() - 1; i >= 0; i--) {
+            this.unpack(edges.get(i), path);
+        }
+        for (int current = meeting; current != end; ) {
+            int edge = workspace.backwardParents[current];
+            this.unpack(edge, path);
+            current = this.edgeTargets[edge];
+        }
+        this.workspaces.giveBack(workspace);
+        return path;
+    }
+
+    /**
+     * Compute the shortest durations from each start intersection to each end intersection.
+     * The upward search space of each end intersection is stored once in buckets, then scanned by the
+     * upward search of each start intersection.
+     * @param starts The indexes of the start intersections.
+     * @param ends The indexes of the end intersections.
+     * @return The matrix of the durations, `result[i][j]` being the duration from `starts[i]` to `ends[j]`,
+     * or `UNREACHABLE` if there is no path.
+     */
+    @Requires({"starts != null", "ends != null"})
+    @Ensures({"result.length == starts.length"})
+    public int[][] getDurations(int[] starts, int[] ends) {
+        Workspace workspace = this.workspaces.borrow();
+        int size = this.size();
+
+        // Backward search from each end, filling the buckets
+        List<int[]> entries = new ArrayList<int[]>();
+        int[] bucketOffsets = new int[size + 1];
+        for (int j = 0; j < ends.length; j++) {
+            workspace.reset();
+            workspace.reach(false, ends[j], 0, -1);
+            while (!workspace.backwardGreys.isEmpty()) {
+                int current = workspace.backwardGreys.poll();
+                int duration = workspace.backwardDurations[current];
+                entries.add(new int[]{current, j, duration});
+                bucketOffsets[current + 1]++;
+                this.relaxDownward(current, duration, workspace);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            bucketOffsets[i + 1] += bucketOffsets[i];
+        }
+        int[] bucketEnds = new int[entries.size()];
+        int[] bucketDurations = new int[entries.size()];
+        int[] bucketNext = Arrays.copyOf(bucketOffsets, size);
+        for (int[] entry : entries) {
+            int position = bucketNext[entry[0]]++;
+            bucketEnds[position] = entry[1];
+            bucketDurations[position] = entry[2];
+        }
+
+        // Forward search from each start, scanning the buckets
+        int[][] durations = new int[starts.length][ends.length];
+        for (int i = 0; i < starts.length; i++) {
+            Arrays.fill(durations[i], UNREACHABLE);
+            workspace.reset();
+            workspace.reach(true, starts[i], 0, -1);
+            while (!workspace.forwardGreys.isEmpty()) {
+                int current = workspace.forwardGreys.poll();
+                int duration = workspace.forwardDurations[current];
+                for (int position = bucketOffsets[current]; position < bucketOffsets[current + 1]; position++) {
+                    int total = duration + bucketDurations[position];
+                    if (total < durations[i][bucketEnds[position]]) {
+                        durations[i][bucketEnds[position]] = total;
+                    }
+                }
+                this.relaxUpward(current, duration, workspace);
+            }
+        }
+        this.workspaces.giveBack(workspace);
+        return durations;
+    }
+
+    /**
+     * Run a bidirectional upward search between two intersections.
+     * The shortest duration is stored in `workspace.best`.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @param workspace The search state of the query.
+     * @return The intersection where the two searches met on a shortest path, or -1 if there is no path.
+     */
+    private int search(int start, int end, Workspace workspace) {
+        workspace.reset();
+        workspace.best = UNREACHABLE;
+        int meeting = -1;
+        workspace.reach(true, start, 0, -1);
+        workspace.reach(false, end, 0, -1);
+
+        IndexedMinHeap forwardGreys = workspace.forwardGreys;
+        IndexedMinHeap backwardGreys = workspace.backwardGreys;
+        while (!forwardGreys.isEmpty() || !backwardGreys.isEmpty()) {
+            boolean forward = backwardGreys.isEmpty()
+                || (!forwardGreys.isEmpty() && forwardGreys.peekKey() <= backwardGreys.peekKey());
+            IndexedMinHeap greys = forward ? forwardGreys : backwardGreys;
+            // No path through an intersection further than the best one can be shorter
+            if (greys.peekKey() >= workspace.best) {
+                greys.clear();
+                continue;
+            }
+
+            int current = greys.poll();
+            int duration = forward ? workspace.forwardDurations[current] : workspace.backwardDurations[current];
+            if (workspace.isReached(!forward, current)) {
+                int other = forward ? workspace.backwardDurations[current] : workspace.forwardDurations[current];
+                if (duration + other < workspace.best) {
+                    workspace.best = duration + other;
+                    meeting = current;
+                }
+            }
+            if (forward) {
+                this.relaxUpward(current, duration, workspace);
+            } else {
+                this.relaxDownward(current, duration, workspace);
+            }
+        }
+        return meeting;
+    }
+
+    /**
+     * Relax the upward edges of an intersection settled by a forward search.
+     * @param current The settled intersection.
+     * @param duration The shortest duration to the intersection.
+     * @param workspace The search state of the query.
+     */
+    private void relaxUpward(int current, int duration, Workspace workspace) {
+        for (int position = this.upwardOffsets[current]; position < this.upwardOffsets[current + 1]; position++) {
+            int edge = this.upwardEdges[position];
+            int successor = this.edgeTargets[edge];
+            int successorDuration = duration + this.upwardDurations[position];
+            if (!workspace.isReached(true, successor) || successorDuration < workspace.forwardDurations[successor]) {
+                workspace.reach(true, successor, successorDuration, edge);
+            }
+        }
+    }
+
+    /**
+     * Relax the downward edges of an intersection settled by a backward search.
+     * @param current The settled intersection.
+     * @param duration The shortest duration from the intersection.
+     * @param workspace The search state of the query.
+     */
+    private void relaxDownward(int current, int duration, Workspace workspace) {
+        for (int position = this.downwardOffsets[current]; position < this.downwardOffsets[current + 1]; position++) {
+            int edge = this.downwardEdges[position];
+            int predecessor = this.edgeSources[edge];
+            int predecessorDuration = duration + this.downwardDurations[position];
+            if (!workspace.isReached(false, predecessor) || predecessorDuration < workspace.backwardDurations[predecessor]) {
+                workspace.reach(false, predecessor, predecessorDuration, edge);
+            }
+        }
+    }
+
+    /**
+     * Replace an edge by the street graph edges it stands for.
+     * @param edge The edge to unpack.
+     * @param path The list where the street graph edges are added, in order.
+     */
+    private void unpack(int edge, List<Integer> path) {
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = edge;
+        while (top > 0) {
+            int current = stack[--top];
+            if (this.edgeOriginals[current] >= 0) {
+                path.add(this.edgeOriginals[current]);
+            } else {
+                if (top + 2 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = this.edgeSecondChildren[current];
+                stack[top++] = this.edgeFirstChildren[current];
+            }
+        }
+    }
+
+    /**
+     * Check if an edge goes towards a more important intersection.
+     * @param edge The edge to check.
+     * @return true if the edge is followed by the forward searches, false if it is followed by the backward ones.
+     */
+    private boolean isUpward(int edge) {
+        return this.ranks[this.edgeSources[edge]] < this.ranks[this.edgeTargets[edge]];
+    }
+
+    /**
+     * Create the empty pool of the search states.
+     */
+    private void initWorkspaces() {
+        final int size = this.ranks.length;
+        this.workspaces = new WorkspacePool<Workspace>(() -> new Workspace(size));
+    }
+
+    /**
+     * Restore the transient state of a deserialized hierarchy.
+     * @param in The stream the hierarchy is read from.
+     * @throws IOException If the stream cannot be read.
+     * @throws ClassNotFoundException If a class of the stream cannot be found.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.initWorkspaces();
+    }
+
+    /**
+     * Compute a fingerprint of the ids, the edges and the durations of a street graph.
+     * @param graph The graph.
+     * @return The fingerprint of the graph.
+     */
+    private static long fingerprint(StreetGraph graph) {
+        long fingerprint = graph.size();
+        for (int i = 0; i < graph.size(); i++) {
+            fingerprint = 31 * fingerprint + graph.getIntersection(i).getId();
+        }
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+            fingerprint = 31 * fingerprint + graph.getEdgeSource(edge);
+            fingerprint = 31 * fingerprint + graph.getEdgeTarget(edge);
+            fingerprint = 31 * fingerprint + graph.getEdgeDuration(edge);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Search state of a query. The arrays are reused by the next queries borrowing it: an intersection
+     * is only considered as reached by a search if its stamp is the one of the current query.
+     */
+    private static class Workspace {
+
+        /**
+         * The stamp of the current query.
+         */
+        int stamp;
+
+        /**
+         * The stamp of the last query which reached each intersection from the start.
+         */
+        final int[] forwardStamps;
+
+        /**
+         * The stamp of the last query which reached each intersection from the end.
+         */
+        final int[] backwardStamps;
+
+        /**
+         * The shortest known duration from the start to each intersection.
+         */
+        final int[] forwardDurations;
+
+        /**
+         * The shortest known duration from each intersection to the end.
+         */
+        final int[] backwardDurations;
+
+        /**
+         * The last edge of the shortest known path from the start to each intersection.
+         */
+        final int[] forwardParents;
+
+        /**
+         * The first edge of the shortest known path from each intersection to the end.
+         */
+        final int[] backwardParents;
+
+        /**
+         * The intersections reached but not settled by the forward search.
+         */
+        final IndexedMinHeap forwardGreys;
+
+        /**
+         * The intersections reached but not settled by the backward search.
+         */
+        final IndexedMinHeap backwardGreys;
+
+        /**
+         * The shortest duration found by the current query.
+         */
+        int best;
+
+        /**
+         * Create the search state for a hierarchy of the given size.
+         * @param size The number of intersections of the hierarchy.
+         */
+        Workspace(int size) {
+            this.forwardStamps = new int[size];
+            this.backwardStamps = new int[size];
+            this.forwardDurations = new int[size];
+            this.backwardDurations = new int[size];
+            this.forwardParents = new int[size];
+            this.backwardParents = new int[size];
+            this.forwardGreys = new IndexedMinHeap(size);
+            this.backwardGreys = new IndexedMinHeap(size);
+        }
+
+        /**
+         * Start a new query.
+         */
+        void reset() {
+            this.forwardGreys.clear();
+            this.backwardGreys.clear();
+            if (++this.stamp == Integer.MAX_VALUE) {
+                Arrays.fill(this.forwardStamps, 0);
+                Arrays.fill(this.backwardStamps, 0);
+                this.stamp = 1;
+            }
+        }
+
+        /**
+         * Check if an intersection was reached by a search of the current query.
+         * @param forward true for the forward search, false for the backward one.
+         * @param intersection The intersection.
+         * @return true if the intersection was reached, false otherwise.
+         */
+        boolean isReached(boolean forward, int intersection) {
+            return (forward ? this.forwardStamps : this.backwardStamps)[intersection] == this.stamp;
+        }
+
+        /**
+         * Record a new shortest known duration for an intersection and add it to the greys of the search.
+         * @param forward true for the forward search, false for the backward one.
+         * @param intersection The reached intersection.
+         * @param duration The duration of the path.
+         * @param parent The edge used to reach the intersection, or -1 for the first one.
+         */
+        void reach(boolean forward, int intersection, int duration, int parent) {
+            if (forward) {
+                this.forwardStamps[intersection] = this.stamp;
+                this.forwardDurations[intersection] = duration;
+                this.forwardParents[intersection] = parent;
+                this.forwardGreys.push(intersection, duration);
+            } else {
+                this.backwardStamps[intersection] = this.stamp;
+                this.backwardDurations[intersection] = duration;
+                this.backwardParents[intersection] = parent;
+                this.backwardGreys.push(intersection, duration);
+            }
+        }
+    }
+
+    /**
+     * Mutable graph used while contracting the intersections.
+     */
+    private static class Builder {
+
+        /**
+         * The number of edges (original edges and shortcuts).
+         */
+        int edgeCount;
+
+        /**
+         * The start intersection of each edge.
+         */
+        int[] sources;
+
+        /**
+         * The end intersection of each edge.
+         */
+        int[] targets;
+
+        /**
+         * The duration of each edge.
+         */
+        int[] durations;
+
+        /**
+         * The street graph edge of each original edge, or -1 for a shortcut.
+         */
+        int[] originals;
+
+        /**
+         * The first edge replaced by each shortcut, or -1 for an original edge.
+         */
+        int[] firstChildren;
+
+        /**
+         * The second edge replaced by each shortcut, or -1 for an original edge.
+         */
+        int[] secondChildren;
+
+        /**
+         * The edges going out of each intersection.
+         */
+        final int[][] outgoing;
+
+        /**
+         * The number of edges going out of each intersection.
+         */
+        final int[] outgoingCounts;
+
+        /**
+         * The edges coming into each intersection.
+         */
+        final int[][] incoming;
+
+        /**
+         * The number of edges coming into each intersection.
+         */
+        final int[] incomingCounts;
+
+        /**
+         * The position of each intersection in the contraction order, or -1 if it is not contracted yet.
+         */
+        final int[] ranks;
+
+        /**
+         * The number of contracted neighbours of each intersection.
+         */
+        final int[] contractedNeighbours;
+
+        /**
+         * The shortest known duration from the start of the current witness search to each intersection.
+         */
+        final int[] witnessDurations;
+
+        /**
+         * The witness search which last reached each intersection.
+         */
+        final int[] witnessStamps;
+
+        /**
+         * The intersections reached but not settled by the current witness search.
+         */
+        final IndexedMinHeap witnessGreys;
+
+        /**
+         * The stamp of the current witness search.
+         */
+        int witnessStamp;
+
+        /**
+         * The shortest edge from each in-neighbour of the intersection being contracted, or -1.
+         */
+        final int[] bestIncoming;
+
+        /**
+         * The shortest edge to each out-neighbour of the intersection being contracted, or -1.
+         */
+        final int[] bestOutgoing;
+
+        /**
+         * The contraction which last set `bestIncoming` and `bestOutgoing` for each intersection.
+         */
+        final int[] neighbourStamps;
+
+        /**
+         * The stamp of the current contraction.
+         */
+        int neighbourStamp;
+
+        /**
+         * Copy the edges of the given graph.
+         * @param graph The graph to contract.
+         */
+        Builder(StreetGraph graph) {
+            int size = graph.size();
+            int capacity = Math.max(16, graph.getEdgeCount() * 2);
+            this.sources = new int[capacity];
+            this.targets = new int[capacity];
+            this.durations = new int[capacity];
+            this.originals = new int[capacity];
+            this.firstChildren = new int[capacity];
+            this.secondChildren = new int[capacity];
+            this.outgoing = new int[size][];
+            this.outgoingCounts = new int[size];
+            this.incoming = new int[size][];
+            this.incomingCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                this.outgoing[i] = new int[4];
+                this.incoming[i] = new int[4];
+            }
+            this.ranks = new int[size];
+            Arrays.fill(this.ranks, -1);
+            this.contractedNeighbours = new int[size];
+            this.witnessDurations = new int[size];
+            this.witnessStamps = new int[size];
+            this.witnessGreys = new IndexedMinHeap(size);
+            this.bestIncoming = new int[size];
+            this.bestOutgoing = new int[size];
+            this.neighbourStamps = new int[size];
+
+            for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+                if (graph.getEdgeSource(edge) != graph.getEdgeTarget(edge)) {
+                    this.addEdge(graph.getEdgeSource(edge), graph.getEdgeTarget(edge), graph.getEdgeDuration(edge), edge, -1, -1);
+                }
+            }
+        }
+
+        /**
+         * Contract all the intersections, the ones adding the fewest shortcuts first.
+         * The priorities are updated lazily: an intersection is only contracted if its up-to-date priority
+         * is still the lowest one.
+         */
+        void contract() {
+            int size = this.ranks.length;
+            IndexedMinHeap queue = new IndexedMinHeap(size);
+            for (int i = 0; i < size; i++) {
+                queue.push(i, this.priority(i));
+            }
+            int rank = 0;
+            while (!queue.isEmpty()) {
+                int current = queue.poll();
+                int priority = this.priority(current);
+                if (!queue.isEmpty() && priority > queue.peekKey()) {
+                    queue.push(current, priority);
+                    continue;
+                }
+                this.contract(current, false);
+                this.ranks[current] = rank++;
+                for (int i = 0; i < this.outgoingCounts[current]; i++) {
+                    this.contractedNeighbours[this.targets[this.outgoing[current][i]]]++;
+                }
+                for (int i = 0; i < this.incomingCounts[current]; i++) {
+                    this.contractedNeighbours[this.sources[this.incoming[current][i]]]++;
+                }
+            }
+        }
+
+        /**
+         * Compute the priority of an intersection: the number of shortcuts its contraction would add minus the
+         * number of edges it would remove, plus the number of its contracted neighbours to spread the contractions.
+         * @param intersection The intersection.
+         * @return The priority of the intersection, lower is contracted first.
+         */
+        int priority(int intersection) {
+            int removed = 0;
+            for (int i = 0; i < this.outgoingCounts[intersection]; i++) {
+                if (this.ranks[this.targets[this.outgoing[intersection][i]]] < 0) {
+                    removed++;
+                }
+            }
+            for (int i = 0; i < this.incomingCounts[intersection]; i++) {
+                if (this.ranks[this.sources[this.incoming[intersection][i]]] < 0) {
+                    removed++;
+                }
+            }
+            return this.contract(intersection, true) - removed + this.contractedNeighbours[intersection];
+        }
+
+        /**
+         * Add the shortcuts needed to remove an intersection from the graph of the intersections not contracted yet.
+         * A shortcut `u -> w` is needed if `u -> intersection -> w` is shorter than any path avoiding the intersection.
+         * @param intersection The intersection to contract.
+         * @param simulate true to only count the shortcuts, false to add them.
+         * @return The number of shortcuts.
+         */
+        int contract(int intersection, boolean simulate) {
+            // Keep the shortest edge from each remaining in-neighbour and to each remaining out-neighbour
+            this.neighbourStamp++;
+            int[] ins = new int[this.incomingCounts[intersection]];
+            int inCount = 0;
+            for (int i = 0; i < this.incomingCounts[intersection]; i++) {
+                int edge = this.incoming[intersection][i];
+                int source = this.sources[edge];
+                if (this.ranks[source] >= 0) {
+                    continue;
+                }
+                if (this.neighbourStamps[source] != this.neighbourStamp) {
+                    this.neighbourStamps[source] = this.neighbourStamp;
+                    this.bestIncoming[source] = -1;
+                    this.bestOutgoing[source] = -1;
+                }
+                if (this.bestIncoming[source] < 0) {
+                    ins[inCount++] = source;
+                    this.bestIncoming[source] = edge;
+                } else if (this.durations[edge] < this.durations[this.bestIncoming[source]]) {
+                    this.bestIncoming[source] = edge;
+                }
+            }
+            int[] outs = new int[this.outgoingCounts[intersection]];
+            int outCount = 0;
+            int maxOutgoing = 0;
+            for (int i = 0; i < this.outgoingCounts[intersection]; i++) {
+                int edge = this.outgoing[intersection][i];
+                int target = this.targets[edge];
+                if (this.ranks[target] >= 0) {
+                    continue;
+                }
+                if (this.neighbourStamps[target] != this.neighbourStamp) {
+                    this.neighbourStamps[target] = this.neighbourStamp;
+                    this.bestIncoming[target] = -1;
+                    this.bestOutgoing[target] = -1;
+                }
+                if (this.bestOutgoing[target] < 0) {
+                    outs[outCount++] = target;
+                    this.bestOutgoing[target] = edge;
+                } else if (this.durations[edge] < this.durations[this.bestOutgoing[target]]) {
+                    this.bestOutgoing[target] = edge;
+                }
+                maxOutgoing = Math.max(maxOutgoing, this.durations[this.bestOutgoing[target]]);
+            }
+
+            int shortcuts = 0;
+            for (int i = 0; i < inCount; i++) {
+                int source = ins[i];
+                int first = this.bestIncoming[source];
+                this.witnessSearch(source, intersection, this.durations[first] + maxOutgoing, outs, outCount);
+                for (int j = 0; j < outCount; j++) {
+                    int target = outs[j];
+                    if (target == source) {
+                        continue;
+                    }
+                    int second = this.bestOutgoing[target];
+                    int duration = this.durations[first] + this.durations[second];
+                    if (this.witnessStamps[target] == this.witnessStamp && this.witnessDurations[target] <= duration) {
+                        continue;
+                    }
+                    shortcuts++;
+                    if (!simulate) {
+                        this.addEdge(source, target, duration, -1, first, second);
+                    }
+                }
+            }
+            return shortcuts;
+        }
+
+        /**
+         * Run a Dijkstra from an intersection, avoiding the intersection being contracted, until all the targets
+         * are settled, the durations exceed the given limit or too many intersections are settled.
+         * @param start The start of the search.
+         * @param avoided The intersection being contracted.
+         * @param maxDuration The duration above which no witness is needed.
+         * @param targets The intersections to reach.
+         * @param targetCount The number of intersections to reach.
+         */
+        void witnessSearch(int start, int avoided, int maxDuration, int[] targets, int targetCount) {
+            this.witnessStamp++;
+            this.witnessGreys.clear();
+            this.witnessStamps[start] = this.witnessStamp;
+            this.witnessDurations[start] = 0;
+            this.witnessGreys.push(start, 0);
+            int settled = 0;
+            int targetsLeft = targetCount;
+            while (!this.witnessGreys.isEmpty() && targetsLeft > 0 && settled < WITNESS_SEARCH_LIMIT) {
+                if (this.witnessGreys.peekKey() > maxDuration) {
+                    break;
+                }
+                int current = this.witnessGreys.poll();
+                settled++;
+                if (this.neighbourStamps[current] == this.neighbourStamp && this.bestOutgoing[current] >= 0) {
+                    targetsLeft--;
+                }
+                int duration = this.witnessDurations[current];
+                for (int i = 0; i < this.outgoingCounts[current]; i++) {
+                    int edge = this.outgoing[current][i];
+                    int successor = this.targets[edge];
+                    if (successor == avoided || this.ranks[successor] >= 0) {
+                        continue;
+                    }
+                    int successorDuration = duration + this.durations[edge];
+                    if (this.witnessStamps[successor] != this.witnessStamp || successorDuration < this.witnessDurations[successor]) {
+                        this.witnessStamps[successor] = this.witnessStamp;
+                        this.witnessDurations[successor] = successorDuration;
+                        this.witnessGreys.push(successor, successorDuration);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add an edge to the graph.
+         * @param source The start intersection.
+         * @param target The end intersection.
+         * @param duration The duration of the edge.
+         * @param original The street graph edge, or -1 for a shortcut.
+         * @param firstChild The first edge replaced by the shortcut, or -1 for an original edge.
+         * @param secondChild The second edge replaced by the shortcut, or -1 for an original edge.
+         */
+        void addEdge(int source, int target, int duration, int original, int firstChild, int secondChild) {
+            if (this.edgeCount == this.sources.length) {
+                int capacity = this.sources.length * 2;
+                this.sources = Arrays.copyOf(this.sources, capacity);
+                this.targets = Arrays.copyOf(this.targets, capacity);
+                this.durations = Arrays.copyOf(this.durations, capacity);
+                this.originals = Arrays.copyOf(this.originals, capacity);
+                this.firstChildren = Arrays.copyOf(this.firstChildren, capacity);
+                this.secondChildren = Arrays.copyOf(this.secondChildren, capacity);
+            }
+            int edge = this.edgeCount++;
+            this.sources[edge] = source;
+            this.targets[edge] = target;
+            this.durations[edge] = duration;
+            this.originals[edge] = original;
+            this.firstChildren[edge] = firstChild;
+            this.secondChildren[edge] = secondChild;
+
+            if (this.outgoingCounts[source] == this.outgoing[source].length) {
+                this.outgoing[source] = Arrays.copyOf(this.outgoing[source], this.outgoing[source].length * 2);
+            }
+            this.outgoing[source][this.outgoingCounts[source]++] = edge;
+            if (this.incomingCounts[target] == this.incoming[target].length) {
+                this.incoming[target] = Arrays.copyOf(this.incoming[target], this.incoming[target].length * 2);
+            }
+            this.incoming[target][this.incomingCounts[target]++] = edge;
+        }
+    }
+}
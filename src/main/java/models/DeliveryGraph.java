@@ -1,10 +1,24 @@
 package models;
 
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+/**
+ * Complete graph of the way points of a delivery request.
+ * Only the durations of the routes are stored, in a matrix, with for each start way point the street section by
+ * which each intersection of its routes is reached. The routes themselves are built on demand by `getRoute`.
+ * Way points can be added and removed without computing the whole graph again.
+ */
 public class DeliveryGraph {
 
     /**
@@ -13,9 +27,36 @@ public class DeliveryGraph {
     private final CityMap cityMap;
 
     /**
-     * The matrix representing the complete graph.
+     * The way points of the graph, sorted by id.
+     */
+    private List<AbstractWaypoint> nodes;
+
+    /**
+     * The index of each way point in `nodes`.
+     */
+    private Map<AbstractWaypoint, Integer> indexes;
+
+    /**
+     * The duration of the route from each way point to each other way point, by index.
+     */
+    private int[][] durations;
+
+    /**
+     * For each start way point, the indexes of the intersections of its routes, sorted,
+     * or null if its routes have to be searched in the city map.
+     */
+    private int[][] treeIntersections;
+
+    /**
+     * For each start way point, the street section (edge of the city map graph) by which each
+     * intersection of `treeIntersections` is reached.
      */
-    private Map<AbstractWaypoint, Map<AbstractWaypoint, Route>> routes;
+    private int[][] treeEdges;
+
+    /**
+     * The routes already built, by index of start and end way points, or null if the routes are not memoised.
+     */
+    private volatile Route[][] routes;
 
     /**
      * Instantiate a delivery graph based on the given complete graph.
@@ -23,8 +64,262 @@ public class DeliveryGraph {
      * @param routes  A matrix representing the complete graph
      */
     public DeliveryGraph(CityMap cityMap, Map<AbstractWaypoint, Map<AbstractWaypoint, Route>> routes) {
+        this(cityMap, routes.keySet());
+        this.routes = new Route[this.nodes.size()][this.nodes.size()];
+        for (Map.Entry<AbstractWaypoint, Map<AbstractWaypoint, Route>> row : routes.entrySet()) {
+            int start = this.indexes.get(row.getKey());
+            for (Map.Entry<AbstractWaypoint, Route> route : row.getValue().entrySet()) {
+                Integer end = this.indexes.get(route.getKey());
+                if (end != null && end != start) {
+                    this.routes[start][end] = route.getValue();
+                    this.durations[start][end] = route.getValue().getDuration();
+                }
+            }
+        }
+    }
+
+    /**
+     * Instantiate a delivery graph of the given way points, whose durations are then set row by row.
+     * @param cityMap The map of the city containing the intersections of the way-points of this delivery graph.
+     * @param waypoints The way points of the graph. Only the first way point of a given id is kept.
+     */
+    @Requires({"cityMap != null", "waypoints != null"})
+    DeliveryGraph(CityMap cityMap, Collection<? extends AbstractWaypoint> waypoints) {
         this.cityMap = cityMap;
+        Map<AbstractWaypoint, Integer> indexes = new TreeMap<AbstractWaypoint, Integer>();
+        for (AbstractWaypoint waypoint : waypoints) {
+            if (!indexes.containsKey(waypoint)) {
+                indexes.put(waypoint, 0);
+            }
+        }
+        this.nodes = new ArrayList<AbstractWaypoint>(indexes.keySet());
+        this.indexes = new HashMap<AbstractWaypoint, Integer>();
+        for (int i = 0; i < this.nodes.size(); i++) {
+            this.indexes.put(this.nodes.get(i), i);
+        }
+        this.durations = new int[this.nodes.size()][this.nodes.size()];
+        this.treeIntersections = new int[this.nodes.size()][];
+        this.treeEdges = new int[this.nodes.size()][];
+    }
+
+    /**
+     * Set the routes from a way point to all the other ones, from the shortest path tree of its intersection.
+     * Only the street sections of the routes to the way points of the graph are kept from the tree.
+     * @param start The index of the start way point.
+     * @param tree The shortest path tree of the intersection of the start way point, which settled the intersections
+     * of all the way points of the graph which can be reached. The route to a way point which has not been settled is empty.
+     */
+    @Requires({"start >= 0", "start < size()", "tree != null"})
+    void setRow(int start, ShortestPathTree tree) {
+        StreetGraph graph = this.cityMap.getGraph();
+        Map<Integer, Integer> predecessors = new TreeMap<Integer, Integer>();
+        for (int end = 0; end < this.nodes.size(); end++) {
+            int intersection = graph.getIndex(this.nodes.get(end).getId());
+            if (end == start || !tree.isSettled(intersection)) {
+                continue;
+            }
+            this.durations[start][end] = tree.getDuration(intersection);
+            // Walk up the tree until the start or an intersection of another route
+            while (tree.getPredecessor(intersection) >= 0 && !predecessors.containsKey(intersection)) {
+                predecessors.put(intersection, tree.getPredecessor(intersection));
+                intersection = graph.getEdgeSource(tree.getPredecessor(intersection));
+            }
+        }
+        this.setTree(start, predecessors);
+    }
+
+    /**
+     * Set the street sections by which the intersections of the routes from a way point are reached.
+     * @param start The index of the start way point.
+     * @param predecessors The street section by which each intersection is reached, by intersection.
+     */
+    private void setTree(int start, Map<Integer, Integer> predecessors) {
+        this.treeIntersections[start] = new int[predecessors.size()];
+        this.treeEdges[start] = new int[predecessors.size()];
+        int position = 0;
+        for (Map.Entry<Integer, Integer> predecessor : predecessors.entrySet()) {
+            this.treeIntersections[start][position] = predecessor.getKey();
+            this.treeEdges[start][position] = predecessor.getValue();
+            position++;
+        }
+    }
+
+    /**
+     * Insert a way point in the nodes, with an empty row and an empty column.
+     * @param position The index of the new way point.
+     * @param waypoint The new way point.
+     */
+    private void insertNode(int position, AbstractWaypoint waypoint) {
+        int size = this.nodes.size() + 1;
+        int[][] durations = new int[size][size];
+        int[][] treeIntersections = new int[size][];
+        int[][] treeEdges = new int[size][];
+        Route[][] routes = this.routes == null ? null : new Route[size][size];
+        for (int i = 0; i < size - 1; i++) {
+            int row = i < position ? i : i + 1;
+            System.arraycopy(this.durations[i], 0, durations[row], 0, position);
+            System.arraycopy(this.durations[i], position, durations[row], position + 1, size - 1 - position);
+            treeIntersections[row] = this.treeIntersections[i];
+            treeEdges[row] = this.treeEdges[i];
+            if (routes != null) {
+                System.arraycopy(this.routes[i], 0, routes[row], 0, position);
+                System.arraycopy(this.routes[i], position, routes[row], position + 1, size - 1 - position);
+            }
+        }
+        this.nodes.add(position, waypoint);
+        this.setNodes(durations, treeIntersections, treeEdges, routes);
+    }
+
+    /**
+     * Remove a way point from the nodes, with its row and its column.
+     * @param position The index of the way point to remove.
+     */
+    private void deleteNode(int position) {
+        int size = this.nodes.size() - 1;
+        int[][] durations = new int[size][size];
+        int[][] treeIntersections = new int[size][];
+        int[][] treeEdges = new int[size][];
+        Route[][] routes = this.routes == null ? null : new Route[size][size];
+        for (int row = 0; row < size; row++) {
+            int i = row < position ? row : row + 1;
+            System.arraycopy(this.durations[i], 0, durations[row], 0, position);
+            System.arraycopy(this.durations[i], position + 1, durations[row], position, size - position);
+            treeIntersections[row] = this.treeIntersections[i];
+            treeEdges[row] = this.treeEdges[i];
+            if (routes != null) {
+                System.arraycopy(this.routes[i], 0, routes[row], 0, position);
+                System.arraycopy(this.routes[i], position + 1, routes[row], position, size - position);
+            }
+        }
+        this.nodes.remove(position);
+        this.setNodes(durations, treeIntersections, treeEdges, routes);
+    }
+
+    /**
+     * Replace the matrices of the graph after a change of its nodes, and index the nodes again.
+     * @param durations The new duration matrix.
+     * @param treeIntersections The new intersections of the routes of each row.
+     * @param treeEdges The new street sections of the routes of each row.
+     * @param routes The new memoised routes, or null.
+     */
+    private void setNodes(int[][] durations, int[][] treeIntersections, int[][] treeEdges, Route[][] routes) {
+        this.durations = durations;
+        this.treeIntersections = treeIntersections;
+        this.treeEdges = treeEdges;
         this.routes = routes;
+        this.indexes = new HashMap<AbstractWaypoint, Integer>();
+        for (int i = 0; i < this.nodes.size(); i++) {
+            this.indexes.put(this.nodes.get(i), i);
+        }
+    }
+
+    /**
+     * Set the durations of the routes from a way point to all the other ones, without their street sections.
+     * The routes will be searched in the city map when they are needed.
+     * @param start The index of the start way point.
+     * @param durations The duration of the route to each way point, by index.
+     */
+    @Requires({"start >= 0", "start < size()", "durations.length == size()"})
+    void setRow(int start, int[] durations) {
+        this.durations[start] = Arrays.copyOf(durations, durations.length);
+        this.durations[start][start] = 0;
+        this.treeIntersections[start] = null;
+        this.treeEdges[start] = null;
+    }
+
+    /**
+     * Add a way point to the graph. Only two searches are run: one from the way point to all the
+     * other ones for its row, and one on the reversed street sections from the way point for its column.
+     * With a contraction hierarchy, the durations are computed in the hierarchy instead.
+     * @param waypoint The way point to add. The graph must not contain a way point with the same id.
+     * @throws IllegalArgumentException If the way point cannot be reached from the other ones or cannot reach them.
+     */
+    @Requires({"waypoint != null", "!contains(waypoint)", "getCityMap().isIntersectionInCityMap(waypoint.getId())"})
+    public void addWaypoint(AbstractWaypoint waypoint) {
+        // The other way points can all reach each other, so checking one of them is enough
+        if (!this.nodes.isEmpty() && (!this.cityMap.canReach(this.nodes.get(0), waypoint) || !this.cityMap.canReach(waypoint, this.nodes.get(0)))) {
+            throw new IllegalArgumentException("The way point " + waypoint.getId() + " cannot be reached from the other ones or cannot reach them");
+        }
+        int added = 0;
+        while (added < this.nodes.size() && this.nodes.get(added).compareTo(waypoint) < 0) {
+            added++;
+        }
+        this.insertNode(added, waypoint);
+
+        if (this.cityMap.getContractionHierarchy() != null) {
+            List<AbstractWaypoint> addedOnly = Collections.singletonList(waypoint);
+            this.setRow(added, this.cityMap.getDurations(addedOnly, this.nodes)[0]);
+            int[][] column = this.cityMap.getDurations(this.nodes, addedOnly);
+            for (int start = 0; start < this.nodes.size(); start++) {
+                this.durations[start][added] = start == added ? 0 : column[start][0];
+            }
+            return;
+        }
+
+        this.setRow(added, this.cityMap.shortestPathTree(waypoint, this.nodes, Integer.MAX_VALUE));
+        ShortestPathTree reverseTree = this.cityMap.reverseShortestPathTree(waypoint, this.nodes);
+        for (int start = 0; start < this.nodes.size(); start++) {
+            if (start != added) {
+                this.addToRow(start, added, reverseTree);
+            }
+        }
+    }
+
+    /**
+     * Remove a way point from the graph, with its row and its column. No search is run.
+     * If the graph doesn't contain the way point, does nothing.
+     * @param waypoint The way point to remove.
+     */
+    @Requires({"waypoint != null"})
+    @Ensures({"!contains(waypoint)"})
+    public void removeWaypoint(AbstractWaypoint waypoint) {
+        Integer index = this.indexes.get(waypoint);
+        if (index != null) {
+            this.deleteNode(index);
+        }
+    }
+
+    /**
+     * Check if the graph contains a way point.
+     * @param waypoint The way point.
+     * @return true if the graph contains a way point with the same id, false otherwise.
+     */
+    public boolean contains(AbstractWaypoint waypoint) {
+        return this.indexes.containsKey(waypoint);
+    }
+
+    /**
+     * Add the route to a new way point to the routes from another way point, from the reversed shortest path tree
+     * of the new way point. The intersections of the new route which are already in the tree of the start way point
+     * keep their predecessor: both are on shortest paths from the start, so the new route keeps the same duration.
+     * @param start The index of the start way point.
+     * @param end The index of the new way point.
+     * @param reverseTree The shortest path tree to the intersection of the new way point, on the reversed street sections.
+     */
+    private void addToRow(int start, int end, ShortestPathTree reverseTree) {
+        StreetGraph graph = this.cityMap.getGraph();
+        int startIntersection = graph.getIndex(this.nodes.get(start).getId());
+        if (!reverseTree.isSettled(startIntersection)) {
+            this.durations[start][end] = 0; // As the duration of an empty route
+            return;
+        }
+        this.durations[start][end] = reverseTree.getDuration(startIntersection);
+        if (this.treeIntersections[start] == null) {
+            return; // The routes of the row are searched in the city map
+        }
+
+        Map<Integer, Integer> predecessors = new TreeMap<Integer, Integer>();
+        for (int i = 0; i < this.treeIntersections[start].length; i++) {
+            predecessors.put(this.treeIntersections[start][i], this.treeEdges[start][i]);
+        }
+        for (int edge = reverseTree.getPredecessor(startIntersection); edge >= 0; ) {
+            int next = graph.getEdgeTarget(edge);
+            if (next != startIntersection && !predecessors.containsKey(next)) {
+                predecessors.put(next, edge);
+            }
+            edge = reverseTree.getPredecessor(next);
+        }
+        this.setTree(start, predecessors);
     }
 
     /**
@@ -32,7 +327,7 @@ public class DeliveryGraph {
      * @return the total number of nodes.
      */
     public int size() {
-        return this.routes.size();
+        return this.nodes.size();
     }
 
     /**
@@ -40,11 +335,7 @@ public class DeliveryGraph {
      * @return an array filled with the IDs of each graph's node.
      */
     public ArrayList<AbstractWaypoint> getNodes() {
-        ArrayList<AbstractWaypoint> nodes = new ArrayList<AbstractWaypoint>();
-        this.routes.entrySet().forEach((entry) -> {
-            nodes.add(entry.getKey());
-        });
-        return nodes;
+        return new ArrayList<AbstractWaypoint>(this.nodes);
     }
 
     /**
@@ -53,32 +344,114 @@ public class DeliveryGraph {
      */
     public Map<AbstractWaypoint, Integer> getDeliveryDurations() {
         Map<AbstractWaypoint, Integer> deliveryDurations = new HashMap<AbstractWaypoint, Integer>();
-        this.routes.entrySet().forEach((entry) -> {
-            deliveryDurations.put(entry.getKey(), entry.getKey().getDuration());
+        this.nodes.forEach((node) -> {
+            deliveryDurations.put(node, node.getDuration());
         });
         return deliveryDurations;
     }
 
+    /**
+     * Get the duration of the route between the two given waypoints.
+     * @param start the starting waypoint.
+     * @param end the ending waypoint.
+     * @return the duration of the route between the two waypoints, or 0 if there is no route between them.
+     */
+    @Requires({"start != null", "end != null"})
+    public int getDuration(AbstractWaypoint start, AbstractWaypoint end) {
+        Integer startIndex = this.indexes.get(start);
+        Integer endIndex = this.indexes.get(end);
+        if (startIndex == null || endIndex == null) {
+            return 0;
+        }
+        return this.durations[startIndex][endIndex];
+    }
+
     /**
      * Get an iterator on the current delivery graph.
+     * All the routes of the graph are built, so `getDuration` should be preferred when the street sections are not needed.
      * @return an iterator on the graph.
      */
     public Iterator<Map.Entry<AbstractWaypoint, Map<AbstractWaypoint, Route>>> iterator() {
-        return this.routes.entrySet().iterator();
+        Map<AbstractWaypoint, Map<AbstractWaypoint, Route>> routes = new TreeMap<AbstractWaypoint, Map<AbstractWaypoint, Route>>();
+        for (AbstractWaypoint start : this.nodes) {
+            Map<AbstractWaypoint, Route> row = new TreeMap<AbstractWaypoint, Route>();
+            for (AbstractWaypoint end : this.nodes) {
+                if (start != end) {
+                    row.put(end, this.getRoute(start, end));
+                }
+            }
+            routes.put(start, row);
+        }
+        return Collections.unmodifiableMap(routes).entrySet().iterator();
     }
 
     /**
      * Get the route between the two given waypoints, if it exists.
+     * The route is built from the stored shortest path tree of the start way point, or searched in the
+     * city map if the tree has not been kept.
      * @param start the starting waypoint.
      * @param end the ending waypoint.
      * @return the route between the two waypoints if it exists, or null otherwise.
      */
     public Route getRoute(AbstractWaypoint start, AbstractWaypoint end) {
-        try {
-            return routes.get(start).get(end);
-        } catch (NullPointerException e) {
+        Integer startIndex = this.indexes.get(start);
+        Integer endIndex = this.indexes.get(end);
+        if (startIndex == null || endIndex == null || startIndex.equals(endIndex)) {
             return null;
         }
+
+        Route[][] routes = this.routes;
+        if (routes != null && routes[startIndex][endIndex] != null) {
+            return routes[startIndex][endIndex];
+        }
+        Route route;
+        if (this.treeIntersections[startIndex] == null) {
+            route = this.cityMap.shortestPath(this.nodes.get(startIndex), this.nodes.get(endIndex));
+        } else {
+            route = this.buildRoute(startIndex, endIndex);
+        }
+        if (routes != null) {
+            routes[startIndex][endIndex] = route;
+        }
+        return route;
+    }
+
+    /**
+     * Build a route by walking up the shortest path tree of its start way point.
+     * @param start The index of the start way point.
+     * @param end The index of the end way point.
+     * @return The route between the two way points, empty if the end way point cannot be reached.
+     */
+    private Route buildRoute(int start, int end) {
+        StreetGraph graph = this.cityMap.getGraph();
+        int startIntersection = graph.getIndex(this.nodes.get(start).getId());
+        List<StreetSection> streetSections = new ArrayList<StreetSection>();
+        int intersection = graph.getIndex(this.nodes.get(end).getId());
+        while (intersection != startIntersection) {
+            int position = Arrays.binarySearch(this.treeIntersections[start], intersection);
+            if (position < 0) {
+                streetSections.clear(); // Unreachable end way point
+                break;
+            }
+            int edge = this.treeEdges[start][position];
+            streetSections.add(graph.getEdgeStreetSection(edge));
+            intersection = graph.getEdgeSource(edge);
+        }
+        Collections.reverse(streetSections);
+        return new Route(this.nodes.get(start), this.nodes.get(end), streetSections);
+    }
+
+    /**
+     * Choose whether the routes built by `getRoute` are kept, so that they are only built once.
+     * This is enabled for the graphs created from a map of routes.
+     * @param memoizeRoutes true to keep the routes, false to build them at each call and release the kept ones.
+     */
+    public void setRouteMemoization(boolean memoizeRoutes) {
+        if (!memoizeRoutes) {
+            this.routes = null;
+        } else if (this.routes == null) {
+            this.routes = new Route[this.nodes.size()][this.nodes.size()];
+        }
     }
 
     /**
@@ -6,6 +6,7 @@ import com.google.java.contract.Requires;
 import java.util.Collection;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 
 public class DeliveryRequest {
     /**
@@ -28,6 +29,11 @@ public class DeliveryRequest {
      */
     private final CityMap cityMap;
 
+    /**
+     * The last delivery graph computed for this request, kept up to date with its delivery addresses, or null.
+     */
+    private DeliveryGraph deliveryGraph;
+
     /**
      * Instantiate a delivery request based on the given parameters.
      * @param cityMap the city map on which teh request is based on.
@@ -39,18 +45,25 @@ public class DeliveryRequest {
         this.cityMap = cityMap;
         this.warehouse = warehouse;
         this.deliveryAddresses = new TreeSet<DeliveryAddress>();
-        this.deliveryAddresses.forEach(this::addDeliveryAddress);
+        deliveryAddresses.forEach(this::addDeliveryAddress);
         this.startPlanningTimestamp = startPlanningTimestamp;
     }
 
     /**
      * Add the given delivery address to the current request.
      * If the request already contains the address, it won't be added.
+     * The address is also added to the last computed delivery graph, if any.
      * @param deliveryAddress the delivery address to add.
+     * @throws IllegalArgumentException If the address cannot be reached from the other ones or cannot reach them. The
+     *             request and its graph are then left unchanged.
      */
     @Requires("!deliveryAddresses.contains(deliveryAddress)")
     @Ensures("deliveryAddresses.contains(deliveryAddress)")
     public void addDeliveryAddress(DeliveryAddress deliveryAddress) {
+        // The graph first, so that the request is not changed if the address cannot be added to it
+        if (this.deliveryGraph != null && !this.deliveryGraph.contains(deliveryAddress)) {
+            this.deliveryGraph.addWaypoint(deliveryAddress);
+        }
         boolean added = this.deliveryAddresses.add(deliveryAddress);
         assert added;
     }
@@ -58,6 +71,7 @@ public class DeliveryRequest {
     /**
      * Removes the given deliver address from the current request.
      * If the request doesn't contain the address, does nothing.
+     * The address is also removed from the last computed delivery graph, if any.
      * @param deliveryAddress the delivery address to remove.
      */
     @Requires("deliveryAddresses.contains(deliveryAddress)")
@@ -65,6 +79,10 @@ public class DeliveryRequest {
     public void removeDeliveryAddress(DeliveryAddress deliveryAddress) {
         boolean removed = this.deliveryAddresses.remove(deliveryAddress);
         assert removed;
+        // The warehouse stays in the graph even if it has the same intersection as the address
+        if (this.deliveryGraph != null && deliveryAddress.getId() != this.warehouse.getId()) {
+            this.deliveryGraph.removeWaypoint(deliveryAddress);
+        }
     }
 
     /**
@@ -93,11 +111,33 @@ public class DeliveryRequest {
 
     /**
      * Compute a complete graph of routes between the way-points of this delivery graph.
+     * The graph is then updated when delivery addresses are added to or removed from the request.
      * @return A complete graph containing all the routes between all the waypoints of this request.
      */
     public DeliveryGraph computeDeliveryGraph() {
         // TODO: Move the computation of the delivery graph here ?
-        return this.getCityMap().computeDeliveryGraph(this);
+        this.deliveryGraph = this.getCityMap().computeDeliveryGraph(this);
+        return this.deliveryGraph;
+    }
+
+    /**
+     * Compute a complete graph of routes between the way-points of this delivery graph,
+     * computing the routes from each way-point in parallel on the given executor.
+     * @param executor The executor on which the routes are computed.
+     * @return A complete graph containing all the routes between all the waypoints of this request.
+     */
+    @Requires("executor != null")
+    public DeliveryGraph computeDeliveryGraph(ExecutorService executor) {
+        this.deliveryGraph = this.getCityMap().computeDeliveryGraph(this, executor);
+        return this.deliveryGraph;
+    }
+
+    /**
+     * Get the last delivery graph computed for this request, which is kept up to date with its delivery addresses.
+     * @return The delivery graph of the request, or null if it has not been computed yet.
+     */
+    public DeliveryGraph getDeliveryGraph() {
+        return this.deliveryGraph;
     }
 
     /**
@@ -0,0 +1,162 @@
+package models;
+
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of the elements `0` to `capacity - 1`, each one associated to a `long` key.
+ * The key of an element in the heap can be changed in O(log n).
+ */
+class IndexedMinHeap {
+
+    /**
+     * The elements in the heap, as a binary tree stored in an array.
+     */
+    private final int[] heap;
+
+    /**
+     * The position of each element in the heap, or -1 if the element is not in the heap.
+     */
+    private final int[] positions;
+
+    /**
+     * The key of each element.
+     */
+    private final long[] keys;
+
+    /**
+     * The number of elements in the heap.
+     */
+    private int size;
+
+    /**
+     * Create an empty heap for the elements `0` to `capacity - 1`.
+     * @param capacity The number of elements which can be put in the heap.
+     */
+    IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        this.keys = new long[capacity];
+        Arrays.fill(this.positions, -1);
+    }
+
+    /**
+     * Check if the heap is empty.
+     * @return true if the heap does not contain any element.
+     */
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Check if the given element is in the heap.
+     * @param element The element to look for.
+     * @return true if the element is in the heap.
+     */
+    boolean contains(int element) {
+        return this.positions[element] >= 0;
+    }
+
+    /**
+     * Add the given element to the heap, or change its key if it is already in the heap.
+     * @param element The element to add.
+     * @param key The new key of the element.
+     */
+    void push(int element, long key) {
+        boolean increased = this.positions[element] >= 0 && key > this.keys[element];
+        this.keys[element] = key;
+        if (this.positions[element] < 0) {
+            this.positions[element] = this.size;
+            this.heap[this.size++] = element;
+        }
+        if (increased) {
+            this.siftDown(this.positions[element]);
+        } else {
+            this.siftUp(this.positions[element]);
+        }
+    }
+
+    /**
+     * Get the lowest key of the elements in the heap.
+     * @return The key of the element which would be returned by `poll()`.
+     */
+    @Requires({"!isEmpty()"})
+    long peekKey() {
+        return this.keys[this.heap[0]];
+    }
+
+    /**
+     * Remove the element with the lowest key from the heap.
+     * @return The element with the lowest key.
+     */
+    @Requires({"!isEmpty()"})
+    int poll() {
+        int element = this.heap[0];
+        this.positions[element] = -1;
+        if (--this.size > 0) {
+            this.heap[0] = this.heap[this.size];
+            this.positions[this.heap[0]] = 0;
+            this.siftDown(0);
+        }
+        return element;
+    }
+
+    /**
+     * Remove all the elements from the heap.
+     */
+    void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.positions[this.heap[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Move the element at the given position up until its parent has a lower key.
+     * @param position The position of the element to move.
+     */
+    private void siftUp(int position) {
+        int element = this.heap[position];
+        long key = this.keys[element];
+        while (position > 0) {
+            int parentPosition = (position - 1) >>> 1;
+            int parent = this.heap[parentPosition];
+            if (this.keys[parent] <= key) {
+                break;
+            }
+            this.heap[position] = parent;
+            this.positions[parent] = position;
+            position = parentPosition;
+        }
+        this.heap[position] = element;
+        this.positions[element] = position;
+    }
+
+    /**
+     * Move the element at the given position down until its children have a greater key.
+     * @param position The position of the element to move.
+     */
+    private void siftDown(int position) {
+        int element = this.heap[position];
+        long key = this.keys[element];
+        while (true) {
+            int childPosition = 2 * position + 1;
+            if (childPosition >= this.size) {
+                break;
+            }
+            if (childPosition + 1 < this.size && this.keys[this.heap[childPosition + 1]] < this.keys[this.heap[childPosition]]) {
+                childPosition++;
+            }
+            int child = this.heap[childPosition];
+            if (this.keys[child] >= key) {
+                break;
+            }
+            this.heap[position] = child;
+            this.positions[child] = position;
+            position = childPosition;
+        }
+        this.heap[position] = element;
+        this.positions[element] = position;
+    }
+}
@@ -0,0 +1,154 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * Shortest durations from and to a few landmark intersections, which give lower bounds of the duration
+ * between any two intersections by the triangle inequality (ALT: A*, landmarks and triangle inequality).
+ * For a landmark `L`, `d(u, v) >= d(L, v) - d(L, u)` and `d(u, v) >= d(u, L) - d(v, L)`. Unlike the euclidean
+ * bound, these bounds take one-way streets and speeds into account, and they are as tight as possible for
+ * intersections behind a landmark.
+ */
+public class LandmarkIndex {
+
+    /**
+     * Duration of the intersections which cannot be reached from a landmark or which cannot reach it, and lower
+     * bound of the durations between two intersections when the landmarks show that there is no path between them.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    /**
+     * The index of each landmark.
+     */
+    private final int[] landmarks;
+
+    /**
+     * The shortest duration from each landmark to each intersection.
+     */
+    private final int[][] fromLandmarks;
+
+    /**
+     * The shortest duration from each intersection to each landmark.
+     */
+    private final int[][] toLandmarks;
+
+    /**
+     * Choose the landmarks of a graph and compute their durations. The first landmark is the intersection
+     * farthest from the first one, and each next landmark is the intersection farthest from the landmarks
+     * already chosen, so that the landmarks are spread on the border of the map.
+     * @param graph The graph.
+     * @param landmarkCount The number of landmarks. Fewer landmarks are chosen if the graph is smaller.
+     */
+    @Requires({"graph != null", "landmarkCount > 0"})
+    LandmarkIndex(StreetGraph graph, int landmarkCount) {
+        int count = Math.min(landmarkCount, graph.size());
+        this.landmarks = new int[count];
+        this.fromLandmarks = new int[count][];
+        this.toLandmarks = new int[count][];
+        if (count == 0) {
+            return;
+        }
+
+        // The sum of the durations from and to the closest landmark, for each intersection
+        long[] distances = new long[graph.size()];
+        int[] firstDurations = durations(graph, 0, false);
+        for (int i = 0; i < graph.size(); i++) {
+            distances[i] = firstDurations[i] == UNREACHABLE ? -1 : firstDurations[i];
+        }
+        for (int l = 0; l < count; l++) {
+            int farthest = 0;
+            for (int i = 1; i < graph.size(); i++) {
+                if (distances[i] > distances[farthest]) {
+                    farthest = i;
+                }
+            }
+            this.landmarks[l] = farthest;
+            this.fromLandmarks[l] = durations(graph, farthest, false);
+            this.toLandmarks[l] = durations(graph, farthest, true);
+            for (int i = 0; i < graph.size(); i++) {
+                if (l == 0) {
+                    distances[i] = Long.MAX_VALUE;
+                }
+                if (this.fromLandmarks[l][i] != UNREACHABLE && this.toLandmarks[l][i] != UNREACHABLE) {
+                    distances[i] = Math.min(distances[i], (long) this.fromLandmarks[l][i] + this.toLandmarks[l][i]);
+                }
+            }
+            distances[farthest] = -1;
+        }
+    }
+
+    /**
+     * Get the number of landmarks.
+     * @return the number of landmarks of the index.
+     */
+    public int getLandmarkCount() {
+        return this.landmarks.length;
+    }
+
+    /**
+     * Get a lower bound of the duration of the paths from an intersection to another.
+     * When a landmark reaches the start but not the end, or the end reaches a landmark but not the start, the
+     * start cannot reach the end: skipping the landmark instead would give a small bound to the intersections of
+     * a dead end and a large one to the intersections before it, and A* would no longer be consistent.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @return The largest lower bound given by the landmarks, 0 if none of them gives a bound, or `UNREACHABLE`
+     * if a landmark shows that there is no path.
+     */
+    @Ensures({"result >= 0"})
+    public int getLowerBound(int start, int end) {
+        int bound = 0;
+        for (int l = 0; l < this.landmarks.length; l++) {
+            int[] from = this.fromLandmarks[l];
+            if (from[start] != UNREACHABLE) {
+                if (from[end] == UNREACHABLE) {
+                    return UNREACHABLE;
+                }
+                bound = Math.max(bound, from[end] - from[start]);
+            }
+            int[] to = this.toLandmarks[l];
+            if (to[end] != UNREACHABLE) {
+                if (to[start] == UNREACHABLE) {
+                    return UNREACHABLE;
+                }
+                bound = Math.max(bound, to[start] - to[end]);
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Compute the shortest durations from (or to) an intersection to (or from) all the other ones.
+     * @param graph The graph.
+     * @param source The index of the intersection.
+     * @param reversed false for the durations from the intersection, true for the durations to it.
+     * @return The shortest duration of each intersection, or `UNREACHABLE`.
+     */
+    private static int[] durations(StreetGraph graph, int source, boolean reversed) {
+        int[] durations = new int[graph.size()];
+        boolean[] blacks = new boolean[graph.size()];
+        IndexedMinHeap greys = new IndexedMinHeap(graph.size());
+        Arrays.fill(durations, UNREACHABLE);
+        durations[source] = 0;
+        greys.push(source, 0);
+        while (!greys.isEmpty()) {
+            int current = greys.poll();
+            blacks[current] = true;
+            int first = reversed ? graph.getFirstIncomingEdge(current) : graph.getFirstEdge(current);
+            int last = reversed ? graph.getFirstIncomingEdge(current + 1) : graph.getFirstEdge(current + 1);
+            for (int position = first; position < last; position++) {
+                int edge = reversed ? graph.getIncomingEdge(position) : position;
+                int neighbour = reversed ? graph.getEdgeSource(edge) : graph.getEdgeTarget(edge);
+                int duration = durations[current] + graph.getEdgeDuration(edge);
+                if (!blacks[neighbour] && duration < durations[neighbour]) {
+                    durations[neighbour] = duration;
+                    greys.push(neighbour, duration);
+                }
+            }
+        }
+        return durations;
+    }
+}
@@ -0,0 +1,212 @@
+package models;
+
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * Strongly connected components of a street graph, which tell if an intersection can be reached from another
+ * one without searching a path. Two intersections of the same component can reach each other. The components
+ * are numbered in reverse topological order: a component can only reach components with a lower or equal number.
+ * The reachability between components is precomputed as bit sets when there are few of them, so that the
+ * queries are O(1); otherwise they search the graph of the components.
+ */
+class ReachabilityIndex {
+
+    /**
+     * The maximal number of components whose reachability is precomputed (2 MiB of bit sets).
+     */
+    private static final int MAX_CLOSURE_SIZE = 4096;
+
+    /**
+     * The component of each intersection.
+     */
+    private final int[] components;
+
+    /**
+     * The number of components.
+     */
+    private final int componentCount;
+
+    /**
+     * The first position of the successors of each component in `componentEdges`, plus the end of the last one.
+     */
+    private final int[] componentOffsets;
+
+    /**
+     * The components reached by a street section from each component.
+     */
+    private final int[] componentEdges;
+
+    /**
+     * The components reachable from each component, as bit sets, or null if there are too many components.
+     */
+    private final long[][] closure;
+
+    /**
+     * Compute the strongly connected components of a graph with the iterative version of Tarjan's algorithm.
+     * @param graph The graph.
+     */
+    @Requires({"graph != null"})
+    ReachabilityIndex(StreetGraph graph) {
+        int size = graph.size();
+        this.components = new int[size];
+        // The order of visit of each intersection (0 if not visited yet), and the lowest one it can reach on the stack
+        int[] orders = new int[size];
+        int[] lowLinks = new int[size];
+        // The intersections whose component is not known yet
+        int[] stack = new int[size];
+        boolean[] onStack = new boolean[size];
+        int stackSize = 0;
+        // The path of the depth first search, and the next edge to follow from each of its intersections
+        int[] path = new int[size];
+        int[] nextEdges = new int[size];
+        int pathSize = 0;
+        int orderCounter = 0;
+        int componentCount = 0;
+
+        for (int root = 0; root < size; root++) {
+            if (orders[root] != 0) {
+                continue;
+            }
+            path[pathSize++] = root;
+            nextEdges[root] = graph.getFirstEdge(root);
+            orders[root] = lowLinks[root] = ++orderCounter;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (pathSize > 0) {
+                int current = path[pathSize - 1];
+                if (nextEdges[current] < graph.getFirstEdge(current + 1)) {
+                    int successor = graph.getEdgeTarget(nextEdges[current]++);
+                    if (orders[successor] == 0) {
+                        path[pathSize++] = successor;
+                        nextEdges[successor] = graph.getFirstEdge(successor);
+                        orders[successor] = lowLinks[successor] = ++orderCounter;
+                        stack[stackSize++] = successor;
+                        onStack[successor] = true;
+                    } else if (onStack[successor]) {
+                        lowLinks[current] = Math.min(lowLinks[current], orders[successor]);
+                    }
+                    continue;
+                }
+                // All the successors have been visited: the intersection may be the root of a component
+                pathSize--;
+                if (pathSize > 0) {
+                    int parent = path[pathSize - 1];
+                    lowLinks[parent] = Math.min(lowLinks[parent], lowLinks[current]);
+                }
+                if (lowLinks[current] == orders[current]) {
+                    int member;
+                    do {
+                        member = stack[--stackSize];
+                        onStack[member] = false;
+                        this.components[member] = componentCount;
+                    } while (member != current);
+                    componentCount++;
+                }
+            }
+        }
+
+        this.componentCount = componentCount;
+
+        // The graph of the components, whose edges are sorted by source component
+        int[] sources = new int[graph.getEdgeCount()];
+        int[] targets = new int[graph.getEdgeCount()];
+        int edgeCount = 0;
+        for (int edge = 0; edge < graph.getEdgeCount(); edge++) {
+            int source = this.components[graph.getEdgeSource(edge)];
+            int target = this.components[graph.getEdgeTarget(edge)];
+            if (source != target) {
+                sources[edgeCount] = source;
+                targets[edgeCount++] = target;
+            }
+        }
+        this.componentOffsets = new int[componentCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            this.componentOffsets[sources[i] + 1]++;
+        }
+        for (int component = 0; component < componentCount; component++) {
+            this.componentOffsets[component + 1] += this.componentOffsets[component];
+        }
+        int[] componentEdges = new int[edgeCount];
+        int[] positions = Arrays.copyOf(this.componentOffsets, componentCount);
+        for (int i = 0; i < edgeCount; i++) {
+            componentEdges[positions[sources[i]]++] = targets[i];
+        }
+        this.componentEdges = componentEdges;
+
+        if (componentCount <= MAX_CLOSURE_SIZE) {
+            // A component reaches itself and all the components reached by its successors, which have a lower number
+            this.closure = new long[componentCount][(componentCount + 63) >>> 6];
+            for (int component = 0; component < componentCount; component++) {
+                long[] reached = this.closure[component];
+                reached[component >>> 6] |= 1L << component;
+                for (int i = this.componentOffsets[component]; i < this.componentOffsets[component + 1]; i++) {
+                    long[] successorReached = this.closure[this.componentEdges[i]];
+                    for (int word = 0; word <= (this.componentEdges[i] >>> 6); word++) {
+                        reached[word] |= successorReached[word];
+                    }
+                }
+            }
+        } else {
+            this.closure = null;
+        }
+    }
+
+    /**
+     * Get the number of strongly connected components.
+     * @return the number of components of the graph.
+     */
+    int getComponentCount() {
+        return this.componentCount;
+    }
+
+    /**
+     * Get the strongly connected component of an intersection.
+     * @param intersection The index of the intersection.
+     * @return the number of its component.
+     */
+    int getComponent(int intersection) {
+        return this.components[intersection];
+    }
+
+    /**
+     * Check if there is a path from an intersection to another one.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @return true if the end intersection can be reached from the start one, false otherwise.
+     */
+    boolean canReach(int start, int end) {
+        int startComponent = this.components[start];
+        int endComponent = this.components[end];
+        if (startComponent == endComponent) {
+            return true;
+        }
+        if (startComponent < endComponent) {
+            return false; // The components are numbered in reverse topological order
+        }
+        if (this.closure != null) {
+            return (this.closure[startComponent][endComponent >>> 6] & (1L << endComponent)) != 0;
+        }
+        // Depth first search of the components between the start and the end ones in topological order
+        boolean[] visited = new boolean[this.componentCount];
+        int[] stack = new int[this.componentCount];
+        int stackSize = 0;
+        stack[stackSize++] = startComponent;
+        visited[startComponent] = true;
+        while (stackSize > 0) {
+            int component = stack[--stackSize];
+            for (int i = this.componentOffsets[component]; i < this.componentOffsets[component + 1]; i++) {
+                int successor = this.componentEdges[i];
+                if (successor == endComponent) {
+                    return true;
+                }
+                if (successor > endComponent && !visited[successor]) {
+                    visited[successor] = true;
+                    stack[stackSize++] = successor;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,266 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * State of a shortest path search, lent by the `WorkspacePool` of its city map and reused by the next searches
+ * borrowing it, so that they do not allocate anything.
+ * An intersection is only considered as reached, settled or targeted if its stamp is the one of the current
+ * search: starting a new search only increments the stamp instead of refilling the arrays.
+ * A workspace must only be used by one search at a time.
+ */
+class SearchWorkspace {
+
+    /**
+     * The stamp of the current search.
+     */
+    private int stamp;
+
+    /**
+     * The stamp of the last search which reached each intersection.
+     */
+    private final int[] reachedStamps;
+
+    /**
+     * The stamp of the last search which settled each intersection.
+     */
+    private final int[] settledStamps;
+
+    /**
+     * The stamp of the last search which had each intersection as target.
+     */
+    private final int[] targetStamps;
+
+    /**
+     * The shortest known duration of each reached intersection.
+     */
+    private final int[] durations;
+
+    /**
+     * The street section (edge) by which each reached intersection is reached, or -1.
+     */
+    private final int[] predecessors;
+
+    /**
+     * The rank of each reached intersection in the order in which the intersections were reached.
+     */
+    private final int[] greyOrders;
+
+    /**
+     * The lower bound of the remaining duration of each reached intersection.
+     */
+    private final int[] heuristics;
+
+    /**
+     * The intersections which have been reached but not settled yet, by duration plus lower bound, then by order of visit.
+     */
+    private final IndexedMinHeap greys;
+
+    /**
+     * The intersections settled by the current search, by order of visit.
+     */
+    private final int[] settled;
+
+    /**
+     * The number of intersections settled by the current search.
+     */
+    private int settledCount;
+
+    /**
+     * The number of intersections reached by the current search.
+     */
+    private int greyCounter;
+
+    /**
+     * Create the state of the searches on a graph of the given size.
+     * @param size The number of intersections of the graph.
+     */
+    @Requires({"size >= 0"})
+    SearchWorkspace(int size) {
+        this.reachedStamps = new int[size];
+        this.settledStamps = new int[size];
+        this.targetStamps = new int[size];
+        this.durations = new int[size];
+        this.predecessors = new int[size];
+        this.greyOrders = new int[size];
+        this.heuristics = new int[size];
+        this.greys = new IndexedMinHeap(size);
+        this.settled = new int[size];
+    }
+
+    /**
+     * Start a new search: no intersection is reached, settled or targeted anymore.
+     */
+    void reset() {
+        this.greys.clear();
+        this.settledCount = 0;
+        this.greyCounter = 0;
+        if (++this.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.reachedStamps, 0);
+            Arrays.fill(this.settledStamps, 0);
+            Arrays.fill(this.targetStamps, 0);
+            this.stamp = 1;
+        }
+    }
+
+    /**
+     * Add an intersection to the targets of the current search.
+     * @param intersection The index of the intersection.
+     * @return true if the intersection was not a target yet, false otherwise.
+     */
+    boolean addTarget(int intersection) {
+        if (this.targetStamps[intersection] == this.stamp) {
+            return false;
+        }
+        this.targetStamps[intersection] = this.stamp;
+        return true;
+    }
+
+    /**
+     * Check if an intersection is a target of the current search.
+     * @param intersection The index of the intersection.
+     * @return true if the intersection is a target, false otherwise.
+     */
+    boolean isTarget(int intersection) {
+        return this.targetStamps[intersection] == this.stamp;
+    }
+
+    /**
+     * Check if an intersection has been reached by the current search.
+     * @param intersection The index of the intersection.
+     * @return true if a path to the intersection is known, false otherwise.
+     */
+    boolean isReached(int intersection) {
+        return this.reachedStamps[intersection] == this.stamp;
+    }
+
+    /**
+     * Check if an intersection has been settled by the current search.
+     * @param intersection The index of the intersection.
+     * @return true if the shortest path to the intersection is known, false otherwise.
+     */
+    boolean isSettled(int intersection) {
+        return this.settledStamps[intersection] == this.stamp;
+    }
+
+    /**
+     * Get the shortest known duration of an intersection.
+     * @param intersection The index of the intersection.
+     * @return the duration of the shortest known path to the intersection, or `Integer.MAX_VALUE` if it has not been reached.
+     */
+    int getDuration(int intersection) {
+        return this.isReached(intersection) ? this.durations[intersection] : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Get the street section by which an intersection is reached.
+     * @param intersection The index of the intersection. It must have been reached.
+     * @return the last edge of the shortest known path to the intersection, or -1 for the start intersection.
+     */
+    @Requires({"isReached(intersection)"})
+    int getPredecessor(int intersection) {
+        return this.predecessors[intersection];
+    }
+
+    /**
+     * Reach an intersection for the first time and make it grey.
+     * @param intersection The index of the intersection. It must not have been reached yet.
+     * @param duration The duration of the path to the intersection.
+     * @param predecessor The last edge of the path, or -1 for the start intersection.
+     * @param heuristic The lower bound of the remaining duration from the intersection, or 0.
+     */
+    @Requires({"!isReached(intersection)", "duration >= 0", "heuristic >= 0"})
+    @Ensures({"isReached(intersection)"})
+    void reach(int intersection, int duration, int predecessor, int heuristic) {
+        this.reachedStamps[intersection] = this.stamp;
+        this.durations[intersection] = duration;
+        this.predecessors[intersection] = predecessor;
+        this.heuristics[intersection] = heuristic;
+        this.greyOrders[intersection] = ++this.greyCounter;
+        this.greys.push(intersection, greyKey(duration + heuristic, this.greyOrders[intersection]));
+    }
+
+    /**
+     * Reach an intersection by a path, if it is shorter than the known one and the intersection is not settled.
+     * @param intersection The index of the intersection.
+     * @param duration The duration of the path to the intersection.
+     * @param predecessor The last edge of the path.
+     * @param heuristic The lower bound of the remaining duration from the intersection, used if it was not reached yet.
+     * @return true if the duration of the intersection has been decreased, false otherwise.
+     */
+    @Requires({"duration >= 0", "heuristic >= 0"})
+    boolean release(int intersection, int duration, int predecessor, int heuristic) {
+        if (!this.isReached(intersection)) {
+            this.reach(intersection, duration, predecessor, heuristic);
+            return true;
+        }
+        if (this.isSettled(intersection) || duration >= this.durations[intersection]) {
+            return false;
+        }
+        this.durations[intersection] = duration;
+        this.predecessors[intersection] = predecessor;
+        this.greys.push(intersection, greyKey(duration + this.heuristics[intersection], this.greyOrders[intersection]));
+        return true;
+    }
+
+    /**
+     * Check if some intersections are grey.
+     * @return true if some intersections have been reached but not settled yet, false otherwise.
+     */
+    boolean hasGreys() {
+        return !this.greys.isEmpty();
+    }
+
+    /**
+     * Get the duration plus lower bound of the grey intersection which is settled next.
+     * @return the smallest duration plus lower bound of the grey intersections.
+     */
+    @Requires({"hasGreys()"})
+    int peekGreyDuration() {
+        return (int) (this.greys.peekKey() >>> 32);
+    }
+
+    /**
+     * Settle the grey intersection with the smallest duration plus lower bound, then by order of visit.
+     * @return the index of the settled intersection.
+     */
+    @Requires({"hasGreys()"})
+    @Ensures({"isSettled(result)"})
+    int settle() {
+        int intersection = this.greys.poll();
+        this.settledStamps[intersection] = this.stamp;
+        this.settled[this.settledCount++] = intersection;
+        return intersection;
+    }
+
+    /**
+     * Copy the intersections settled by the current search into a shortest path tree.
+     * @param source The index of the start intersection of the search.
+     * @return The tree of the current search.
+     */
+    ShortestPathTree toTree(int source) {
+        int[] intersections = Arrays.copyOf(this.settled, this.settledCount);
+        Arrays.sort(intersections);
+        int[] predecessors = new int[intersections.length];
+        int[] durations = new int[intersections.length];
+        for (int i = 0; i < intersections.length; i++) {
+            predecessors[i] = this.predecessors[intersections[i]];
+            durations[i] = this.durations[intersections[i]];
+        }
+        return new ShortestPathTree(source, intersections, predecessors, durations);
+    }
+
+    /**
+     * Get the key of a grey intersection in the min-heap of the search:
+     * the intersections are sorted by duration, then by order of visit.
+     * @param duration The duration of the intersection.
+     * @param greyOrder The rank of the intersection in the order in which intersections became grey.
+     * @return The key of the intersection.
+     */
+    private static long greyKey(int duration, int greyOrder) {
+        return ((long) duration << 32) | greyOrder;
+    }
+}
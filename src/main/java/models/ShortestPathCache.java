@@ -0,0 +1,179 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of the shortest path trees of a city map, by start intersection.
+ * The cache is bounded by the memory used by its trees: the least recently used ones are evicted
+ * when a new tree does not fit anymore. The cache is thread safe.
+ */
+public class ShortestPathCache {
+
+    /**
+     * The default maximal memory used by the trees of a cache, in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    /**
+     * The trees, by index of start intersection, from the least to the most recently used.
+     */
+    private final LinkedHashMap<Integer, ShortestPathTree> trees = new LinkedHashMap<Integer, ShortestPathTree>(16, 0.75f, true);
+
+    /**
+     * The maximal memory used by the trees, in bytes.
+     */
+    private long capacity;
+
+    /**
+     * The memory used by the trees, in bytes.
+     */
+    private long memoryUsage;
+
+    /**
+     * The number of lookups answered by a tree of the cache.
+     */
+    private long hitCount;
+
+    /**
+     * The number of lookups which were not answered by the cache.
+     */
+    private long missCount;
+
+    /**
+     * The number of trees removed from the cache to make room for new ones.
+     */
+    private long evictionCount;
+
+    /**
+     * Create an empty cache.
+     * @param capacity The maximal memory used by the trees, in bytes.
+     */
+    @Requires({"capacity >= 0"})
+    public ShortestPathCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Get a tree which contains the shortest paths from a start intersection to all the given ones.
+     * @param source The index of the start intersection.
+     * @param targets The indexes of the end intersections.
+     * @return The tree, or null if the cache does not contain a tree of the start intersection which settled all the end ones.
+     */
+    @Requires({"targets != null"})
+    @Ensures({"result == null || result.areSettled(targets)"})
+    synchronized ShortestPathTree get(int source, int[] targets) {
+        ShortestPathTree tree = this.trees.get(source);
+        if (tree == null || !tree.areSettled(targets)) {
+            this.missCount++;
+            return null;
+        }
+        this.hitCount++;
+        return tree;
+    }
+
+    /**
+     * Add a tree to the cache, unless the cache already contains a tree of the same start intersection
+     * which settled more intersections.
+     * @param tree The tree to add.
+     */
+    @Requires({"tree != null"})
+    synchronized void put(ShortestPathTree tree) {
+        ShortestPathTree previous = this.trees.get(tree.getSource());
+        if (previous != null) {
+            if (previous.getSettledCount() > tree.getSettledCount()) {
+                return;
+            }
+            this.trees.remove(tree.getSource());
+            this.memoryUsage -= previous.getMemoryUsage();
+        }
+        if (tree.getMemoryUsage() > this.capacity) {
+            return;
+        }
+        this.trees.put(tree.getSource(), tree);
+        this.memoryUsage += tree.getMemoryUsage();
+        this.evict();
+    }
+
+    /**
+     * Remove the least recently used trees until the memory used fits in the capacity.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Integer, ShortestPathTree>> iterator = this.trees.entrySet().iterator();
+        while (this.memoryUsage > this.capacity && iterator.hasNext()) {
+            this.memoryUsage -= iterator.next().getValue().getMemoryUsage();
+            iterator.remove();
+            this.evictionCount++;
+        }
+    }
+
+    /**
+     * Remove all the trees of the cache. The counters are not reset.
+     */
+    public synchronized void clear() {
+        this.trees.clear();
+        this.memoryUsage = 0;
+    }
+
+    /**
+     * Get the maximal memory used by the trees.
+     * @return the capacity of the cache, in bytes.
+     */
+    public synchronized long getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Set the maximal memory used by the trees, evicting the least recently used ones if needed.
+     * @param capacity The new capacity of the cache, in bytes.
+     */
+    @Requires({"capacity >= 0"})
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        this.evict();
+    }
+
+    /**
+     * Get the memory used by the trees.
+     * @return the number of bytes used by the trees of the cache.
+     */
+    public synchronized long getMemoryUsage() {
+        return this.memoryUsage;
+    }
+
+    /**
+     * Get the number of trees in the cache.
+     * @return the number of trees in the cache.
+     */
+    public synchronized int size() {
+        return this.trees.size();
+    }
+
+    /**
+     * Get the number of lookups answered by a tree of the cache.
+     * @return the number of hits.
+     */
+    public synchronized long getHitCount() {
+        return this.hitCount;
+    }
+
+    /**
+     * Get the number of lookups which were not answered by the cache.
+     * @return the number of misses.
+     */
+    public synchronized long getMissCount() {
+        return this.missCount;
+    }
+
+    /**
+     * Get the number of trees removed from the cache to make room for new ones.
+     * @return the number of evictions.
+     */
+    public synchronized long getEvictionCount() {
+        return this.evictionCount;
+    }
+}
@@ -0,0 +1,120 @@
+package models;
+
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * Result of a shortest path search from a start intersection: the duration of the shortest path to each
+ * intersection settled by the search, and the street section by which it is reached.
+ * The search may have stopped before settling all the intersections (for example once its targets were reached),
+ * in which case only the settled intersections can be used. Only these intersections are stored, so that the
+ * tree of a short search is small.
+ * A search on the reversed street sections gives the shortest paths to its start intersection instead: the
+ * predecessor of an intersection is then the first street section of its shortest path.
+ */
+class ShortestPathTree {
+
+    /**
+     * The index of the start intersection.
+     */
+    private final int source;
+
+    /**
+     * The indexes of the settled intersections, in increasing order.
+     */
+    private final int[] intersections;
+
+    /**
+     * The edge by which each settled intersection is reached, or -1.
+     */
+    private final int[] predecessors;
+
+    /**
+     * The duration of the shortest path to each settled intersection.
+     */
+    private final int[] durations;
+
+    /**
+     * Create the tree of a search. The arrays are not copied and must not be modified anymore.
+     * @param source The index of the start intersection.
+     * @param intersections The indexes of the settled intersections, in increasing order.
+     * @param predecessors The edge by which each settled intersection is reached, or -1.
+     * @param durations The duration of the shortest path to each settled intersection.
+     */
+    @Requires({"intersections.length == predecessors.length", "intersections.length == durations.length",
+        "source >= 0"})
+    ShortestPathTree(int source, int[] intersections, int[] predecessors, int[] durations) {
+        this.source = source;
+        this.intersections = intersections;
+        this.predecessors = predecessors;
+        this.durations = durations;
+    }
+
+    /**
+     * Get the index of the start intersection.
+     * @return the index of the start intersection.
+     */
+    int getSource() {
+        return this.source;
+    }
+
+    /**
+     * Check if the shortest path to an intersection is known.
+     * @param index The index of the intersection.
+     * @return true if the intersection has been settled by the search, false otherwise.
+     */
+    boolean isSettled(int index) {
+        return Arrays.binarySearch(this.intersections, index) >= 0;
+    }
+
+    /**
+     * Check if the shortest paths to all the given intersections are known.
+     * @param indexes The indexes of the intersections.
+     * @return true if all the intersections have been settled by the search, false otherwise.
+     */
+    boolean areSettled(int[] indexes) {
+        for (int index : indexes) {
+            if (!this.isSettled(index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of intersections settled by the search.
+     * @return the number of intersections whose shortest path is known.
+     */
+    int getSettledCount() {
+        return this.intersections.length;
+    }
+
+    /**
+     * Get the duration of the shortest path to an intersection.
+     * @param index The index of the intersection. It must be settled.
+     * @return the duration of the shortest path to the intersection.
+     */
+    @Requires({"isSettled(index)"})
+    int getDuration(int index) {
+        return this.durations[Arrays.binarySearch(this.intersections, index)];
+    }
+
+    /**
+     * Get the last edge of the shortest path to an intersection.
+     * @param index The index of the intersection. It must be settled.
+     * @return the edge by which the intersection is reached, or -1 for the start intersection.
+     */
+    @Requires({"isSettled(index)"})
+    int getPredecessor(int index) {
+        return this.predecessors[Arrays.binarySearch(this.intersections, index)];
+    }
+
+    /**
+     * Get an estimation of the memory used by the tree.
+     * @return the number of bytes used by the arrays of the tree.
+     */
+    long getMemoryUsage() {
+        return 64L + 12L * this.intersections.length;
+    }
+}
@@ -0,0 +1,257 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Frozen representation of the street sections of a city map, in compressed sparse row format.
+ * Each intersection gets a dense index (by increasing id) at construction, and the street sections
+ * going out of the intersection `i` are the edges `getFirstEdge(i)` (inclusive) to `getFirstEdge(i + 1)`
+ * (exclusive), sorted by the id of their end intersection. The edges coming into the intersection `i` are
+ * `getIncomingEdge(k)` for `k` from `getFirstIncomingEdge(i)` (inclusive) to `getFirstIncomingEdge(i + 1)` (exclusive).
+ */
+public class StreetGraph {
+
+    /**
+     * The ids of the intersections, sorted. The position of an id is the index of the intersection.
+     */
+    private final int[] ids;
+
+    /**
+     * The intersections, by index.
+     */
+    private final Intersection[] intersections;
+
+    /**
+     * The index of the first edge going out of each intersection. Contains one more cell than
+     * the number of intersections so that `edgeOffsets[i + 1]` is the end of the edges of `i`.
+     */
+    private final int[] edgeOffsets;
+
+    /**
+     * The index of the start intersection of each edge.
+     */
+    private final int[] edgeSources;
+
+    /**
+     * The index of the end intersection of each edge.
+     */
+    private final int[] edgeTargets;
+
+    /**
+     * The duration needed to travel across each edge.
+     */
+    private final int[] edgeDurations;
+
+    /**
+     * The street section associated to each edge.
+     */
+    private final StreetSection[] edgeStreetSections;
+
+    /**
+     * The position in `incomingEdges` of the first edge coming into each intersection, with one more cell
+     * for the end of the edges of the last intersection.
+     */
+    private final int[] incomingOffsets;
+
+    /**
+     * The edges, grouped by end intersection.
+     */
+    private final int[] incomingEdges;
+
+    /**
+     * Build the graph of the given intersections and street sections.
+     * If two intersections have the same id, or two street sections have the same start and end, the last one is kept.
+     * @param intersections The intersections of the graph.
+     * @param streetSections The street sections of the graph. Their start and end intersections must be in the graph.
+     */
+    @Requires({"intersections != null", "streetSections != null"})
+    public StreetGraph(Iterable<Intersection> intersections, Iterable<StreetSection> streetSections) {
+        Map<Integer, Intersection> intersectionsById = new TreeMap<Integer, Intersection>();
+        for (Intersection intersection : intersections) {
+            intersectionsById.put(intersection.getId(), intersection);
+        }
+        this.ids = new int[intersectionsById.size()];
+        this.intersections = intersectionsById.values().toArray(new Intersection[intersectionsById.size()]);
+        for (int i = 0; i < this.intersections.length; i++) {
+            this.ids[i] = this.intersections[i].getId();
+        }
+
+        // Sort the street sections by start then end intersection, removing duplicates
+        Map<Long, StreetSection> streetSectionsByEnds = new TreeMap<Long, StreetSection>();
+        for (StreetSection streetSection : streetSections) {
+            int start = this.getIndex(streetSection.getStartIntersection().getId());
+            int end = this.getIndex(streetSection.getEndIntersection().getId());
+            if (start < 0 || end < 0) {
+                throw new IllegalArgumentException("The ends of the street section " + streetSection.getStartIntersection().getId()
+                    + " -> " + streetSection.getEndIntersection().getId() + " must be in the graph");
+            }
+            streetSectionsByEnds.put(((long) start << 32) | end, streetSection);
+        }
+
+        this.edgeOffsets = new int[this.intersections.length + 1];
+        this.edgeSources = new int[streetSectionsByEnds.size()];
+        this.edgeTargets = new int[streetSectionsByEnds.size()];
+        this.edgeDurations = new int[streetSectionsByEnds.size()];
+        this.edgeStreetSections = new StreetSection[streetSectionsByEnds.size()];
+        int edge = 0;
+        for (Map.Entry<Long, StreetSection> entry : streetSectionsByEnds.entrySet()) {
+            int start = (int) (entry.getKey() >>> 32);
+            this.edgeOffsets[start + 1]++;
+            this.edgeSources[edge] = start;
+            this.edgeTargets[edge] = (int) (long) entry.getKey();
+            this.edgeDurations[edge] = entry.getValue().getDuration();
+            this.edgeStreetSections[edge] = entry.getValue();
+            edge++;
+        }
+        for (int i = 0; i < this.intersections.length; i++) {
+            this.edgeOffsets[i + 1] += this.edgeOffsets[i];
+        }
+
+        // Reverse adjacency, by end intersection then start intersection
+        this.incomingOffsets = new int[this.intersections.length + 1];
+        for (int target : this.edgeTargets) {
+            this.incomingOffsets[target + 1]++;
+        }
+        for (int i = 0; i < this.intersections.length; i++) {
+            this.incomingOffsets[i + 1] += this.incomingOffsets[i];
+        }
+        this.incomingEdges = new int[this.edgeTargets.length];
+        int[] incomingNext = Arrays.copyOf(this.incomingOffsets, this.intersections.length);
+        for (edge = 0; edge < this.edgeTargets.length; edge++) {
+            this.incomingEdges[incomingNext[this.edgeTargets[edge]]++] = edge;
+        }
+    }
+
+    /**
+     * Get the number of intersections of the graph.
+     * @return the number of intersections of the graph.
+     */
+    public int size() {
+        return this.intersections.length;
+    }
+
+    /**
+     * Get the number of edges (i.e. street sections) of the graph.
+     * @return the number of edges of the graph.
+     */
+    public int getEdgeCount() {
+        return this.edgeTargets.length;
+    }
+
+    /**
+     * Get the index of the intersection with the given id.
+     * @param id The id of the intersection.
+     * @return The index of the intersection, or a negative value if the graph does not contain such an intersection.
+     */
+    @Ensures({"result < size()", "result < 0 || getIntersection(result).getId() == id"})
+    public int getIndex(int id) {
+        int index = Arrays.binarySearch(this.ids, id);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Get the intersection at the given index.
+     * @param index The index of the intersection.
+     * @return The intersection at the given index.
+     */
+    @Requires({"index >= 0", "index < size()"})
+    public Intersection getIntersection(int index) {
+        return this.intersections[index];
+    }
+
+    /**
+     * Get the first edge going out of the given intersection.
+     * The edges going out of the intersection are `getFirstEdge(index)` to `getFirstEdge(index + 1) - 1`.
+     * @param index The index of the intersection. Can be `size()` to get the end of the edges of the last intersection.
+     * @return The index of the first edge going out of the intersection.
+     */
+    @Requires({"index >= 0", "index <= size()"})
+    public int getFirstEdge(int index) {
+        return this.edgeOffsets[index];
+    }
+
+    /**
+     * Get the position of the first edge coming into the given intersection.
+     * The edges coming into the intersection are `getIncomingEdge(k)` for `k` from `getFirstIncomingEdge(index)`
+     * to `getFirstIncomingEdge(index + 1) - 1`.
+     * @param index The index of the intersection. Can be `size()` to get the end of the edges of the last intersection.
+     * @return The position of the first edge coming into the intersection.
+     */
+    @Requires({"index >= 0", "index <= size()"})
+    public int getFirstIncomingEdge(int index) {
+        return this.incomingOffsets[index];
+    }
+
+    /**
+     * Get the edge at the given position of the reverse adjacency.
+     * @param position The position, between `getFirstIncomingEdge(i)` and `getFirstIncomingEdge(i + 1) - 1` for the
+     * edges coming into the intersection `i`.
+     * @return The index of the edge.
+     */
+    public int getIncomingEdge(int position) {
+        return this.incomingEdges[position];
+    }
+
+    /**
+     * Get the index of the start intersection of the given edge.
+     * @param edge The index of the edge.
+     * @return The index of the start intersection of the edge.
+     */
+    public int getEdgeSource(int edge) {
+        return this.edgeSources[edge];
+    }
+
+    /**
+     * Get the index of the end intersection of the given edge.
+     * @param edge The index of the edge.
+     * @return The index of the end intersection of the edge.
+     */
+    public int getEdgeTarget(int edge) {
+        return this.edgeTargets[edge];
+    }
+
+    /**
+     * Get the duration needed to travel across the given edge.
+     * @param edge The index of the edge.
+     * @return The duration of the edge.
+     */
+    public int getEdgeDuration(int edge) {
+        return this.edgeDurations[edge];
+    }
+
+    /**
+     * Get the street section associated to the given edge.
+     * @param edge The index of the edge.
+     * @return The street section associated to the edge.
+     */
+    public StreetSection getEdgeStreetSection(int edge) {
+        return this.edgeStreetSections[edge];
+    }
+
+    /**
+     * Find the edge going from an intersection to another one.
+     * @param start The index of the start intersection.
+     * @param end The index of the end intersection.
+     * @return The index of the edge, or a negative value if there is no such edge.
+     */
+    @Requires({"start >= 0", "start < size()"})
+    public int findEdge(int start, int end) {
+        int index = Arrays.binarySearch(this.edgeTargets, this.edgeOffsets[start], this.edgeOffsets[start + 1], end);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * Check if the given graph has the same intersections (by id) and the same edges as the current one.
+     * @param other The graph to compare.
+     * @return true if the two graphs have the same structure, false otherwise.
+     */
+    public boolean hasSameStructure(StreetGraph other) {
+        return Arrays.equals(this.ids, other.ids) && Arrays.equals(this.edgeOffsets, other.edgeOffsets)
+            && Arrays.equals(this.edgeTargets, other.edgeTargets);
+    }
+}
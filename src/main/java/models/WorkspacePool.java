@@ -0,0 +1,56 @@
+package models;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+/**
+ * The search states of a city map or of a contraction hierarchy, lent to one search at a time, whatever its
+ * thread, and given back at its end. Unlike a `ThreadLocal`, the pool belongs to its owner: its states are freed
+ * with it, instead of staying attached to long-lived threads such as the ones of the common fork-join pool.
+ * It holds at most as many states as searches have run at the same time. A state which is not given back, for
+ * example after an exception, is only garbage collected.
+ * @param <W> The type of the search states.
+ */
+class WorkspacePool<W> {
+
+    /**
+     * Create a new state when none is free.
+     */
+    private final Supplier<W> factory;
+
+    /**
+     * The states which are not lent.
+     */
+    private final ConcurrentLinkedQueue<W> freeWorkspaces = new ConcurrentLinkedQueue<W>();
+
+    /**
+     * Create an empty pool.
+     * @param factory Create a new state when none is free.
+     */
+    @Requires({"factory != null"})
+    WorkspacePool(Supplier<W> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Borrow a state, which is not used by any other search until it is given back.
+     * @return a free state, or a new one if all of them are lent.
+     */
+    @Ensures({"result != null"})
+    W borrow() {
+        W workspace = this.freeWorkspaces.poll();
+        return workspace != null ? workspace : this.factory.get();
+    }
+
+    /**
+     * Give back a borrowed state, once the search does not read it anymore.
+     * @param workspace The state.
+     */
+    @Requires({"workspace != null"})
+    void giveBack(W workspace) {
+        this.freeWorkspaces.offer(workspace);
+    }
+}
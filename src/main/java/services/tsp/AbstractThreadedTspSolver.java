@@ -4,12 +4,11 @@ import models.AbstractWaypoint;
 import models.DeliveryGraph;
 import models.Planning;
 
-import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.Set;
-import java.util.TreeSet;
 import components.application.TspCompletedListener;
 
 public abstract class AbstractThreadedTspSolver extends Thread{
@@ -19,7 +18,12 @@ public abstract class AbstractThreadedTspSolver extends Thread{
     protected AbstractWaypoint[] bestSolution;
     protected Map<AbstractWaypoint, Integer> bestSolutionWaitingTime;
     protected int bestSolutionCost;
-    protected boolean stop;
+    protected volatile boolean stop;
+
+    /**
+     * The number of nodes of the search tree explored by the last computation.
+     */
+    protected long exploredNodeCount;
 
     /**
      * Solve the TSP problem for the given DeliveryGraph.
@@ -36,40 +40,63 @@ public abstract class AbstractThreadedTspSolver extends Thread{
 
 
     /**
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            all nodes not explored yet.
+     *            the set of the indexes of the nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param costs
-     *            the cost of the path between each node.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
      * @return
      *            the best possible iterator
      */
-    protected abstract Iterator<AbstractWaypoint> iterator(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                                                           Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs,
-                                                           Map<AbstractWaypoint, Integer> deliveryDurations,
-                                                           int seenCost);
+    protected abstract PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount,
+                                                        int seenCost);
     /**
      * Basic branch an bound algorithm
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            all nodes not explored yet.
+     *            the set of the indexes of the nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param costs
-     *            the cost of the path between each node.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
      */
-    protected abstract int bound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                                 Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs, Map<AbstractWaypoint, Integer> deliveryDurations,
-                                 int seenCost);
+    protected abstract int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost);
+
+    /**
+     * Called by the branch and bound before exploring an instance, from its root. Does nothing by default.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     */
+    protected void prepare(TspInstance instance) {
+    }
+
+    /**
+     * Called by the branch and bound when a node is removed from the unseen nodes. Does nothing by default.
+     *
+     * @param node
+     *            the index of the node now explored.
+     */
+    protected void visit(int node) {
+    }
+
+    /**
+     * Called by the branch and bound when the last visited node is unseen again. Does nothing by default.
+     *
+     * @param node
+     *            the index of the node of the last visit.
+     */
+    protected void backtrack(int node) {
+    }
 
     /**
      * Add the given listener to the list of listener
@@ -94,6 +121,25 @@ public abstract class AbstractThreadedTspSolver extends Thread{
         System.out.println(bestPlanning);
     }
 
+    /**
+     * Notify all the listener fom the list of a better planning, found while the computation goes on
+     * @param bestPlanning the best planning so far
+     */
+    protected void notifyListenersOfImprovement(Planning bestPlanning) {
+        for (TspCompletedListener listener : listeners) {
+            listener.notifyOfTspImprovement(bestPlanning);
+        }
+    }
+
+    /**
+     * Get the number of nodes of the search tree explored by the last computation, so that the speed of the solvers
+     * can be compared in nodes per second.
+     * @return the number of nodes explored so far
+     */
+    public long getExploredNodeCount() {
+        return exploredNodeCount;
+    }
+
     /**
      * Interrupt the currant computing on a valid state
      */
@@ -1,42 +1,83 @@
 package services.tsp;
 
-import models.AbstractWaypoint;
-
-import java.util.ArrayList;
-import java.util.Map;
+import java.util.BitSet;
 
 public class BasicBoundTspSolver extends TspSolver{
+
+    /**
+     * The bound maintained along the current search, or null if this solver is only used for its bound.
+     */
+    private IncrementalBound incrementalBound;
+
+    /**
+     * Sort the costs of the instance for the incremental bound.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     */
+    @Override
+    protected void prepare(TspInstance instance) {
+        this.incrementalBound = new IncrementalBound(instance);
+    }
+
+    /**
+     * Update the incremental bound for a visited node.
+     *
+     * @param node
+     *            the index of the node now explored.
+     */
+    @Override
+    protected void visit(int node) {
+        this.incrementalBound.visit(node);
+    }
+
+    /**
+     * Restore the incremental bound before the last visit.
+     *
+     * @param node
+     *            the index of the node of the last visit.
+     */
+    @Override
+    protected void backtrack(int node) {
+        this.incrementalBound.backtrack(node);
+    }
+
     /**
      * Bound using the sum of min cost per unseen node (including warehouse) plus the cost of the node. Complexity: O(n²) with n the number
      * of unseen node.
      * Min cost is defined as average of the two min cost (with only one cost per linked node, i.e. the to min cost can't
      * link the two same points, as we know that the next node can't be the same the previous)
      * A one day malus is added by point that cannot be reached on time.
+     * During a search of this solver the value is maintained by an IncrementalBound in O(n), otherwise (for example
+     * when the bound is used by a ParallelTspSolver) it is computed from scratch.
      *
-     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            all nodes not explored yet.
+     *            the set of the indexes of all nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param costs
-     *            the cost of the path between each node.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
      * @return a min bound of the cost to see each unseen node
      */
     @Override
-    protected int bound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                        Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs, Map<AbstractWaypoint, Integer> deliveryDurations, int seenCost) {
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        if (this.incrementalBound != null && this.incrementalBound.getInstance() == instance) {
+            return this.incrementalBound.bound(lastSeenNode, seenCost);
+        }
+        int[] costsFromLastSeenNode = instance.getCosts(lastSeenNode);
 
         // init bound
         int bound;
         {
             // first get the min half cost out of lastSeenNode
             int minCost = Integer.MAX_VALUE;
-            for (AbstractWaypoint possibleDestination : unseen) {
-                int cost = costs.get(lastSeenNode).get(possibleDestination);
+            for (int possibleDestination = unseen.nextSetBit(0); possibleDestination >= 0;
+                 possibleDestination = unseen.nextSetBit(possibleDestination + 1)) {
+                int cost = costsFromLastSeenNode[possibleDestination];
                 if (minCost >= cost) {
                     minCost = cost;
                 }
@@ -44,8 +85,9 @@ public class BasicBoundTspSolver extends TspSolver{
             bound = minCost / 2;
             // then get the min half cost to the warehouse
             minCost = Integer.MAX_VALUE;
-            for (AbstractWaypoint possibleDestination : unseen) {
-                int cost = costs.get(possibleDestination).get(this.startPoint);
+            for (int possibleDestination = unseen.nextSetBit(0); possibleDestination >= 0;
+                 possibleDestination = unseen.nextSetBit(possibleDestination + 1)) {
+                int cost = instance.getCost(possibleDestination, 0);
                 if (minCost >= cost) {
                     minCost = cost;
                 }
@@ -54,21 +96,22 @@ public class BasicBoundTspSolver extends TspSolver{
         }
 
         // add to bound the average of the two min cost of each unseen node and is duration
-        for (AbstractWaypoint waypoint : unseen) {
-            // linkCosts = costs.get(waypoint);
-            int minCost = costs.get(waypoint).get(this.startPoint); // init using the cost to the warehouse
-            int cost = costs.get(lastSeenNode).get(waypoint); // first check the cost from the last seen node
+        for (int waypoint = unseen.nextSetBit(0); waypoint >= 0; waypoint = unseen.nextSetBit(waypoint + 1)) {
+            int[] costsFromWaypoint = instance.getCosts(waypoint);
+            int minCost = costsFromWaypoint[0]; // init using the cost to the warehouse
+            int cost = costsFromLastSeenNode[waypoint]; // first check the cost from the last seen node
             int secondMinCost = cost;
             if (minCost >= cost) {
                 secondMinCost = minCost;
                 minCost = cost;
             }
             // find the min cost and the second min cost
-            for (AbstractWaypoint possibleDestination : unseen) {
+            for (int possibleDestination = unseen.nextSetBit(0); possibleDestination >= 0;
+                 possibleDestination = unseen.nextSetBit(possibleDestination + 1)) {
                 if (waypoint != possibleDestination) {
                     // as we cannot go from and to the same node we take the min of the two possibilities
-                    int costFrom = costs.get(waypoint).get(possibleDestination);
-                    int costTo = costs.get(possibleDestination).get(waypoint);
+                    int costFrom = costsFromWaypoint[possibleDestination];
+                    int costTo = instance.getCost(possibleDestination, waypoint);
                     cost = Math.min(costFrom, costTo);
                     if (minCost >= cost) {
                         secondMinCost = minCost;
@@ -79,13 +122,13 @@ public class BasicBoundTspSolver extends TspSolver{
                 }
             }
             // add found values to bound
-            bound += waypoint.getDuration();
+            bound += instance.getDuration(waypoint);
             bound += (minCost + secondMinCost) / 2;
 
             // if endDeliveryTime is already passed, add a malus
-            int deliveryFirstPossibleTime = startPoint.getTimeStart() + seenCost + costs.get(lastSeenNode).get(waypoint);
-            if (deliveryFirstPossibleTime + waypoint.getDuration() > waypoint.getTimeEnd())
-                bound += 86400;
+            int deliveryFirstPossibleTime = instance.getStartTime() + seenCost + costsFromLastSeenNode[waypoint];
+            if (deliveryFirstPossibleTime + instance.getDuration(waypoint) > instance.getTimeEnd(waypoint))
+                bound += TspInstance.DAY;
         }
         return bound; // Basic bound
     }
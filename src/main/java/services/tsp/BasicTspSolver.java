@@ -36,37 +36,20 @@ public class BasicTspSolver extends AbstractThreadedTspSolver {
 
         // Initialize solver parameters
         this.bestSolutionCost = Integer.MAX_VALUE;
+        this.exploredNodeCount = 0;
         this.bestSolution = new AbstractWaypoint[graph.size()];
+        // Get the costs, the durations and the time windows as arrays, the warehouse being the first way point
+        TspInstance instance = new TspInstance(graph);
+        startPoint = (Warehouse) instance.getWaypoint(0);
         // Initialize unseen nodes
-        ArrayList<AbstractWaypoint> unseen = graph.getNodes();
+        BitSet unseen = new BitSet(instance.size());
+        unseen.set(1, instance.size());
         // Initialize seen nodes
-        ArrayList<AbstractWaypoint> seen = new ArrayList<AbstractWaypoint>(graph.size());
-        // Initilize map of by node waiting time
-        Map<AbstractWaypoint, Integer> waypointWaitingTime = new HashMap<AbstractWaypoint,Integer>();
-        // Let's say that the starting point is the first warehouse found
-        for (AbstractWaypoint point : unseen) {
-            if (point instanceof Warehouse) {
-                startPoint = (Warehouse) point;
-                break;
-            }
-        }
-        seen.add(startPoint);
-        unseen.remove(startPoint);
-
-        // Get the cost for all routes
-        Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs = new HashMap<>();
-        graph.iterator().forEachRemaining((startPoint) -> {
-            HashMap<AbstractWaypoint, Integer> costsFromStartPoint = new HashMap<>();
-            startPoint.getValue().entrySet().forEach((endPoint) -> {
-                costsFromStartPoint.put(endPoint.getKey(), endPoint.getValue().getDuration());
-            });
-            costs.put(startPoint.getKey(), costsFromStartPoint);
-        });
-
-        // Get the time needed to deliver each way point
-        Map<AbstractWaypoint, Integer> deliveryDurations = graph.getDeliveryDurations();
+        int[] seen = new int[instance.size()];
+        // Initilize array of by node waiting time
+        int[] waypointWaitingTime = new int[instance.size()];
         // Compute solution
-        branchAndBound(startPoint, unseen, seen, 0, costs, deliveryDurations, waypointWaitingTime);
+        branchAndBound(instance, 0, unseen, instance.size() - 1, seen, 1, 0, waypointWaitingTime);
         // Construct Planning based on the previous result
         return new Planning(graph.getCityMap(), Arrays.asList(this.bestSolution), bestSolutionWaitingTime, bestSolutionCost);
     }
@@ -75,70 +58,72 @@ public class BasicTspSolver extends AbstractThreadedTspSolver {
      * Branch an bound algorithm.
      * Handle waiting and add malus if the explored point can't be passed on the current time
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            all nodes not explored yet.
+     *            the set of the indexes of all nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seen
-     *            all nodes already explored.
+     *            the indexes of all nodes already explored, in the order of the tour.
+     * @param seenCount
+     *            the number of nodes already explored.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param costs
-     *            the cost of the path between each node.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
+     * @param waypointWaitingTime
+     *            the waiting time before each explored node.
      */
-    private void branchAndBound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                                ArrayList<AbstractWaypoint> seen, int seenCost,
-                                Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs,
-                                Map<AbstractWaypoint, Integer> deliveryDurations,
-                                Map<AbstractWaypoint, Integer> waypointWaitingTime) {
-        if (unseen.size() == 0) {
+    private void branchAndBound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount,
+                                int[] seen, int seenCount, int seenCost,
+                                int[] waypointWaitingTime) {
+        exploredNodeCount++;
+        if (unseenCount == 0) {
             // All nodes have been seen
             // Just complete the circuit...
-            seenCost += costs.get(lastSeenNode).get(this.startPoint) + deliveryDurations.get(startPoint);
+            seenCost += instance.getCost(lastSeenNode, 0) + instance.getDuration(0);
             // ...and check if this was a better solution
             if (seenCost < this.bestSolutionCost) {
                 // Indeed it was ! Let's update the previous one
-                seen.toArray(this.bestSolution);
-                bestSolutionWaitingTime = new HashMap<AbstractWaypoint,Integer>(waypointWaitingTime);
+                instance.getWaypoints(seen, seenCount).toArray(this.bestSolution);
+                bestSolutionWaitingTime = instance.getWaitingTimes(seen, waypointWaitingTime, seenCount);
                 this.bestSolutionCost = seenCost;
             }
         } //else if the estimation of time left show possible new best solution
-        else if (seenCost + this.bound(lastSeenNode, unseen, costs, deliveryDurations,seenCost) < this.bestSolutionCost) {
+        else if (seenCost + this.bound(instance, lastSeenNode, unseen, unseenCount, seenCost) < this.bestSolutionCost) {
             // We have a great candidate !
-            Iterator<AbstractWaypoint> it = this.iterator(lastSeenNode, unseen, costs, deliveryDurations,seenCost);
+            PrimitiveIterator.OfInt it = this.iterator(instance, lastSeenNode, unseen, unseenCount, seenCost);
             int i=0;
             int minCost = Integer.MAX_VALUE;
-            while (it.hasNext() && i++ < unseen.size()/EXPLORATION_WIDTH_DIVISOR+MIN_EXPLORATION_WIDTH) {
-                AbstractWaypoint nextNode = it.next();
-                seen.add(nextNode);
-                unseen.remove(nextNode);
-                int costRouteAndDelivery = costs.get(lastSeenNode).get(nextNode);
+            while (it.hasNext() && i++ < unseenCount/EXPLORATION_WIDTH_DIVISOR+MIN_EXPLORATION_WIDTH) {
+                int nextNode = it.nextInt();
+                int costRouteAndDelivery = instance.getCost(lastSeenNode, nextNode);
                 if(i==1)
                     minCost = costRouteAndDelivery;
                 else if(costRouteAndDelivery > MAX_NUMBER_OF_MIN_COST*minCost)
                     break; //if currant cost is bigger than two time the min value cut the currant branch.
+                seen[seenCount] = nextNode;
+                unseen.clear(nextNode);
                 //if we can pass to the selected node
-                int arrivalTime=this.startPoint.getTimeStart()+seenCost+costRouteAndDelivery;
-                arrivalTime %= 86400;
-                if(!nextNode.canBePassed(arrivalTime)){
-                    if( arrivalTime < nextNode.getTimeStart()){
+                int arrivalTime=instance.getStartTime()+seenCost+costRouteAndDelivery;
+                arrivalTime %= TspInstance.DAY;
+                if(!instance.canBePassed(nextNode, arrivalTime)){
+                    if( arrivalTime < instance.getTimeStart(nextNode)){
                         //wait until opening of the delivery point
-                        int waitingDuration = nextNode.getTimeStart() - arrivalTime;
+                        int waitingDuration = instance.getTimeStart(nextNode) - arrivalTime;
                         costRouteAndDelivery += waitingDuration;
-                        waypointWaitingTime.put(nextNode,waitingDuration);
+                        waypointWaitingTime[nextNode] = waitingDuration;
                     }
                     else{
                         //add a one day cost (longer than the max delivery time)
-                        costRouteAndDelivery += 86400;
+                        costRouteAndDelivery += TspInstance.DAY;
                     }
                 }
-                costRouteAndDelivery += deliveryDurations.get(nextNode);
-                branchAndBound(nextNode, unseen, seen, seenCost + costRouteAndDelivery, costs, deliveryDurations, waypointWaitingTime);
-                unseen.add(nextNode);
-                seen.remove(nextNode);
-                waypointWaitingTime.remove(nextNode); //remove the possible waiting time
+                costRouteAndDelivery += instance.getDuration(nextNode);
+                branchAndBound(instance, nextNode, unseen, unseenCount - 1, seen, seenCount + 1, seenCost + costRouteAndDelivery, waypointWaitingTime);
+                unseen.set(nextNode);
+                waypointWaitingTime[nextNode] = 0; //remove the possible waiting time
             }
         }
     }
@@ -146,47 +131,42 @@ public class BasicTspSolver extends AbstractThreadedTspSolver {
     /**
      * The most basic bounding algorithm.
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            the collection in which you want to iterate.
-     * @param costs
-     *            the cost of the path between each node.
+     *            the set of the indexes of the nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
      * @return
      *            a min bound of the left cost
      */
     @Override
-    protected int bound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                        Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs,
-                        Map<AbstractWaypoint, Integer> deliveryDurations,
-                        int seenCost) {
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
         return 0; // The most basic bound
     }
 
     /**
-     * Return an iterator on the given collection.
+     * Return an iterator on the given nodes.
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            the collection in which you want to iterate.
-     * @param costs
-     *            the cost of the path between each node.
+     *            the set of the indexes of the nodes in which you want to iterate.
+     * @param unseenCount
+     *            the number of nodes in which you want to iterate.
      * @param seenCost
      *            the cost of all explored nodes.
      * @return
      *            a optimised for the tsp waypoint iterator
      */
     @Override
-    protected Iterator<AbstractWaypoint> iterator(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-                                                  Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs,
-                                                  Map<AbstractWaypoint, Integer> deliveryDurations,
-                                                  int seenCost) {
-
-        return new WaypointIterator(unseen, costs.get(lastSeenNode));
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return new WaypointIterator(unseen, unseenCount, instance.getCosts(lastSeenNode));
     }
 }
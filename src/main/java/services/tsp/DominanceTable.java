@@ -0,0 +1,84 @@
+package services.tsp;
+
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * The cheapest partial tours met by a branch and bound, by set of visited way points and last way point. A partial
+ * tour visiting the same way points as another one and ending at the same one, but at a higher cost, reaches the
+ * next way points later: it cannot lead to a cheaper tour than the first one, whose branch has already been
+ * explored, as long as the tours have no late delivery and end before midnight (see `TimeWindowPrecedence`).
+ * The table is a fixed size cache indexed by a hash of the state, a new state replacing the one at its index, so
+ * that its memory stays bounded whatever the size of the search.
+ */
+class DominanceTable {
+
+    /**
+     * The maximal number of states of the table, taking 16 MB.
+     */
+    static final int DEFAULT_CAPACITY = 1 << 20;
+
+    /**
+     * The visited way points of each state, as a bit mask, its last way point (-1 for an empty entry) and its cost.
+     */
+    private final long[] visited;
+    private final int[] lasts;
+    private final int[] costs;
+
+    /**
+     * Create an empty table.
+     * @param capacity the number of states of the table, rounded up to a power of two.
+     */
+    @Requires({"capacity > 0"})
+    DominanceTable(int capacity) {
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.visited = new long[size];
+        this.lasts = new int[size];
+        this.costs = new int[size];
+        clear();
+    }
+
+    /**
+     * Get the capacity of the table for an instance: its number of states, the sets of way points containing the
+     * warehouse times their last way point, up to `DEFAULT_CAPACITY`.
+     * @param size the number of way points of the instance, warehouse included.
+     * @return the number of states of the table.
+     */
+    @Requires({"size > 0"})
+    static int getCapacity(int size) {
+        if (size > 21) {
+            return DEFAULT_CAPACITY;
+        }
+        return (int) Math.min(DEFAULT_CAPACITY, (1L << (size - 1)) * size);
+    }
+
+    /**
+     * Remove all the states.
+     */
+    void clear() {
+        Arrays.fill(this.lasts, -1);
+    }
+
+    /**
+     * Check if a partial tour is dominated by a cheaper one met before, and keep it otherwise.
+     * @param visitedMask the set of the visited way points, as a bit mask of their indexes.
+     * @param last the index of the last way point of the tour.
+     * @param cost the cost of the partial tour.
+     * @return true if a partial tour with the same way points and the same last way point cost less or as much.
+     */
+    boolean isDominated(long visitedMask, int last, int cost) {
+        long hash = (visitedMask ^ (visitedMask >>> 29) ^ ((long) last << 40)) * 0x9E3779B97F4A7C15L;
+        int index = (int) (hash >>> 32) & (this.lasts.length - 1);
+        if (this.lasts[index] == last && this.visited[index] == visitedMask && this.costs[index] <= cost) {
+            return true;
+        }
+        this.visited[index] = visitedMask;
+        this.lasts[index] = last;
+        this.costs[index] = cost;
+        return false;
+    }
+}
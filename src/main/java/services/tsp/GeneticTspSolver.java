@@ -0,0 +1,506 @@
+package services.tsp;
+
+import javafx.beans.property.SimpleObjectProperty;
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Anytime solver for the large requests using all the processors, by a genetic algorithm on islands: each thread
+ * evolves its own population of tours, by order crossover of two parents chosen by tournament, random reversal of a
+ * part of the child or move of an address, and repair of its late deliveries. For the small requests, the initial
+ * tours are built by inserting the addresses in random order, and the best children are improved by a
+ * `LocalSearch`. Every few generations, each island sends its best tour to the next one through a lock-free queue,
+ * so that the good parts of the tours spread between the islands without making them all alike.
+ * A tour with a late delivery keeps its one day penalty in the population, so that the tournaments quickly favour
+ * the tours in time. Besides the migrants, the islands only share the best tour found by all of them: an island
+ * replaces it under a lock, and gives it to the listeners, as soon as one of its children beats it.
+ */
+public class GeneticTspSolver extends AbstractThreadedTspSolver {
+
+    /**
+     * The default duration of the search, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_BUDGET = 5000;
+
+    /**
+     * The number of tours of each island.
+     */
+    private static final int POPULATION_SIZE = 50;
+
+    /**
+     * The number of tours among which a parent is chosen, the cheapest one being chosen.
+     */
+    private static final int TOURNAMENT_SIZE = 3;
+
+    /**
+     * The probability that a part of a child is reversed.
+     */
+    private static final double MUTATION_RATE = 0.3;
+
+    /**
+     * The maximal number of late deliveries moved by the repair of a child.
+     */
+    private static final int MAX_REPAIRS = 3;
+
+    /**
+     * The number of generations between two migrations.
+     */
+    private static final int MIGRATION_INTERVAL = 200;
+
+    /**
+     * The maximal number of way points for which the initial tour is built by insertions.
+     */
+    private static final int MAX_INSERTION_SIZE = 100;
+
+    /**
+     * The duration of the search, in milliseconds.
+     */
+    private final long timeBudget;
+
+    /**
+     * The maximal number of children built by each island, or 0 to stop only at the end of the time budget.
+     */
+    private final int maxGenerations;
+
+    /**
+     * The number of islands, each one evolved by its own thread.
+     */
+    private final int islandCount;
+
+    /**
+     * The seed of the random choices, the island i using the seed `seed + i`.
+     */
+    private final long seed;
+
+    /**
+     * The number of children built by all the islands.
+     */
+    private final LongAdder childCount = new LongAdder();
+
+    private DeliveryGraph graph;
+    private TspInstance instance;
+    private SimpleObjectProperty<Planning> bestPlanningObservable = new SimpleObjectProperty<>(this, "planning", null);
+    private Planning bestPlanning;
+
+    /**
+     * Create a solver searching for `DEFAULT_TIME_BUDGET` milliseconds with one island per processor, with the seed 0.
+     */
+    public GeneticTspSolver() {
+        this(DEFAULT_TIME_BUDGET, Runtime.getRuntime().availableProcessors(), 0);
+    }
+
+    /**
+     * Create a solver.
+     * @param timeBudget the duration of the search, in milliseconds.
+     * @param islandCount the number of islands, which is also the number of threads of the search.
+     * @param seed the seed of the random choices. The tours found also depend on the scheduling of the threads.
+     */
+    public GeneticTspSolver(long timeBudget, int islandCount, long seed) {
+        this(timeBudget, 0, islandCount, seed);
+    }
+
+    /**
+     * Create a solver stopping after a number of children per island. With a single island, a seed then always
+     * gives the same tour.
+     * @param timeBudget the duration of the search, in milliseconds, if the generations last longer.
+     * @param maxGenerations the maximal number of children built by each island, or 0 to stop only at the end of
+     *            the time budget.
+     * @param islandCount the number of islands, which is also the number of threads of the search.
+     * @param seed the seed of the random choices.
+     */
+    public GeneticTspSolver(long timeBudget, int maxGenerations, int islandCount, long seed) {
+        this.timeBudget = timeBudget;
+        this.maxGenerations = maxGenerations;
+        this.islandCount = Math.max(1, islandCount);
+        this.seed = seed;
+    }
+
+    /**
+     * Execute doRun() method and then notify the listeners that the planning is updated
+     */
+    @Override
+    public void run() {
+        try {
+            doRun();
+        } finally {
+            notifyListeners(bestPlanning);
+        }
+    }
+
+    /**
+     * Evolve the islands on a new pool of threads until the end of the time budget or of the computation.
+     */
+    private void doRun() {
+        if (graph == null) {
+            System.err.println("Please set a deliveryGraph before trying to solve TSP");
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeBudget;
+        this.childCount.reset();
+        this.bestSolutionCost = Integer.MAX_VALUE;
+        this.instance = new TspInstance(graph);
+        int size = instance.size();
+
+        // The insertion heuristics take too much of the time budget of the large requests
+        int[] initialTour = size <= MAX_INSERTION_SIZE ? TourConstruction.bestTour(instance) : TourConstruction.nearestNeighbour(instance);
+        offerSolution(initialTour, instance.getTourCost(initialTour));
+        if (size <= 3) {
+            return; // There is no other tour to build
+        }
+
+        List<Island> islands = new ArrayList<Island>(islandCount);
+        for (int i = 0; i < islandCount; i++) {
+            islands.add(new Island(new Random(seed + i), initialTour, deadline));
+        }
+        for (int i = 0; i < islandCount; i++) {
+            islands.get(i).next = islands.get((i + 1) % islandCount);
+        }
+        ForkJoinPool pool = new ForkJoinPool(islandCount);
+        try {
+            pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(islands)));
+        } finally {
+            pool.shutdown();
+            this.exploredNodeCount = childCount.sum();
+        }
+    }
+
+    /**
+     * Keep a tour if it is better than the best one found so far by all the islands, and give it to the listeners.
+     * @param tour the indexes of the way points of the tour, starting with the warehouse.
+     * @param cost the full cost of the tour.
+     */
+    private synchronized void offerSolution(int[] tour, int cost) {
+        if (cost < this.bestSolutionCost) {
+            this.bestSolution = instance.getWaypoints(tour, tour.length).toArray(new AbstractWaypoint[tour.length]);
+            this.bestSolutionWaitingTime = instance.getWaitingTimes(tour, instance.getTourWaitingTimes(tour), tour.length);
+            this.bestSolutionCost = cost;
+            this.bestPlanning = new Planning(graph.getCityMap(), Arrays.asList(this.bestSolution), bestSolutionWaitingTime,
+                bestSolutionCost);
+            this.bestPlanningObservable.setValue(bestPlanning);
+            notifyListenersOfImprovement(bestPlanning);
+        }
+    }
+
+    /**
+     * A population of tours evolved by a single thread. Only the migration queue is shared with the other islands.
+     */
+    private class Island extends RecursiveAction {
+
+        private static final long serialVersionUID = 2513947455684961217L;
+
+        private final Random random;
+        private final long deadline;
+
+        /**
+         * The local search polishing the best children of the small requests, or null.
+         */
+        private final LocalSearch localSearch;
+        private final int[][] tours = new int[POPULATION_SIZE][];
+        private final int[] costs = new int[POPULATION_SIZE];
+
+        /**
+         * The tours sent by the previous island, not yet added to the population.
+         */
+        private final ConcurrentLinkedQueue<int[]> migrants = new ConcurrentLinkedQueue<int[]>();
+
+        /**
+         * The island to which the best tour is sent.
+         */
+        private Island next;
+
+        /**
+         * Create an island with the initial tour and random tours.
+         * @param random the random choices of the island.
+         * @param initialTour the constructed tour, shared by all the islands.
+         * @param deadline the end of the search, in milliseconds.
+         */
+        Island(Random random, int[] initialTour, long deadline) {
+            this.random = random;
+            this.deadline = deadline;
+            this.localSearch = initialTour.length <= MAX_INSERTION_SIZE ? new LocalSearch(graph) : null;
+            tours[0] = initialTour.clone();
+            costs[0] = instance.getTourCost(tours[0]);
+            for (int i = 1; i < POPULATION_SIZE; i++) {
+                int[] tour = initialTour.clone();
+                for (int position = tour.length - 1; position > 1; position--) {
+                    int other = 1 + random.nextInt(position);
+                    int waypoint = tour[other];
+                    tour[other] = tour[position];
+                    tour[position] = waypoint;
+                }
+                if (tour.length <= MAX_INSERTION_SIZE) {
+                    // The random tours of the requests with time windows are all late: insert the addresses in
+                    // random order at their cheapest positions instead, for a various but reasonable population
+                    int[] shuffled = tour.clone();
+                    for (int length = 1; length < tour.length; length++) {
+                        TourConstruction.insertCheapest(instance, tour, length, shuffled[length]);
+                    }
+                }
+                tours[i] = tour;
+                costs[i] = instance.getTourCost(tour);
+            }
+        }
+
+        /**
+         * Evolve the population, one child at a time, replacing the worst tour when the child is better.
+         */
+        @Override
+        protected void compute() {
+            int best = getBest();
+            offerSolution(tours[best], costs[best]);
+            for (long generation = 1; !stop && (maxGenerations == 0 || generation <= maxGenerations)
+                && System.currentTimeMillis() < deadline; generation++) {
+                int[] child = crossover(tours[select()], tours[select()]);
+                if (random.nextDouble() < MUTATION_RATE) {
+                    mutate(child);
+                }
+                int cost = repair(child);
+                childCount.increment();
+                // Read before add(), which may replace the best tour when it is also the worst one
+                int bestCost = costs[best];
+                if (cost < bestCost && localSearch != null) {
+                    child = localSearch.improve(child);
+                    cost = instance.getTourCost(child);
+                }
+                if (add(child, cost) && cost < bestCost) {
+                    best = getBest();
+                    offerSolution(child, cost);
+                }
+                if (generation % MIGRATION_INTERVAL == 0) {
+                    next.migrants.offer(tours[best].clone());
+                    for (int[] migrant = migrants.poll(); migrant != null; migrant = migrants.poll()) {
+                        add(migrant, instance.getTourCost(migrant));
+                    }
+                    best = getBest();
+                }
+            }
+        }
+
+        /**
+         * Replace the worst tour of the population by a tour, if it is cheaper and its cost is not in the population
+         * yet, so that the population does not fill with copies of the same tour.
+         * @param tour the tour.
+         * @param cost the full cost of the tour.
+         * @return true if the tour has been added.
+         */
+        private boolean add(int[] tour, int cost) {
+            int worst = 0;
+            for (int i = 0; i < POPULATION_SIZE; i++) {
+                if (costs[i] == cost) {
+                    return false;
+                }
+                if (costs[i] > costs[worst]) {
+                    worst = i;
+                }
+            }
+            if (cost >= costs[worst]) {
+                return false;
+            }
+            tours[worst] = tour;
+            costs[worst] = cost;
+            return true;
+        }
+
+        /**
+         * @return the index of the cheapest tour of the population
+         */
+        private int getBest() {
+            int best = 0;
+            for (int i = 1; i < POPULATION_SIZE; i++) {
+                if (costs[i] < costs[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Choose a parent by tournament.
+         * @return the index of the cheapest of a few random tours of the population.
+         */
+        private int select() {
+            int selected = random.nextInt(POPULATION_SIZE);
+            for (int i = 1; i < TOURNAMENT_SIZE; i++) {
+                int other = random.nextInt(POPULATION_SIZE);
+                if (costs[other] < costs[selected]) {
+                    selected = other;
+                }
+            }
+            return selected;
+        }
+
+        /**
+         * Order crossover: the child keeps a random part of the first parent at the same positions, and the other
+         * delivery addresses in the order of the second parent, starting after the kept part.
+         * @param first the first parent.
+         * @param second the second parent.
+         * @return the child, starting with the warehouse.
+         */
+        private int[] crossover(int[] first, int[] second) {
+            int length = first.length;
+            int start = 1 + random.nextInt(length - 1);
+            int end = start + random.nextInt(length - start);
+            int[] child = new int[length];
+            boolean[] kept = new boolean[length];
+            for (int position = start; position <= end; position++) {
+                child[position] = first[position];
+                kept[first[position]] = true;
+            }
+            int position = end + 1;
+            for (int i = 0; i < length - 1; i++) {
+                int waypoint = second[1 + (end + i) % (length - 1)];
+                if (!kept[waypoint]) {
+                    if (position == length) {
+                        position = 1;
+                    }
+                    child[position++] = waypoint;
+                }
+            }
+            return child;
+        }
+
+        /**
+         * Reverse a random part of a tour, or move a random delivery address to a random position, which keeps the
+         * order of the other addresses and so most of their time windows.
+         * @param tour the tour, starting with the warehouse.
+         */
+        private void mutate(int[] tour) {
+            int start = 1 + random.nextInt(tour.length - 1);
+            int end = start + random.nextInt(tour.length - start);
+            if (random.nextBoolean()) {
+                int waypoint = tour[start];
+                System.arraycopy(tour, start + 1, tour, start, end - start);
+                tour[end] = waypoint;
+                return;
+            }
+            for (; start < end; start++, end--) {
+                int waypoint = tour[start];
+                tour[start] = tour[end];
+                tour[end] = waypoint;
+            }
+        }
+
+        /**
+         * Move the first late deliveries of a tour to their cheapest positions, as long as it makes the tour cheaper.
+         * @param tour the tour, starting with the warehouse. It is repaired.
+         * @return the full cost of the repaired tour.
+         */
+        private int repair(int[] tour) {
+            int cost = instance.getTourCost(tour);
+            for (int repair = 0; repair < MAX_REPAIRS && cost >= TspInstance.DAY; repair++) {
+                int late = getFirstLatePosition(tour);
+                if (late < 0) {
+                    break;
+                }
+                int[] repaired = tour.clone();
+                int waypoint = repaired[late];
+                System.arraycopy(repaired, late + 1, repaired, late, repaired.length - late - 1);
+                TourConstruction.insertCheapest(instance, repaired, repaired.length - 1, waypoint);
+                int repairedCost = instance.getTourCost(repaired);
+                if (repairedCost >= cost) {
+                    break;
+                }
+                System.arraycopy(repaired, 0, tour, 0, tour.length);
+                cost = repairedCost;
+            }
+            return cost;
+        }
+
+        /**
+         * @param tour the tour, starting with the warehouse.
+         * @return the position of the first delivery of the tour reached after its time window, or -1
+         */
+        private int getFirstLatePosition(int[] tour) {
+            int seenCost = 0;
+            for (int position = 1; position < tour.length; position++) {
+                int visitCost = instance.getVisitCost(tour[position - 1], tour[position], seenCost);
+                if (visitCost >= TspInstance.DAY) {
+                    return position;
+                }
+                seenCost += visitCost;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * set the DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     */
+    public void setDeliveryGraph(DeliveryGraph graph) {
+        this.graph = graph;
+        bestPlanning = null;
+        bestPlanningObservable.setValue(bestPlanning);
+    }
+
+    /**
+     * Solve the TSP problem for the given DeliveryGraph, during the time budget.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     * @return The best delivery plan (Planning) found for the given DeliveryGraph.
+     */
+    @Override
+    public Planning solve(DeliveryGraph graph) {
+        setDeliveryGraph(graph);
+        run(); // solve in the current thread and the threads of the pool
+        return bestPlanning;
+    }
+
+    /**
+     * Not used by the genetic algorithm.
+     *
+     * @return 0
+     */
+    @Override
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return 0;
+    }
+
+    /**
+     * Not used by the genetic algorithm.
+     *
+     * @return an iterator on the unseen nodes by increasing cost
+     */
+    @Override
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return new WaypointIterator(unseen, unseenCount, instance.getCosts(lastSeenNode));
+    }
+
+    /**
+     * @return the number of children built so far by all the islands
+     */
+    @Override
+    public long getExploredNodeCount() {
+        return childCount.sum();
+    }
+
+    /**
+     * @return the best planning found so far (can be null if no computation had been run yet)
+     */
+    public Planning getBestPlanning() {
+        return bestPlanning;
+    }
+
+    /**
+     * @return an observable version of the best planning
+     */
+    public SimpleObjectProperty<Planning> bestPlanningProperty() {
+        return this.bestPlanningObservable;
+    }
+}
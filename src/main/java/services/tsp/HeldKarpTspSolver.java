@@ -0,0 +1,273 @@
+package services.tsp;
+
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Planning;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.stream.IntStream;
+
+/**
+ * Exact TSP solver by dynamic programming over the subsets of delivery addresses (Held-Karp): for each set of
+ * visited addresses and each last address of this set, the cheapest tour from the warehouse is computed from the
+ * cheapest tours of the set without the last address. The costs follow the same rules as the branch and bound
+ * (waiting before a time window, one day penalty after it), and the cheapest tour reaching a state also arrives
+ * the earliest, so the result is optimal as soon as a tour without penalty exists and the tours end on the day
+ * they start. The sets of the same size are independent, so each size is computed in parallel.
+ * The time and the memory grow as 2^n * n, so larger requests are given to a BasicBoundTspSolver.
+ */
+public class HeldKarpTspSolver extends AbstractThreadedTspSolver {
+
+    /**
+     * The default maximal number of delivery addresses solved by dynamic programming (about 100 MB of states).
+     */
+    public static final int DEFAULT_MAX_DELIVERY_COUNT = 20;
+
+    /**
+     * The highest maximal number of delivery addresses solved by dynamic programming (about 1 GB of states).
+     */
+    public static final int MAX_DELIVERY_COUNT = 23;
+
+    /**
+     * The memory taken by a state: its cost and its previous address.
+     */
+    private static final int STATE_BYTES = Integer.BYTES + Byte.BYTES;
+
+    /**
+     * The cost of the states which cannot be reached.
+     */
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    /**
+     * The maximal number of delivery addresses solved by dynamic programming.
+     */
+    private final int maxDeliveryCount;
+
+    /**
+     * The solver of the requests with more delivery addresses.
+     */
+    private final BasicBoundTspSolver fallbackSolver = new BasicBoundTspSolver();
+
+    private DeliveryGraph graph;
+    private Planning bestPlanning;
+
+    /**
+     * Create a solver for the requests of up to `DEFAULT_MAX_DELIVERY_COUNT` delivery addresses.
+     */
+    public HeldKarpTspSolver() {
+        this(DEFAULT_MAX_DELIVERY_COUNT);
+    }
+
+    /**
+     * Create a solver for the requests of up to the given number of delivery addresses.
+     * @param maxDeliveryCount the maximal number of delivery addresses solved by dynamic programming (at most
+     *            `MAX_DELIVERY_COUNT`).
+     */
+    public HeldKarpTspSolver(int maxDeliveryCount) {
+        this.maxDeliveryCount = Math.min(maxDeliveryCount, MAX_DELIVERY_COUNT);
+    }
+
+    /**
+     * Solve the last set DeliveryGraph and notify the listeners of the planning.
+     */
+    @Override
+    public void run() {
+        try {
+            if (graph == null) {
+                System.err.println("Please set a deliveryGraph before trying to solve TSP");
+                return;
+            }
+            bestPlanning = solve(graph);
+        } finally {
+            notifyListeners(bestPlanning);
+        }
+    }
+
+    /**
+     * Check if the states of the dynamic programming fit in an array and in the free memory.
+     * @param stateCount the number of states.
+     * @return true if the states can be allocated.
+     */
+    private static boolean canAllocate(long stateCount) {
+        Runtime runtime = Runtime.getRuntime();
+        long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return stateCount <= Integer.MAX_VALUE - 8 && stateCount * STATE_BYTES <= freeMemory;
+    }
+
+    /**
+     * set the DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     */
+    public void setDeliveryGraph(DeliveryGraph graph) {
+        this.graph = graph;
+        this.bestPlanning = null;
+    }
+
+    /**
+     * Solve the TSP problem for the given DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     * @return The delivery plan (Planning) associated to the given DeliveryGraph, or null if the computation has
+     *         been interrupted before its end.
+     */
+    @Override
+    public Planning solve(DeliveryGraph graph) {
+        this.exploredNodeCount = 0;
+        TspInstance instance = new TspInstance(graph);
+        int deliveryCount = instance.size() - 1;
+        long stateCount = (1L << Math.min(deliveryCount, Long.SIZE - 2)) * deliveryCount;
+        if (deliveryCount > maxDeliveryCount || !canAllocate(stateCount)) {
+            Planning planning = fallbackSolver.solve(graph);
+            this.exploredNodeCount = fallbackSolver.getExploredNodeCount();
+            return planning;
+        }
+
+        /* The address i is the bit i - 1 of the sets. The state (set, last) is stored at set * deliveryCount + last - 1,
+         * with the cost of the cheapest tour from the warehouse visiting the set and ending at last, and the previous
+         * address of this tour (0 for the warehouse). */
+        int[] costs = new int[(int) stateCount];
+        byte[] previous = new byte[costs.length];
+        Arrays.fill(costs, UNREACHED);
+        for (int size = 1; size <= deliveryCount && !stop; size++) {
+            int[] sets = getSets(deliveryCount, size);
+            IntStream.range(0, sets.length).parallel().forEach(i -> computeStates(instance, sets[i], costs, previous));
+            this.exploredNodeCount += (long) sets.length * size;
+        }
+        if (stop) {
+            return null;
+        }
+
+        // Close the cheapest tour
+        int[] tour = new int[instance.size()];
+        int tourCost = instance.getCost(0, 0) + instance.getDuration(0);
+        int fullSet = (1 << deliveryCount) - 1;
+        if (deliveryCount > 0) {
+            tourCost = Integer.MAX_VALUE;
+            for (int last = 1; last <= deliveryCount; last++) {
+                int cost = costs[fullSet * deliveryCount + last - 1] + instance.getCost(last, 0) + instance.getDuration(0);
+                if (cost < tourCost) {
+                    tourCost = cost;
+                    tour[deliveryCount] = last;
+                }
+            }
+        }
+        for (int position = deliveryCount, set = fullSet; position > 1; position--) {
+            int last = tour[position];
+            tour[position - 1] = previous[set * deliveryCount + last - 1];
+            set &= ~(1 << (last - 1));
+        }
+
+        List<AbstractWaypoint> waypoints = instance.getWaypoints(tour, tour.length);
+        Map<AbstractWaypoint, Integer> waitingTimesByWaypoint = instance.getWaitingTimes(tour, instance.getTourWaitingTimes(tour),
+            tour.length);
+        this.bestSolution = waypoints.toArray(new AbstractWaypoint[waypoints.size()]);
+        this.bestSolutionWaitingTime = new HashMap<AbstractWaypoint, Integer>(waitingTimesByWaypoint);
+        this.bestSolutionCost = tourCost;
+        return new Planning(graph.getCityMap(), waypoints, waitingTimesByWaypoint, tourCost);
+    }
+
+    /**
+     * Compute the cheapest tours visiting a set of addresses, for each last address of the set, from the cheapest
+     * tours visiting the set without this address.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param set the set of addresses.
+     * @param costs the cost of each state.
+     * @param previous the address before the last one of the tour of each state.
+     */
+    private void computeStates(TspInstance instance, int set, int[] costs, byte[] previous) {
+        if (stop) {
+            return;
+        }
+        int deliveryCount = instance.size() - 1;
+        for (int lastBits = set; lastBits != 0; lastBits &= lastBits - 1) {
+            int last = Integer.numberOfTrailingZeros(lastBits) + 1;
+            int previousSet = set & ~(1 << (last - 1));
+            int bestCost = UNREACHED;
+            int bestPrevious = 0;
+            if (previousSet == 0) {
+                bestCost = instance.getVisitCost(0, last, 0);
+            }
+            for (int previousBits = previousSet; previousBits != 0; previousBits &= previousBits - 1) {
+                int before = Integer.numberOfTrailingZeros(previousBits) + 1;
+                int previousCost = costs[previousSet * deliveryCount + before - 1];
+                if (previousCost == UNREACHED) {
+                    continue;
+                }
+                int cost = previousCost + instance.getVisitCost(before, last, previousCost);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestPrevious = before;
+                }
+            }
+            costs[set * deliveryCount + last - 1] = bestCost;
+            previous[set * deliveryCount + last - 1] = (byte) bestPrevious;
+        }
+    }
+
+    /**
+     * Get all the sets of a given size of the first addresses, in increasing order.
+     * @param deliveryCount the number of addresses.
+     * @param size the number of addresses of the sets.
+     * @return the sets, as bit masks.
+     */
+    private static int[] getSets(int deliveryCount, int size) {
+        long count = 1;
+        for (int i = 0; i < size; i++) {
+            count = count * (deliveryCount - i) / (i + 1);
+        }
+        int[] sets = new int[(int) count];
+        int set = (1 << size) - 1;
+        for (int i = 0; i < sets.length; i++) {
+            sets[i] = set;
+            // Next set with the same number of bits (Gosper's hack)
+            int lowestBit = set & -set;
+            int ripple = set + lowestBit;
+            set = (((ripple ^ set) >>> 2) / lowestBit) | ripple;
+        }
+        return sets;
+    }
+
+    /**
+     * Interrupt the currant computing. No planning is given if the dynamic programming was not finished.
+     */
+    @Override
+    public void stopComputing() {
+        super.stopComputing();
+        fallbackSolver.stopComputing();
+    }
+
+    /**
+     * Not used by the dynamic programming.
+     *
+     * @return 0
+     */
+    @Override
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return 0;
+    }
+
+    /**
+     * Not used by the dynamic programming.
+     *
+     * @return an iterator on the unseen nodes by increasing cost
+     */
+    @Override
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return new WaypointIterator(unseen, unseenCount, instance.getCosts(lastSeenNode));
+    }
+
+    /**
+     * @return the planning of the last computation, or null if none has been finished
+     */
+    public Planning getBestPlanning() {
+        return bestPlanning;
+    }
+}
@@ -0,0 +1,267 @@
+package services.tsp;
+
+import com.google.java.contract.Requires;
+
+import java.util.Arrays;
+
+/**
+ * The bound of BasicBoundTspSolver, maintained along the branch and bound instead of being computed from scratch
+ * at each node. The other way points of each delivery address are sorted once by cost, and the two cheapest
+ * ones still unseen are kept for each unseen address: visiting an address only moves the positions of the
+ * addresses for which it was one of them, and the moves are recorded so that the backtrack restores them.
+ * The bound of a node is then O(n) instead of O(n²), and has exactly the same value.
+ */
+class IncrementalBound {
+
+    private final TspInstance instance;
+
+    /**
+     * For each delivery address, the other delivery addresses by increasing cheapest cost from or to it.
+     */
+    private final int[][] neighbours;
+
+    /**
+     * The cheapest cost between each delivery address and each of its `neighbours`.
+     */
+    private final int[][] neighbourCosts;
+
+    /**
+     * For each way point, the delivery addresses by increasing cost of the route from it.
+     */
+    private final int[][] destinations;
+
+    /**
+     * The delivery addresses by increasing cost of the route to the warehouse.
+     */
+    private final int[] warehouseSources;
+
+    /**
+     * Whether each way point is not visited yet.
+     */
+    private final boolean[] unseen;
+
+    /**
+     * For each unseen delivery address, the position in its `neighbours` of its first and second unseen ones.
+     */
+    private final int[] firstNeighbours;
+    private final int[] secondNeighbours;
+
+    /**
+     * The positions replaced by each visit, as (address, first, second) triples, to restore them on backtrack.
+     */
+    private int[] trail;
+    private int trailSize;
+
+    /**
+     * The size of the trail before each visit, in the order of the visits.
+     */
+    private final int[] trailMarks;
+    private int visitCount;
+
+    /**
+     * Sort the costs of an instance, from the root of the search where all the delivery addresses are unseen.
+     * @param instance the way points, costs and time windows of the problem.
+     */
+    @Requires({"instance != null"})
+    IncrementalBound(TspInstance instance) {
+        this.instance = instance;
+        int size = instance.size();
+        this.neighbours = new int[size][];
+        this.neighbourCosts = new int[size][];
+        this.destinations = new int[size][];
+        for (int waypoint = 0; waypoint < size; waypoint++) {
+            if (waypoint > 0) {
+                long[] keys = new long[size - 2];
+                int i = 0;
+                for (int other = 1; other < size; other++) {
+                    if (other != waypoint) {
+                        int cost = Math.min(instance.getCost(waypoint, other), instance.getCost(other, waypoint));
+                        keys[i++] = ((long) cost << 32) | other;
+                    }
+                }
+                Arrays.sort(keys);
+                this.neighbours[waypoint] = new int[keys.length];
+                this.neighbourCosts[waypoint] = new int[keys.length];
+                for (i = 0; i < keys.length; i++) {
+                    this.neighbours[waypoint][i] = (int) keys[i];
+                    this.neighbourCosts[waypoint][i] = (int) (keys[i] >>> 32);
+                }
+            }
+            this.destinations[waypoint] = sortDeliveries(instance.getCosts(waypoint));
+        }
+        int[] costsToWarehouse = new int[size];
+        for (int waypoint = 1; waypoint < size; waypoint++) {
+            costsToWarehouse[waypoint] = instance.getCost(waypoint, 0);
+        }
+        this.warehouseSources = sortDeliveries(costsToWarehouse);
+
+        this.unseen = new boolean[size];
+        Arrays.fill(this.unseen, 1, size, true);
+        this.firstNeighbours = new int[size];
+        this.secondNeighbours = new int[size];
+        for (int waypoint = 1; waypoint < size; waypoint++) {
+            this.secondNeighbours[waypoint] = 1;
+        }
+        this.trail = new int[3 * size];
+        this.trailMarks = new int[size];
+    }
+
+    /**
+     * Sort the delivery addresses by cost.
+     * @param costs the cost of each way point.
+     * @return the indexes of the delivery addresses, by increasing cost.
+     */
+    private static int[] sortDeliveries(int[] costs) {
+        long[] keys = new long[costs.length - 1];
+        for (int waypoint = 1; waypoint < costs.length; waypoint++) {
+            keys[waypoint - 1] = ((long) costs[waypoint] << 32) | waypoint;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = (int) keys[i];
+        }
+        return sorted;
+    }
+
+    /**
+     * @return the instance whose bound is maintained.
+     */
+    TspInstance getInstance() {
+        return this.instance;
+    }
+
+    /**
+     * Get the position of the next unseen neighbour of a delivery address.
+     * @param waypoint the index of the delivery address.
+     * @param position the position from which to search, included.
+     * @return the position of the first unseen neighbour from there, or the number of neighbours if none.
+     */
+    private int nextUnseenNeighbour(int waypoint, int position) {
+        int[] waypointNeighbours = this.neighbours[waypoint];
+        while (position < waypointNeighbours.length && !this.unseen[waypointNeighbours[position]]) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * Update the bound for the visit of a delivery address.
+     * @param visited the index of the visited delivery address, which must be unseen.
+     */
+    @Requires({"visited > 0", "unseen[visited]"})
+    void visit(int visited) {
+        this.trailMarks[this.visitCount++] = this.trailSize;
+        this.unseen[visited] = false;
+        for (int waypoint = 1; waypoint < this.unseen.length; waypoint++) {
+            if (!this.unseen[waypoint]) {
+                continue;
+            }
+            int[] waypointNeighbours = this.neighbours[waypoint];
+            int first = this.firstNeighbours[waypoint];
+            int second = this.secondNeighbours[waypoint];
+            boolean firstVisited = first < waypointNeighbours.length && waypointNeighbours[first] == visited;
+            boolean secondVisited = second < waypointNeighbours.length && waypointNeighbours[second] == visited;
+            if (!firstVisited && !secondVisited) {
+                continue;
+            }
+            if (this.trailSize + 3 > this.trail.length) {
+                this.trail = Arrays.copyOf(this.trail, 2 * this.trail.length);
+            }
+            this.trail[this.trailSize++] = waypoint;
+            this.trail[this.trailSize++] = first;
+            this.trail[this.trailSize++] = second;
+            if (firstVisited) {
+                this.firstNeighbours[waypoint] = second;
+            }
+            this.secondNeighbours[waypoint] = nextUnseenNeighbour(waypoint, second + 1);
+        }
+    }
+
+    /**
+     * Undo the last visit.
+     * @param visited the index of the delivery address of the last visit.
+     */
+    @Requires({"visitCount > 0", "!unseen[visited]"})
+    void backtrack(int visited) {
+        int mark = this.trailMarks[--this.visitCount];
+        while (this.trailSize > mark) {
+            int second = this.trail[--this.trailSize];
+            int first = this.trail[--this.trailSize];
+            int waypoint = this.trail[--this.trailSize];
+            this.firstNeighbours[waypoint] = first;
+            this.secondNeighbours[waypoint] = second;
+        }
+        this.unseen[visited] = true;
+    }
+
+    /**
+     * Compute the bound of BasicBoundTspSolver for the current unseen delivery addresses.
+     * @param lastSeenNode the index of the last explored node.
+     * @param seenCost the cost of all explored nodes.
+     * @return a min bound of the cost to see each unseen node
+     */
+    int bound(int lastSeenNode, int seenCost) {
+        int[] costsFromLastSeenNode = this.instance.getCosts(lastSeenNode);
+
+        // the min half cost out of lastSeenNode, then the min half cost to the warehouse
+        int bound = costsFromLastSeenNode[firstUnseen(this.destinations[lastSeenNode])] / 2;
+        bound += this.instance.getCost(firstUnseen(this.warehouseSources), 0) / 2;
+
+        // the average of the two min costs of each unseen node, its duration and the malus if it is already late
+        int startTime = this.instance.getStartTime() + seenCost;
+        for (int waypoint = 1; waypoint < this.unseen.length; waypoint++) {
+            if (!this.unseen[waypoint]) {
+                continue;
+            }
+            int minCost = this.instance.getCost(waypoint, 0);
+            int cost = costsFromLastSeenNode[waypoint];
+            int secondMinCost = cost;
+            if (minCost >= cost) {
+                secondMinCost = minCost;
+                minCost = cost;
+            }
+            // then the two cheapest unseen neighbours
+            int[] waypointNeighbourCosts = this.neighbourCosts[waypoint];
+            int position = this.firstNeighbours[waypoint];
+            if (position < waypointNeighbourCosts.length) {
+                cost = waypointNeighbourCosts[position];
+                if (minCost >= cost) {
+                    secondMinCost = minCost;
+                    minCost = cost;
+                } else if (secondMinCost > cost) {
+                    secondMinCost = cost;
+                }
+            }
+            position = this.secondNeighbours[waypoint];
+            if (position < waypointNeighbourCosts.length) {
+                cost = waypointNeighbourCosts[position];
+                if (minCost >= cost) {
+                    secondMinCost = minCost;
+                    minCost = cost;
+                } else if (secondMinCost > cost) {
+                    secondMinCost = cost;
+                }
+            }
+            bound += this.instance.getDuration(waypoint);
+            bound += (minCost + secondMinCost) / 2;
+            if (startTime + costsFromLastSeenNode[waypoint] + this.instance.getDuration(waypoint) > this.instance.getTimeEnd(waypoint)) {
+                bound += TspInstance.DAY;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * Get the first unseen delivery address of a sorted list.
+     * @param sorted the indexes of delivery addresses.
+     * @return the first one which is unseen.
+     */
+    private int firstUnseen(int[] sorted) {
+        int i = 0;
+        while (!this.unseen[sorted[i]]) {
+            i++;
+        }
+        return sorted[i];
+    }
+}
@@ -0,0 +1,262 @@
+package services.tsp;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Branch and bound solver whose bound is a minimum spanning tree relaxation with node penalties (Held-Karp
+ * 1-tree bound). The rest of a tour goes from the last seen node through all the unseen nodes to the warehouse:
+ * it is a spanning tree of these nodes where each unseen node has two neighbours. Adding a penalty to the costs
+ * of the edges of each node does not change which path is the cheapest, and the minimum spanning tree with these
+ * costs, minus the penalties of the path, is a lower bound of its cost. The penalties making this bound the
+ * highest are searched once at the root of the search by subgradient optimisation, then reused by every node, so
+ * that each bound is a single minimum spanning tree computation in O(n²).
+ * The streets may be one way, so the cost of an edge is the cheapest of its two directions.
+ */
+public class LagrangianBoundTspSolver extends TspSolver {
+
+    /**
+     * The number of iterations of the subgradient optimisation of the penalties.
+     */
+    private static final int SUBGRADIENT_ITERATIONS = 200;
+
+    /**
+     * The number of iterations without improvement after which the step of the optimisation is halved.
+     */
+    private static final int STEP_HALVING_PERIOD = 10;
+
+    /**
+     * The instance whose penalties have been computed.
+     */
+    private volatile TspInstance preparedInstance;
+
+    /**
+     * The cheapest cost between each pair of way points, whatever the direction.
+     */
+    private int[][] costs;
+
+    /**
+     * The penalty of each way point.
+     */
+    private int[] penalties;
+
+    /**
+     * Compute the penalties of the instance before the search.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     */
+    @Override
+    protected void prepare(TspInstance instance) {
+        getPenalties(instance);
+    }
+
+    /**
+     * Get the penalties of an instance, computing them if it is not the last prepared one. Several threads may use
+     * the bound of the same solver.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     * @return the penalty of each way point.
+     */
+    private synchronized int[] getPenalties(TspInstance instance) {
+        if (this.preparedInstance != instance) {
+            int size = instance.size();
+            this.costs = new int[size][size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    this.costs[i][j] = Math.min(instance.getCost(i, j), instance.getCost(j, i));
+                }
+            }
+            this.penalties = optimisePenalties(size);
+            this.preparedInstance = instance;
+        }
+        return this.penalties;
+    }
+
+    /**
+     * Search the penalties maximising the 1-tree bound of the whole tour by subgradient optimisation: the
+     * penalty of a node is increased if it has more than two neighbours in the tree, and decreased if it has one.
+     *
+     * @param size
+     *            the number of way points.
+     * @return the best penalties found.
+     */
+    private int[] optimisePenalties(int size) {
+        int[] penalties = new int[size];
+        int[] bestPenalties = new int[size];
+        if (size < 3) {
+            return bestPenalties;
+        }
+        int[] degrees = new int[size];
+        int bestBound = Integer.MIN_VALUE;
+        double step = 2;
+        int iterationsWithoutImprovement = 0;
+        for (int iteration = 0; iteration < SUBGRADIENT_ITERATIONS && !stop; iteration++) {
+            int bound = oneTree(penalties, degrees);
+            if (bound > bestBound) {
+                bestBound = bound;
+                System.arraycopy(penalties, 0, bestPenalties, 0, size);
+                iterationsWithoutImprovement = 0;
+            } else if (++iterationsWithoutImprovement >= STEP_HALVING_PERIOD) {
+                step /= 2;
+                iterationsWithoutImprovement = 0;
+            }
+            long norm = 0;
+            for (int node = 1; node < size; node++) {
+                norm += (long) (degrees[node] - 2) * (degrees[node] - 2);
+            }
+            if (norm == 0) {
+                break; // The 1-tree is a tour, the bound cannot be better
+            }
+            // Aim at a bound 10% higher than the best one, which is not known to be reachable
+            double stepLength = step * (0.1 * Math.abs(bestBound) + 1) / norm;
+            for (int node = 1; node < size; node++) {
+                penalties[node] += (int) Math.round(stepLength * (degrees[node] - 2));
+            }
+        }
+        return bestPenalties;
+    }
+
+    /**
+     * Compute the 1-tree bound of the whole tour: the minimum spanning tree of the delivery addresses with the
+     * penalized costs, plus the two cheapest edges of the warehouse, minus twice the penalties.
+     *
+     * @param penalties
+     *            the penalty of each way point, 0 for the warehouse.
+     * @param degrees
+     *            filled with the number of neighbours of each way point in the 1-tree.
+     * @return the bound.
+     */
+    private int oneTree(int[] penalties, int[] degrees) {
+        int size = penalties.length;
+        Arrays.fill(degrees, 0);
+        int bound = 0;
+        // Prim's algorithm on the delivery addresses
+        int[] distances = new int[size];
+        int[] parents = new int[size];
+        boolean[] inTree = new boolean[size];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        distances[1] = 0;
+        parents[1] = -1;
+        for (int added = 1; added < size; added++) {
+            int next = -1;
+            for (int node = 1; node < size; node++) {
+                if (!inTree[node] && (next == -1 || distances[node] < distances[next])) {
+                    next = node;
+                }
+            }
+            inTree[next] = true;
+            bound += distances[next];
+            if (parents[next] >= 0) {
+                degrees[next]++;
+                degrees[parents[next]]++;
+            }
+            for (int node = 1; node < size; node++) {
+                int cost = this.costs[next][node] + penalties[next] + penalties[node];
+                if (!inTree[node] && cost < distances[node]) {
+                    distances[node] = cost;
+                    parents[node] = next;
+                }
+            }
+        }
+        // The two cheapest edges of the warehouse
+        int first = -1;
+        int second = -1;
+        for (int node = 1; node < size; node++) {
+            int cost = this.costs[0][node] + penalties[node];
+            if (first == -1 || cost < this.costs[0][first] + penalties[first]) {
+                second = first;
+                first = node;
+            } else if (second == -1 || cost < this.costs[0][second] + penalties[second]) {
+                second = node;
+            }
+        }
+        if (second == -1) {
+            second = first; // A single delivery address is linked twice to the warehouse
+        }
+        bound += this.costs[0][first] + penalties[first] + this.costs[0][second] + penalties[second];
+        degrees[0] = 2;
+        degrees[first]++;
+        degrees[second]++;
+        for (int node = 1; node < size; node++) {
+            bound -= 2 * penalties[node];
+        }
+        return bound;
+    }
+
+    /**
+     * Bound using the minimum spanning tree of the last seen node, the unseen nodes and the warehouse with the
+     * penalized costs, minus the penalties of a path from the last seen node to the warehouse. The durations of
+     * the unseen nodes are added, and a one day malus by point that cannot be reached on time.
+     * Complexity: O(n²) with n the number of unseen node.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     * @param lastSeenNode
+     *            the index of the last explored node.
+     * @param unseen
+     *            the set of the indexes of all nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
+     * @param seenCost
+     *            the cost of all explored nodes.
+     * @return a min bound of the cost to see each unseen node
+     */
+    @Override
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        int[] penalties = this.preparedInstance == instance ? this.penalties : getPenalties(instance);
+        int[][] costs = this.costs;
+        int[] costsFromLastSeenNode = instance.getCosts(lastSeenNode);
+
+        // The nodes of the tree: the last seen node, the unseen nodes, then the warehouse
+        int[] nodes = new int[unseenCount + 2];
+        int nodeCount = 0;
+        nodes[nodeCount++] = lastSeenNode;
+        int bound = 0;
+        int startTime = instance.getStartTime() + seenCost;
+        for (int waypoint = unseen.nextSetBit(0); waypoint >= 0; waypoint = unseen.nextSetBit(waypoint + 1)) {
+            nodes[nodeCount++] = waypoint;
+            bound += instance.getDuration(waypoint);
+            // if endDeliveryTime is already passed, add a malus
+            if (startTime + costsFromLastSeenNode[waypoint] + instance.getDuration(waypoint) > instance.getTimeEnd(waypoint)) {
+                bound += TspInstance.DAY;
+            }
+        }
+        if (lastSeenNode == 0) {
+            // The tour has not started: it is a cycle through all the nodes, bounded by the 1-tree
+            return bound + oneTree(penalties, new int[penalties.length]);
+        }
+        nodes[nodeCount++] = 0;
+        // The ends of the path have one neighbour, the unseen nodes have two
+        bound -= penalties[lastSeenNode] + penalties[0];
+        for (int i = 1; i < nodeCount - 1; i++) {
+            bound -= 2 * penalties[nodes[i]];
+        }
+
+        // Prim's algorithm on the penalized costs
+        int[] distances = new int[nodeCount];
+        boolean[] inTree = new boolean[nodeCount];
+        Arrays.fill(distances, Integer.MAX_VALUE);
+        distances[0] = 0;
+        for (int added = 0; added < nodeCount; added++) {
+            int next = -1;
+            for (int i = 0; i < nodeCount; i++) {
+                if (!inTree[i] && (next == -1 || distances[i] < distances[next])) {
+                    next = i;
+                }
+            }
+            inTree[next] = true;
+            bound += distances[next];
+            int[] costsFromNext = costs[nodes[next]];
+            int nextPenalty = penalties[nodes[next]];
+            for (int i = 0; i < nodeCount; i++) {
+                int cost = costsFromNext[nodes[i]] + nextPenalty + penalties[nodes[i]];
+                if (!inTree[i] && cost < distances[i]) {
+                    distances[i] = cost;
+                }
+            }
+        }
+        return bound;
+    }
+}
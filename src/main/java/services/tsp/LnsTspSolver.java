@@ -0,0 +1,325 @@
+package services.tsp;
+
+import javafx.beans.property.SimpleObjectProperty;
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Planning;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+
+/**
+ * Anytime solver for the requests too large for an exact search, by large neighbourhood search: at each iteration
+ * a part of the current tour is removed (ruin), either at random or around a random delivery address, and the
+ * removed addresses are inserted again at their cheapest positions (recreate). The new tour replaces the current
+ * one according to simulated annealing, so that worse tours are accepted at the beginning of the search and less
+ * and less afterwards. The costs are the ones of the branch and bound, so that the late deliveries have a one day
+ * penalty. Each better tour is given to the listeners and to `bestPlanningProperty()` as soon as it is found.
+ */
+public class LnsTspSolver extends AbstractThreadedTspSolver {
+
+    /**
+     * The default duration of the search, in milliseconds.
+     */
+    public static final long DEFAULT_TIME_BUDGET = 5000;
+
+    /**
+     * The maximal number of delivery addresses removed by an iteration.
+     */
+    private static final int MAX_REMOVED_COUNT = 30;
+
+    /**
+     * The maximal number of way points for which the best tours are improved by a LocalSearch, and the way points
+     * are inserted again by regret.
+     */
+    private static final int MAX_POLISHED_SIZE = 100;
+
+    /**
+     * The initial temperature of the annealing, as a part of the mean cost of a visit in the initial tour.
+     */
+    private static final double INITIAL_TEMPERATURE_RATIO = 0.1;
+
+    /**
+     * The duration of the search, in milliseconds.
+     */
+    private final long timeBudget;
+
+    /**
+     * The maximal number of iterations of the search, or 0 to stop only at the end of the time budget.
+     */
+    private final int maxIterations;
+
+    /**
+     * The seed of the random choices.
+     */
+    private final long seed;
+
+    private DeliveryGraph graph;
+    private TspInstance instance;
+    private Random random;
+    private SimpleObjectProperty<Planning> bestPlanningObservable = new SimpleObjectProperty<>(this, "planning", null);
+    private Planning bestPlanning;
+
+    /**
+     * For each delivery address, the other delivery addresses by increasing cheapest cost from or to it.
+     */
+    private int[][] neighbours;
+
+    /**
+     * Create a solver searching for `DEFAULT_TIME_BUDGET` milliseconds, with the seed 0.
+     */
+    public LnsTspSolver() {
+        this(DEFAULT_TIME_BUDGET, 0);
+    }
+
+    /**
+     * Create a solver.
+     * @param timeBudget the duration of the search, in milliseconds.
+     * @param seed the seed of the random choices. For a given seed, the same iterations give the same tours.
+     */
+    public LnsTspSolver(long timeBudget, long seed) {
+        this(timeBudget, 0, seed);
+    }
+
+    /**
+     * Create a solver stopping after a number of iterations, so that a seed always gives the same tour.
+     * @param timeBudget the duration of the search, in milliseconds, if the iterations last longer.
+     * @param maxIterations the maximal number of iterations, by which the temperature decreases, or 0 to stop only
+     *            at the end of the time budget.
+     * @param seed the seed of the random choices.
+     */
+    public LnsTspSolver(long timeBudget, int maxIterations, long seed) {
+        this.timeBudget = timeBudget;
+        this.maxIterations = maxIterations;
+        this.seed = seed;
+    }
+
+    /**
+     * Execute doRun() method and then notify the listeners that the planning is updated
+     */
+    @Override
+    public void run() {
+        try {
+            doRun();
+        } finally {
+            notifyListeners(bestPlanning);
+        }
+    }
+
+    /**
+     * Search the last set DeliveryGraph until the end of the time budget or of the computation.
+     */
+    private void doRun() {
+        if (graph == null) {
+            System.err.println("Please set a deliveryGraph before trying to solve TSP");
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeBudget;
+        this.exploredNodeCount = 0;
+        this.instance = new TspInstance(graph);
+        this.random = new Random(seed);
+        int size = instance.size();
+        computeNeighbours();
+
+        // The insertion heuristics take too much of the time budget of the large requests
+        int[] current = size <= MAX_POLISHED_SIZE ? TourConstruction.bestTour(instance) : TourConstruction.nearestNeighbour(instance);
+        int currentCost = instance.getTourCost(current);
+        this.bestSolutionCost = Integer.MAX_VALUE;
+        offerSolution(current, currentCost);
+        if (size <= 2) {
+            return; // There is a single tour
+        }
+        LocalSearch localSearch = size <= MAX_POLISHED_SIZE ? new LocalSearch(graph) : null;
+
+        double initialTemperature = INITIAL_TEMPERATURE_RATIO * currentCost / size;
+        while (!stop && (maxIterations == 0 || this.exploredNodeCount < maxIterations)) {
+            long now = System.currentTimeMillis();
+            if (now >= deadline) {
+                break;
+            }
+            this.exploredNodeCount++;
+            int[] candidate = recreate(current, ruin(current));
+            int candidateCost = instance.getTourCost(candidate);
+            double remaining = maxIterations > 0 ? (double) (maxIterations - this.exploredNodeCount) / maxIterations
+                : (double) (deadline - now) / timeBudget;
+            double temperature = initialTemperature * remaining;
+            if (candidateCost < currentCost
+                || random.nextDouble() < Math.exp((currentCost - candidateCost) / Math.max(temperature, 1e-9))) {
+                current = candidate;
+                currentCost = candidateCost;
+                if (currentCost < this.bestSolutionCost) {
+                    if (localSearch != null) {
+                        current = localSearch.improve(current);
+                        currentCost = instance.getTourCost(current);
+                    }
+                    offerSolution(current, currentCost);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sort the other delivery addresses of each delivery address by cost, for the ruins around an address.
+     */
+    private void computeNeighbours() {
+        int size = instance.size();
+        this.neighbours = new int[size][];
+        for (int waypoint = 1; waypoint < size; waypoint++) {
+            long[] keys = new long[size - 2];
+            int i = 0;
+            for (int other = 1; other < size; other++) {
+                if (other != waypoint) {
+                    int cost = Math.min(instance.getCost(waypoint, other), instance.getCost(other, waypoint));
+                    keys[i++] = ((long) cost << 32) | other;
+                }
+            }
+            Arrays.sort(keys);
+            this.neighbours[waypoint] = new int[keys.length];
+            for (i = 0; i < keys.length; i++) {
+                this.neighbours[waypoint][i] = (int) keys[i];
+            }
+        }
+    }
+
+    /**
+     * Remove some delivery addresses of a tour: either random ones, or a random one and its closest ones.
+     * @param tour the tour.
+     * @return the removed addresses, in random order.
+     */
+    private int[] ruin(int[] tour) {
+        int deliveryCount = tour.length - 1;
+        int maxRemovedCount = Math.max(2, Math.min(MAX_REMOVED_COUNT, deliveryCount / 3));
+        int removedCount = 2 + random.nextInt(maxRemovedCount - 1);
+        int[] removed = new int[removedCount];
+        if (random.nextBoolean()) {
+            int center = 1 + random.nextInt(deliveryCount);
+            removed[0] = center;
+            System.arraycopy(this.neighbours[center], 0, removed, 1, removedCount - 1);
+        } else {
+            // Partial Fisher-Yates shuffle of the delivery addresses
+            int[] addresses = Arrays.copyOfRange(tour, 1, tour.length);
+            for (int i = 0; i < removedCount; i++) {
+                int j = i + random.nextInt(addresses.length - i);
+                int address = addresses[j];
+                addresses[j] = addresses[i];
+                addresses[i] = address;
+                removed[i] = address;
+            }
+        }
+        for (int i = removedCount - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int address = removed[j];
+            removed[j] = removed[i];
+            removed[i] = address;
+        }
+        return removed;
+    }
+
+    /**
+     * Insert the removed delivery addresses again in a tour, one after the other at their cheapest position, or by
+     * regret for the small requests.
+     * @param ruined the tour from which the addresses have been removed.
+     * @param removed the removed addresses, in the order of insertion.
+     * @return the new tour.
+     */
+    private int[] recreate(int[] ruined, int[] removed) {
+        BitSet removedSet = new BitSet(instance.size());
+        for (int address : removed) {
+            removedSet.set(address);
+        }
+        int[] tour = new int[instance.size()];
+        int length = 0;
+        for (int waypoint : ruined) {
+            if (!removedSet.get(waypoint)) {
+                tour[length++] = waypoint;
+            }
+        }
+        if (instance.size() <= MAX_POLISHED_SIZE && random.nextBoolean()) {
+            TourConstruction.insertAll(instance, tour, length, true);
+        } else {
+            for (int address : removed) {
+                TourConstruction.insertCheapest(instance, tour, length++, address);
+            }
+        }
+        return tour;
+    }
+
+    /**
+     * Keep a tour if it is better than the best one found so far, and give it to the listeners.
+     * @param tour the indexes of the way points of the tour, starting with the warehouse.
+     * @param cost the full cost of the tour.
+     */
+    private void offerSolution(int[] tour, int cost) {
+        if (cost < this.bestSolutionCost) {
+            this.bestSolution = instance.getWaypoints(tour, tour.length).toArray(new AbstractWaypoint[tour.length]);
+            this.bestSolutionWaitingTime = instance.getWaitingTimes(tour, instance.getTourWaitingTimes(tour), tour.length);
+            this.bestSolutionCost = cost;
+            this.bestPlanning = new Planning(graph.getCityMap(), Arrays.asList(this.bestSolution), bestSolutionWaitingTime,
+                bestSolutionCost);
+            this.bestPlanningObservable.setValue(bestPlanning);
+            notifyListenersOfImprovement(bestPlanning);
+        }
+    }
+
+    /**
+     * set the DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     */
+    public void setDeliveryGraph(DeliveryGraph graph) {
+        this.graph = graph;
+        bestPlanning = null;
+        bestPlanningObservable.setValue(bestPlanning);
+    }
+
+    /**
+     * Solve the TSP problem for the given DeliveryGraph, during the time budget.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     * @return The best delivery plan (Planning) found for the given DeliveryGraph.
+     */
+    @Override
+    public Planning solve(DeliveryGraph graph) {
+        setDeliveryGraph(graph);
+        run(); // solve in the current thread
+        return bestPlanning;
+    }
+
+    /**
+     * Not used by the large neighbourhood search.
+     *
+     * @return 0
+     */
+    @Override
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return 0;
+    }
+
+    /**
+     * Not used by the large neighbourhood search.
+     *
+     * @return an iterator on the unseen nodes by increasing cost
+     */
+    @Override
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return new WaypointIterator(unseen, unseenCount, instance.getCosts(lastSeenNode));
+    }
+
+    /**
+     * @return the best planning found so far (can be null if no computation had been run yet)
+     */
+    public Planning getBestPlanning() {
+        return bestPlanning;
+    }
+
+    /**
+     * @return an observable version of the best planning
+     */
+    public SimpleObjectProperty<Planning> bestPlanningProperty() {
+        return this.bestPlanningObservable;
+    }
+}
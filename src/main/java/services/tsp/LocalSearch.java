@@ -0,0 +1,334 @@
+package services.tsp;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Planning;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Improvement of a tour by local search: a delivery address or a sequence of up to three consecutive ones is moved
+ * elsewhere in the tour (relocate, Or-opt), two addresses are exchanged, or a part of the tour is reversed (2-opt),
+ * as long as one of these moves makes the tour cheaper.
+ * When the tour respects all the time windows, each move is evaluated in constant time: the tour is cut in a few
+ * parts, and the duration, the earliest and the latest start of each part of the tour are precomputed, so that the
+ * parts can be joined with their waiting times without following them again. Only the moves keeping all the time
+ * windows are made. Otherwise, the cost of each move is computed by following the whole tour, with the one day
+ * penalties of the branch and bound.
+ */
+public class LocalSearch {
+
+    /**
+     * The maximal number of consecutive delivery addresses moved by the Or-opt moves.
+     */
+    private static final int MAX_MOVED_SEQUENCE = 3;
+
+    /**
+     * The earliest start of a part of tour without time window, and the opposite of its latest start.
+     */
+    private static final int UNBOUNDED = Integer.MIN_VALUE / 4;
+
+    private final DeliveryGraph graph;
+    private final TspInstance instance;
+
+    /**
+     * The index of each way point of the instance.
+     */
+    private final Map<AbstractWaypoint, Integer> indexes = new HashMap<AbstractWaypoint, Integer>();
+
+    /**
+     * The tour being improved, starting with the warehouse, and its number of delivery addresses.
+     */
+    private int[] tour;
+    private int deliveryCount;
+
+    /**
+     * The part of the tour from each position to each later position, and the same part in reverse order.
+     */
+    private Segment[][] segments;
+    private Segment[][] reversedSegments;
+
+    /**
+     * The return to the warehouse at the end of the tour.
+     */
+    private final Segment end;
+
+    /**
+     * Prepare the local search of the tours of a delivery graph.
+     * @param graph The (complete) graph representing all delivery points and the warehouse.
+     */
+    @Requires({"graph != null"})
+    public LocalSearch(DeliveryGraph graph) {
+        this.graph = graph;
+        this.instance = new TspInstance(graph);
+        for (int i = 0; i < instance.size(); i++) {
+            indexes.put(instance.getWaypoint(i), i);
+        }
+        this.end = new Segment(0, 0, instance.getDuration(0), UNBOUNDED, -UNBOUNDED, true);
+    }
+
+    /**
+     * Improve a planning of the delivery graph, for example the best one found by a solver before it was
+     * interrupted.
+     * @param planning a planning visiting all the way points of the graph, starting with the warehouse.
+     * @return the improved planning, or the same one if no move improves it.
+     */
+    @Requires({"planning != null", "planning.getWaypoints().size() == graph.size()"})
+    @Ensures({"result.getFullTime() <= planning.getFullTime()"})
+    public Planning improve(Planning planning) {
+        List<AbstractWaypoint> waypoints = planning.getWaypoints();
+        int[] tour = new int[waypoints.size()];
+        int position = 1;
+        for (AbstractWaypoint waypoint : waypoints) {
+            int index = indexes.get(waypoint);
+            if (index != 0) {
+                tour[position++] = index;
+            }
+        }
+        int[] improvedTour = improve(tour);
+        int cost = instance.getTourCost(improvedTour);
+        if (cost >= planning.getFullTime()) {
+            return planning;
+        }
+        return new Planning(graph.getCityMap(), instance.getWaypoints(improvedTour, improvedTour.length),
+            instance.getWaitingTimes(improvedTour, instance.getTourWaitingTimes(improvedTour), improvedTour.length), cost);
+    }
+
+    /**
+     * Improve a tour until no move makes it cheaper.
+     * @param tour the indexes of all the way points of the instance, starting with the warehouse (0).
+     * @return the improved tour.
+     */
+    @Requires({"tour.length == instance.size()", "tour[0] == 0"})
+    @Ensures({"instance.getTourCost(result) <= instance.getTourCost(tour)"})
+    int[] improve(int[] tour) {
+        this.tour = tour.clone();
+        this.deliveryCount = tour.length - 1;
+        int cost = instance.getTourCost(this.tour);
+        boolean improved = true;
+        while (improved) {
+            computeSegments();
+            boolean feasible = join(getSegment(0, deliveryCount), end).feasible;
+            improved = false;
+            for (int move = 0; move < 3 && !improved; move++) {
+                for (int i = 1; i <= deliveryCount && !improved; i++) {
+                    for (int j = 0; j <= deliveryCount && !improved; j++) {
+                        for (int length = 1; length <= (move == 0 ? MAX_MOVED_SEQUENCE : 1) && !improved; length++) {
+                            int[] newTour;
+                            if (feasible) {
+                                // Only the improving moves keeping the time windows are built
+                                Segment joined = evaluate(move, i, j, length);
+                                if (joined == null || !joined.feasible || joined.duration >= cost) {
+                                    continue;
+                                }
+                                newTour = apply(move, i, j, length);
+                            } else {
+                                newTour = apply(move, i, j, length);
+                                if (newTour == null) {
+                                    continue;
+                                }
+                            }
+                            // The parts do not wrap the times around midnight as the branch and bound: check the cost
+                            int newCost = instance.getTourCost(newTour);
+                            if (newCost < cost) {
+                                this.tour = newTour;
+                                cost = newCost;
+                                improved = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return this.tour;
+    }
+
+    /**
+     * Check if a move is valid and not the same as another one.
+     * @param move 0 to move the sequence of `length` addresses from the position i after the position j, 1 to
+     *             exchange the addresses at the positions i and j, 2 to reverse the part of the tour from i to j.
+     * @param i the first position of the move.
+     * @param j the second position of the move.
+     * @param length the number of moved addresses.
+     * @return true if the move changes the tour.
+     */
+    private boolean isValid(int move, int i, int j, int length) {
+        switch (move) {
+            case 0:
+                return i + length - 1 <= deliveryCount && (j < i - 1 || j >= i + length);
+            default:
+                return i < j;
+        }
+    }
+
+    /**
+     * Compute the tour given by a move from the joined parts of the current tour, in constant time.
+     * @param move the kind of move (see `isValid`).
+     * @param i the first position of the move.
+     * @param j the second position of the move.
+     * @param length the number of moved addresses.
+     * @return the whole new tour, or null if the move is not valid.
+     */
+    private Segment evaluate(int move, int i, int j, int length) {
+        if (!isValid(move, i, j, length)) {
+            return null;
+        }
+        Segment result;
+        switch (move) {
+            case 0:
+                Segment moved = getSegment(i, i + length - 1);
+                if (j < i) {
+                    result = join(join(join(getSegment(0, j), moved), getSegment(j + 1, i - 1)), getSegment(i + length, deliveryCount));
+                } else {
+                    result = join(join(join(getSegment(0, i - 1), getSegment(i + length, j)), moved), getSegment(j + 1, deliveryCount));
+                }
+                break;
+            case 1:
+                result = join(join(join(join(getSegment(0, i - 1), getSegment(j, j)), getSegment(i + 1, j - 1)), getSegment(i, i)),
+                    getSegment(j + 1, deliveryCount));
+                break;
+            default:
+                result = join(join(getSegment(0, i - 1), reversedSegments[i][j]), getSegment(j + 1, deliveryCount));
+                break;
+        }
+        return join(result, end);
+    }
+
+    /**
+     * Build the tour given by a move.
+     * @param move the kind of move (see `isValid`).
+     * @param i the first position of the move.
+     * @param j the second position of the move.
+     * @param length the number of moved addresses.
+     * @return the new tour, or null if the move is not valid.
+     */
+    private int[] apply(int move, int i, int j, int length) {
+        if (!isValid(move, i, j, length)) {
+            return null;
+        }
+        int[] result = this.tour.clone();
+        switch (move) {
+            case 0:
+                if (j < i) {
+                    System.arraycopy(this.tour, i, result, j + 1, length);
+                    System.arraycopy(this.tour, j + 1, result, j + 1 + length, i - j - 1);
+                } else {
+                    System.arraycopy(this.tour, i + length, result, i, j - i - length + 1);
+                    System.arraycopy(this.tour, i, result, j - length + 1, length);
+                }
+                break;
+            case 1:
+                result[i] = this.tour[j];
+                result[j] = this.tour[i];
+                break;
+            default:
+                for (int k = i; k <= j; k++) {
+                    result[k] = this.tour[i + j - k];
+                }
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * Get a part of the current tour.
+     * @param first the first position of the part.
+     * @param last the last position of the part.
+     * @return the part, or null if it is empty.
+     */
+    private Segment getSegment(int first, int last) {
+        return first <= last ? this.segments[first][last] : null;
+    }
+
+    /**
+     * Compute all the parts of the current tour, in O(n²).
+     */
+    private void computeSegments() {
+        int length = this.tour.length;
+        this.segments = new Segment[length][length];
+        this.reversedSegments = new Segment[length][length];
+        // The tour leaves the warehouse at its start time
+        int startTime = instance.getStartTime();
+        this.segments[0][0] = new Segment(0, 0, 0, startTime, startTime, true);
+        for (int position = 1; position < length; position++) {
+            int waypoint = this.tour[position];
+            int latestStart = instance.getTimeEnd(waypoint) - instance.getDuration(waypoint);
+            Segment single = new Segment(waypoint, waypoint, instance.getDuration(waypoint), instance.getTimeStart(waypoint), latestStart,
+                instance.getTimeStart(waypoint) <= latestStart);
+            this.segments[position][position] = single;
+            this.reversedSegments[position][position] = single;
+        }
+        for (int first = 0; first < length; first++) {
+            for (int last = first + 1; last < length; last++) {
+                this.segments[first][last] = join(this.segments[first][last - 1], this.segments[last][last]);
+                if (first > 0) {
+                    this.reversedSegments[first][last] = join(this.segments[last][last], this.reversedSegments[first][last - 1]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Join two parts of tour, the second one being visited right after the first one, waiting before it if needed.
+     * @param first the first part, or null if it is empty.
+     * @param second the second part, or null if it is empty.
+     * @return the joined part.
+     */
+    private Segment join(Segment first, Segment second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        int travel = first.duration + instance.getCost(first.last, second.first);
+        // The wait if the first part starts as late as it can, the lateness if it starts as early as it can
+        int waitingTime = Math.max(second.earliest - travel - first.latest, 0);
+        int lateness = Math.max(first.earliest + travel - second.latest, 0);
+        return new Segment(first.first, second.last, travel + second.duration + waitingTime,
+            Math.max(second.earliest - travel, first.earliest) - waitingTime, Math.min(second.latest - travel, first.latest) + lateness,
+            first.feasible && second.feasible && lateness == 0);
+    }
+
+    /**
+     * A part of tour, with the data needed to join it to other parts in constant time.
+     */
+    private static final class Segment {
+
+        /**
+         * The first and last way points of the part.
+         */
+        final int first;
+        final int last;
+
+        /**
+         * The shortest time from the start of the first delivery to the end of the last one, waiting times included.
+         */
+        final int duration;
+
+        /**
+         * The earliest and latest start times of the first delivery for which the part takes `duration` and keeps
+         * all its time windows.
+         */
+        final int earliest;
+        final int latest;
+
+        /**
+         * Whether the time windows of the part can all be kept.
+         */
+        final boolean feasible;
+
+        Segment(int first, int last, int duration, int earliest, int latest, boolean feasible) {
+            this.first = first;
+            this.last = last;
+            this.duration = duration;
+            this.earliest = earliest;
+            this.latest = latest;
+            this.feasible = feasible;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package services.tsp;
+
+import javafx.beans.property.SimpleObjectProperty;
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Planning;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Branch and bound solver running on several threads. The first levels of the search tree are split into tasks
+ * of a ForkJoinPool, one per branch, and the deeper levels are explored by each task as in TspSolver. The idle
+ * threads steal the waiting tasks, and all the tasks prune their branches with the cost of the best tour found so
+ * far by any of them. The bound and the order of the branches are the ones of another solver, used from several
+ * threads at once.
+ */
+public class ParallelTspSolver extends AbstractThreadedTspSolver {
+
+    /**
+     * The number of way points of the tours (warehouse included) from which a branch is explored by a single task.
+     */
+    private static final int SPLIT_DEPTH = 4;
+
+    /**
+     * The solver giving the bound and the iterator. They must not keep a state between two calls.
+     */
+    private final AbstractThreadedTspSolver boundSolver;
+
+    /**
+     * The number of threads of the search.
+     */
+    private final int parallelism;
+
+    /**
+     * The cost of the best tour found so far, shared by all the tasks.
+     */
+    private final AtomicInteger bestCost = new AtomicInteger(Integer.MAX_VALUE);
+
+    /**
+     * The number of nodes explored by all the tasks.
+     */
+    private final LongAdder exploredNodes = new LongAdder();
+
+    private DeliveryGraph graph;
+    private TspInstance instance;
+    private TimeWindowPrecedence precedence;
+    private SimpleObjectProperty<Planning> bestPlanningObservable = new SimpleObjectProperty<>(this, "planning", null);
+    private Planning bestPlanning;
+
+    /**
+     * Create a solver using the bound of BasicBoundTspSolver and one thread per processor.
+     */
+    public ParallelTspSolver() {
+        this(new BasicBoundTspSolver(), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a solver.
+     * @param boundSolver the solver whose bound and iterator are used. They must not keep a state between two calls.
+     * @param parallelism the number of threads of the search.
+     */
+    public ParallelTspSolver(AbstractThreadedTspSolver boundSolver, int parallelism) {
+        this.boundSolver = boundSolver;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Execute doRun() method and then notify the listeners that the planning is updated
+     */
+    @Override
+    public void run() {
+        try {
+            doRun();
+        } finally {
+            notifyListeners(bestPlanning);
+        }
+    }
+
+    /**
+     * Solve the last set DeliveryGraph on a new pool of threads, which is shut down at the end of the computation.
+     */
+    private void doRun() {
+        if (graph == null) {
+            System.err.println("Please set a deliveryGraph before trying to solve TSP");
+            return;
+        }
+        // Initialize solver parameters
+        this.bestCost.set(Integer.MAX_VALUE);
+        this.bestSolutionCost = Integer.MAX_VALUE;
+        this.exploredNodes.reset();
+        this.bestSolution = new AbstractWaypoint[graph.size()];
+        this.instance = new TspInstance(graph);
+        this.precedence = instance.getPrecedence();
+        // Start from the best constructed tour, so that all the tasks prune from the beginning
+        int[] initialTour = TourConstruction.bestTour(instance);
+        offerSolution(initialTour, instance.getTourCost(initialTour), instance.getTourWaitingTimes(initialTour));
+        notifyListenersOfImprovement(bestPlanning);
+        // The tasks still replace it by a tour as good as it, to give a planning found by the search
+        this.bestSolutionCost++;
+        this.bestCost.incrementAndGet();
+        BitSet unseen = new BitSet(instance.size());
+        unseen.set(1, instance.size());
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new BranchTask(0, unseen, instance.size() - 1, new int[instance.size()], 1, 0,
+                new int[instance.size()]));
+        } finally {
+            pool.shutdown();
+            this.exploredNodeCount = exploredNodes.sum();
+        }
+    }
+
+    /**
+     * set the DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     */
+    public void setDeliveryGraph(DeliveryGraph graph) {
+        this.graph = graph;
+        bestPlanning = null;
+        bestPlanningObservable.setValue(bestPlanning);
+    }
+
+    /**
+     * Solve the TSP problem for the given DeliveryGraph.
+     *
+     * @param graph
+     *            The (complete) graph representing all delivery points and the warehouse.
+     * @return The delivery plan (Planning) associated to the given DeliveryGraph.
+     */
+    @Override
+    public Planning solve(DeliveryGraph graph) {
+        setDeliveryGraph(graph);
+        run(); // solve in the current thread and the threads of the pool
+        return bestPlanning;
+    }
+
+    /**
+     * Keep a complete tour if it is better than the best one found so far by all the tasks.
+     *
+     * @param seen
+     *            the indexes of the way points of the tour, in order.
+     * @param cost
+     *            the full cost of the tour.
+     * @param wayPointWaitingTime
+     *            the waiting time before each way point.
+     */
+    private synchronized void offerSolution(int[] seen, int cost, int[] wayPointWaitingTime) {
+        if (cost < this.bestSolutionCost) {
+            instance.getWaypoints(seen, seen.length).toArray(this.bestSolution);
+            this.bestSolutionWaitingTime = instance.getWaitingTimes(seen, wayPointWaitingTime, seen.length);
+            this.bestSolutionCost = cost;
+            this.bestCost.set(cost);
+            this.bestPlanning = new Planning(graph.getCityMap(), Arrays.asList(this.bestSolution), bestSolutionWaitingTime,
+                bestSolutionCost);
+            this.bestPlanningObservable.setValue(bestPlanning);
+        }
+    }
+
+    /**
+     * Branch and bound algorithm of a single task, pruning against the best cost of all the tasks.
+     *
+     * @param lastSeenNode
+     *            the index of the last explored node.
+     * @param unseen
+     *            the set of the indexes of all nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
+     * @param seen
+     *            the indexes of all nodes already explored, in the order of the tour.
+     * @param seenCount
+     *            the number of nodes already explored.
+     * @param seenCost
+     *            the cost of all explored nodes.
+     * @param wayPointWaitingTime
+     *            the waiting time before each explored node.
+     */
+    private void branchAndBound(int lastSeenNode, BitSet unseen, int unseenCount, int[] seen, int seenCount, int seenCost,
+            int[] wayPointWaitingTime) {
+        if (stop) {
+            return;
+        }
+        exploredNodes.increment();
+        if (unseenCount == 0) {
+            offerSolution(seen, seenCost + instance.getCost(lastSeenNode, 0) + instance.getDuration(0), wayPointWaitingTime);
+        } else if (seenCost + this.bound(instance, lastSeenNode, unseen, unseenCount, seenCost) < bestCost.get()) {
+            PrimitiveIterator.OfInt it = iterator(instance, lastSeenNode, unseen, unseenCount, seenCost);
+            while (it.hasNext()) {
+                int nextNode = it.nextInt();
+                if (isForbidden(nextNode, unseen)) {
+                    continue;
+                }
+                seen[seenCount] = nextNode;
+                unseen.clear(nextNode);
+                wayPointWaitingTime[nextNode] = instance.getWaitingTime(lastSeenNode, nextNode, seenCost);
+                branchAndBound(nextNode, unseen, unseenCount - 1, seen, seenCount + 1,
+                    seenCost + instance.getVisitCost(lastSeenNode, nextNode, seenCost), wayPointWaitingTime);
+                unseen.set(nextNode);
+                wayPointWaitingTime[nextNode] = 0; // remove the possible waiting time
+            }
+        }
+    }
+
+    /**
+     * Check if a next node of a partial tour can be skipped, because an unseen node is always late after it and a
+     * tour without penalty is known.
+     *
+     * @param nextNode
+     *            the index of the next node.
+     * @param unseen
+     *            the set of the indexes of the nodes not explored yet.
+     * @return true if the branch of the next node cannot lead to a better tour
+     */
+    private boolean isForbidden(int nextNode, BitSet unseen) {
+        return precedence.canPrune(bestCost.get()) && !precedence.isAllowedNext(nextNode, unseen);
+    }
+
+    /**
+     * The branch of the search tree starting with a given partial tour. Its arrays belong to the task.
+     */
+    private class BranchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 7560451330166088572L;
+
+        private final int lastSeenNode;
+        private final BitSet unseen;
+        private final int unseenCount;
+        private final int[] seen;
+        private final int seenCount;
+        private final int seenCost;
+        private final int[] wayPointWaitingTime;
+
+        BranchTask(int lastSeenNode, BitSet unseen, int unseenCount, int[] seen, int seenCount, int seenCost,
+                int[] wayPointWaitingTime) {
+            this.lastSeenNode = lastSeenNode;
+            this.unseen = unseen;
+            this.unseenCount = unseenCount;
+            this.seen = seen;
+            this.seenCount = seenCount;
+            this.seenCost = seenCost;
+            this.wayPointWaitingTime = wayPointWaitingTime;
+        }
+
+        /**
+         * Explore the branch, or split it into one task per next way point if it is close to the root. The tasks
+         * still waiting when the computation is stopped return without exploring anything.
+         */
+        @Override
+        protected void compute() {
+            if (seenCount >= SPLIT_DEPTH || unseenCount <= 1) {
+                branchAndBound(lastSeenNode, unseen, unseenCount, seen, seenCount, seenCost, wayPointWaitingTime);
+                return;
+            }
+            if (stop) {
+                return;
+            }
+            exploredNodes.increment();
+            if (seenCost + bound(instance, lastSeenNode, unseen, unseenCount, seenCost) >= bestCost.get()) {
+                return;
+            }
+            List<BranchTask> tasks = new ArrayList<BranchTask>(unseenCount);
+            PrimitiveIterator.OfInt it = iterator(instance, lastSeenNode, unseen, unseenCount, seenCost);
+            while (it.hasNext()) {
+                int nextNode = it.nextInt();
+                if (isForbidden(nextNode, unseen)) {
+                    continue;
+                }
+                BitSet nextUnseen = (BitSet) unseen.clone();
+                nextUnseen.clear(nextNode);
+                int[] nextSeen = seen.clone();
+                nextSeen[seenCount] = nextNode;
+                int[] nextWayPointWaitingTime = wayPointWaitingTime.clone();
+                nextWayPointWaitingTime[nextNode] = instance.getWaitingTime(lastSeenNode, nextNode, seenCost);
+                tasks.add(new BranchTask(nextNode, nextUnseen, unseenCount - 1, nextSeen, seenCount + 1,
+                    seenCost + instance.getVisitCost(lastSeenNode, nextNode, seenCost), nextWayPointWaitingTime));
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * The bound of the bound solver.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     * @param lastSeenNode
+     *            the index of the last explored node.
+     * @param unseen
+     *            the set of the indexes of the nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
+     * @param seenCost
+     *            the cost of all explored nodes.
+     * @return
+     *            a min bound of the left cost
+     */
+    @Override
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return boundSolver.bound(instance, lastSeenNode, unseen, unseenCount, seenCost);
+    }
+
+    /**
+     * The iterator of the bound solver.
+     *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
+     * @param lastSeenNode
+     *            the index of the last explored node.
+     * @param unseen
+     *            the set of the indexes of the nodes in which you want to iterate.
+     * @param unseenCount
+     *            the number of nodes in which you want to iterate.
+     * @param seenCost
+     *            the cost of all explored nodes.
+     * @return
+     *            a optimised for the tsp waypoint iterator
+     */
+    @Override
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return boundSolver.iterator(instance, lastSeenNode, unseen, unseenCount, seenCost);
+    }
+
+    /**
+     * @return the number of nodes explored so far by all the tasks
+     */
+    @Override
+    public long getExploredNodeCount() {
+        return exploredNodes.sum();
+    }
+
+    /**
+     * @return the currant best planning found if computation is still in progress it's probably not the best the algo can found (can be
+     *         null if no computation had been run yet)
+     */
+    public Planning getBestPlanning() {
+        return bestPlanning;
+    }
+
+    /**
+     * @return an observable version of the best planning
+     */
+    public SimpleObjectProperty<Planning> bestPlanningProperty() {
+        return this.bestPlanningObservable;
+    }
+}
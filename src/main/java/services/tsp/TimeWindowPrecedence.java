@@ -0,0 +1,185 @@
+package services.tsp;
+
+import com.google.java.contract.Requires;
+
+import java.util.BitSet;
+
+/**
+ * The orders of delivery forbidden by the time windows, computed before the search. A delivery address j cannot
+ * follow a delivery address i when, even by leaving i as early as possible and going straight to j, j would be
+ * reached after its time window.
+ * The windows are first tightened by propagation: an address which must follow another one cannot be reached
+ * before the earliest end of the other ones plus the route, and an address which must precede another one must be
+ * left early enough to reach one of the following ones in time.
+ * The reasoning holds for the tours whose deliveries are all in time and which end before midnight. Any other tour
+ * costs at least `DAY - startTime`, as it has a one day penalty or lasts until midnight: the forbidden orders can
+ * only be skipped once a tour cheaper than that is known, so that the branch and bound still gives the same tour.
+ */
+class TimeWindowPrecedence {
+
+    private final TspInstance instance;
+
+    /**
+     * The earliest and the latest times at which each address can be reached without a penalty, in the tours
+     * without penalty ending before midnight.
+     */
+    private final int[] earliestArrivals;
+    private final int[] latestArrivals;
+
+    /**
+     * For each delivery address i, the set of the addresses reached after their time window if visited after i.
+     */
+    private final BitSet[] lateAfter;
+
+    /**
+     * Whether some address is always reached after its time window, so that no tour can be cut.
+     */
+    private boolean alwaysLate;
+
+    /**
+     * Whether some order of delivery is forbidden.
+     */
+    private boolean constrained;
+
+    /**
+     * Compute the forbidden orders of delivery of an instance, in O(n³) at most.
+     * @param instance the way points, costs and time windows of the problem.
+     */
+    @Requires({"instance != null"})
+    TimeWindowPrecedence(TspInstance instance) {
+        this.instance = instance;
+        int size = instance.size();
+        this.earliestArrivals = new int[size];
+        this.latestArrivals = new int[size];
+        this.lateAfter = new BitSet[size];
+        this.lateAfter[0] = new BitSet(size);
+        for (int i = 1; i < size; i++) {
+            this.lateAfter[i] = new BitSet(size);
+            this.earliestArrivals[i] = instance.getStartTime() + instance.getCost(0, i);
+            // An address reached before its time window waits, even if the delivery does not fit in the window
+            this.latestArrivals[i] = Math.max(instance.getTimeEnd(i) - instance.getDuration(i), instance.getTimeStart(i) - 1);
+        }
+        // Each pass keeps a correct relation, the number of passes is only bounded to keep the preparation cheap
+        boolean changed = true;
+        for (int pass = 0; pass < size && changed && !alwaysLate; pass++) {
+            changed = updateLateAfter();
+            changed |= tightenWindows();
+        }
+        for (int i = 1; i < size && !alwaysLate; i++) {
+            constrained |= !lateAfter[i].isEmpty();
+        }
+    }
+
+    /**
+     * @return the instance of the relation
+     */
+    TspInstance getInstance() {
+        return instance;
+    }
+
+    /**
+     * Check if the forbidden orders can be skipped by a search.
+     * @param bestCost the cost of the best tour found so far.
+     * @return true if skipping the forbidden orders only skips tours which are not cheaper than the best one.
+     */
+    boolean canPrune(int bestCost) {
+        return constrained && bestCost <= TspInstance.DAY - instance.getStartTime();
+    }
+
+    /**
+     * Check if a delivery address can be visited before another one.
+     * @param first the index of the address visited first.
+     * @param second the index of the address visited later.
+     * @return false if the second address is then always reached after its time window.
+     */
+    boolean canPrecede(int first, int second) {
+        return !lateAfter[first].get(second);
+    }
+
+    /**
+     * Check if the next address of a partial tour keeps all the unseen addresses reachable in time, without
+     * allocating anything, as it is called for each node of the search.
+     * @param next the index of the next address.
+     * @param unseen the set of the indexes of the addresses not explored yet, with or without `next`.
+     * @return true if `next` can precede all the other unseen addresses.
+     */
+    boolean isAllowedNext(int next, BitSet unseen) {
+        return !lateAfter[next].intersects(unseen);
+    }
+
+    /**
+     * @param address the index of a delivery address.
+     * @return the earliest time at which its delivery can start
+     */
+    private int getEarliestStart(int address) {
+        return Math.max(earliestArrivals[address], instance.getTimeStart(address));
+    }
+
+    /**
+     * Add to the relation the orders forbidden by the current windows.
+     * @return true if the relation has changed.
+     */
+    private boolean updateLateAfter() {
+        boolean changed = false;
+        int size = instance.size();
+        for (int i = 1; i < size; i++) {
+            int departure = getEarliestStart(i) + instance.getDuration(i);
+            for (int j = 1; j < size; j++) {
+                if (j != i && !lateAfter[i].get(j) && departure + instance.getCost(i, j) > latestArrivals[j]) {
+                    lateAfter[i].set(j);
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Tighten the windows of the addresses which cannot be the first or the last one of a tour, from their possible
+     * previous and next addresses. Stop as soon as an address cannot be reached in time.
+     * @return true if a window has changed.
+     */
+    private boolean tightenWindows() {
+        boolean changed = false;
+        int size = instance.size();
+        for (int i = 1; i < size; i++) {
+            // i cannot be the first address if it cannot precede another one
+            if (!lateAfter[i].isEmpty()) {
+                int earliestArrival = Integer.MAX_VALUE;
+                for (int previous = 1; previous < size; previous++) {
+                    if (previous != i && canPrecede(previous, i)) {
+                        earliestArrival = Math.min(earliestArrival,
+                            getEarliestStart(previous) + instance.getDuration(previous) + instance.getCost(previous, i));
+                    }
+                }
+                if (earliestArrival > earliestArrivals[i]) {
+                    earliestArrivals[i] = earliestArrival;
+                    changed = true;
+                }
+            }
+            // i cannot be the last address if another one cannot precede it
+            boolean last = true;
+            for (int next = 1; next < size && last; next++) {
+                last = !lateAfter[next].get(i);
+            }
+            if (!last) {
+                int latestArrival = Integer.MIN_VALUE;
+                for (int next = 1; next < size; next++) {
+                    if (next != i && canPrecede(i, next)) {
+                        latestArrival = Math.max(latestArrival,
+                            latestArrivals[next] - instance.getCost(i, next) - instance.getDuration(i));
+                    }
+                }
+                if (latestArrival < latestArrivals[i]) {
+                    latestArrivals[i] = latestArrival;
+                    changed = true;
+                }
+            }
+            if (earliestArrivals[i] > latestArrivals[i]) {
+                alwaysLate = true;
+                return changed;
+            }
+        }
+        return changed;
+    }
+}
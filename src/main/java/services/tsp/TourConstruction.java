@@ -0,0 +1,225 @@
+package services.tsp;
+
+import com.google.java.contract.Ensures;
+import com.google.java.contract.Requires;
+
+/**
+ * Construction heuristics building a good tour in a few milliseconds, before an exact search. The costs of the
+ * tours are the ones of the branch and bound, so they take the waiting times and the one day penalties into
+ * account. The tours are arrays of indexes of the instance, starting with the warehouse (index 0).
+ */
+public class TourConstruction {
+
+    private TourConstruction() {
+        // Only static methods
+    }
+
+    /**
+     * Build the best tour of all the heuristics.
+     * @param instance the way points, costs and time windows of the problem.
+     * @return the cheapest tour built.
+     */
+    @Requires({"instance != null"})
+    @Ensures({"result.length == instance.size()", "result[0] == 0"})
+    public static int[] bestTour(TspInstance instance) {
+        int[] bestTour = nearestNeighbour(instance);
+        int bestCost = instance.getTourCost(bestTour);
+        for (int[] tour : new int[][] { cheapestInsertion(instance), regretInsertion(instance) }) {
+            int cost = instance.getTourCost(tour);
+            if (cost < bestCost) {
+                bestTour = tour;
+                bestCost = cost;
+            }
+        }
+        return bestTour;
+    }
+
+    /**
+     * Build a tour going each time to the way point which is the cheapest to reach and deliver from the last one.
+     * @param instance the way points, costs and time windows of the problem.
+     * @return the tour.
+     */
+    @Requires({"instance != null"})
+    public static int[] nearestNeighbour(TspInstance instance) {
+        int size = instance.size();
+        int[] tour = new int[size];
+        boolean[] seen = new boolean[size];
+        seen[0] = true;
+        int seenCost = 0;
+        for (int position = 1; position < size; position++) {
+            int last = tour[position - 1];
+            int next = -1;
+            int nextCost = Integer.MAX_VALUE;
+            for (int waypoint = 1; waypoint < size; waypoint++) {
+                if (!seen[waypoint]) {
+                    int cost = instance.getVisitCost(last, waypoint, seenCost);
+                    if (cost < nextCost) {
+                        next = waypoint;
+                        nextCost = cost;
+                    }
+                }
+            }
+            tour[position] = next;
+            seen[next] = true;
+            seenCost += nextCost;
+        }
+        return tour;
+    }
+
+    /**
+     * Build a tour by inserting each time the way point whose insertion is the cheapest, at its cheapest position.
+     * @param instance the way points, costs and time windows of the problem.
+     * @return the tour.
+     */
+    @Requires({"instance != null"})
+    public static int[] cheapestInsertion(TspInstance instance) {
+        return insertion(instance, false);
+    }
+
+    /**
+     * Build a tour by inserting each time the way point with the highest regret, that is the highest difference
+     * between the cost of its second cheapest insertion and its cheapest one, at its cheapest position. The way
+     * points with few good positions, often because of their time window, are inserted first.
+     * @param instance the way points, costs and time windows of the problem.
+     * @return the tour.
+     */
+    @Requires({"instance != null"})
+    public static int[] regretInsertion(TspInstance instance) {
+        return insertion(instance, true);
+    }
+
+    /**
+     * Build a tour by insertions of way points, starting from the warehouse alone.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param regret true to insert the way point with the highest regret, false for the cheapest insertion.
+     * @return the tour.
+     */
+    private static int[] insertion(TspInstance instance, boolean regret) {
+        int[] tour = new int[instance.size()];
+        insertAll(instance, tour, 1, regret);
+        return tour;
+    }
+
+    /**
+     * Complete the beginning of a tour by insertions of the missing way points.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param tour the tour, whose first `length` way points are set, starting with the warehouse. It is completed.
+     * @param length the number of way points already in the tour.
+     * @param regret true to insert the way point with the highest regret, false for the cheapest insertion.
+     */
+    @Requires({"tour.length == instance.size()", "length > 0", "tour[0] == 0"})
+    static void insertAll(TspInstance instance, int[] tour, int length, boolean regret) {
+        int size = instance.size();
+        boolean[] inserted = new boolean[size];
+        for (int position = 0; position < length; position++) {
+            inserted[tour[position]] = true;
+        }
+        int[] seenCosts = new int[size];
+        while (length < size) {
+            computeSeenCosts(instance, tour, length, seenCosts);
+            int bestWaypoint = -1;
+            int bestPosition = -1;
+            long bestScore = Long.MAX_VALUE;
+            for (int waypoint = 1; waypoint < size; waypoint++) {
+                if (inserted[waypoint]) {
+                    continue;
+                }
+                // The cheapest and second cheapest positions of the way point in the partial tour
+                int minCost = Integer.MAX_VALUE;
+                int secondMinCost = Integer.MAX_VALUE;
+                int minPosition = -1;
+                for (int position = 1; position <= length; position++) {
+                    int cost = getInsertionCost(instance, tour, length, seenCosts, position, waypoint,
+                        regret ? secondMinCost : minCost);
+                    if (cost < minCost) {
+                        secondMinCost = minCost;
+                        minCost = cost;
+                        minPosition = position;
+                    } else if (cost < secondMinCost) {
+                        secondMinCost = cost;
+                    }
+                }
+                long score = minCost;
+                if (regret) {
+                    // The highest regret first, a single position having an infinite regret
+                    score = secondMinCost == Integer.MAX_VALUE ? Long.MIN_VALUE : (long) minCost - secondMinCost;
+                }
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestWaypoint = waypoint;
+                    bestPosition = minPosition;
+                }
+            }
+            System.arraycopy(tour, bestPosition, tour, bestPosition + 1, length - bestPosition);
+            tour[bestPosition] = bestWaypoint;
+            inserted[bestWaypoint] = true;
+            length++;
+        }
+    }
+
+    /**
+     * Insert a way point at its cheapest position in the beginning of a tour.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param tour the tour, whose first `length` way points are set, starting with the warehouse.
+     * @param length the number of way points already in the tour.
+     * @param waypoint the index of the way point to insert, which is not in the tour yet.
+     */
+    @Requires({"length > 0", "length < tour.length", "tour[0] == 0"})
+    static void insertCheapest(TspInstance instance, int[] tour, int length, int waypoint) {
+        int[] seenCosts = new int[length];
+        computeSeenCosts(instance, tour, length, seenCosts);
+        int minCost = Integer.MAX_VALUE;
+        int minPosition = -1;
+        for (int position = 1; position <= length; position++) {
+            int cost = getInsertionCost(instance, tour, length, seenCosts, position, waypoint, minCost);
+            if (cost < minCost) {
+                minCost = cost;
+                minPosition = position;
+            }
+        }
+        System.arraycopy(tour, minPosition, tour, minPosition + 1, length - minPosition);
+        tour[minPosition] = waypoint;
+    }
+
+    /**
+     * Compute the cost of the beginning of a tour until each of its way points.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param tour the tour, starting with the warehouse.
+     * @param length the number of way points of the tour.
+     * @param seenCosts filled with the cost of the tour until the delivery of the way point at each position.
+     */
+    private static void computeSeenCosts(TspInstance instance, int[] tour, int length, int[] seenCosts) {
+        seenCosts[0] = 0;
+        for (int position = 1; position < length; position++) {
+            seenCosts[position] = seenCosts[position - 1] + instance.getVisitCost(tour[position - 1], tour[position], seenCosts[position - 1]);
+        }
+    }
+
+    /**
+     * Compute the full cost of a tour with a way point inserted, following only the way points after it. The
+     * costs only increase along the tour, so the computation stops as soon as it reaches a limit.
+     * @param instance the way points, costs and time windows of the problem.
+     * @param tour the tour, starting with the warehouse.
+     * @param length the number of way points of the tour.
+     * @param seenCosts the cost of the tour until the delivery of the way point at each position.
+     * @param position the position of the inserted way point.
+     * @param waypoint the index of the inserted way point.
+     * @param limit the cost from which the exact cost is not needed.
+     * @return the cost of the tour with the way point, or Integer.MAX_VALUE if it is not lower than the limit.
+     */
+    private static int getInsertionCost(TspInstance instance, int[] tour, int length, int[] seenCosts, int position, int waypoint,
+            int limit) {
+        int last = tour[position - 1];
+        int seenCost = seenCosts[position - 1] + instance.getVisitCost(last, waypoint, seenCosts[position - 1]);
+        last = waypoint;
+        for (int next = position; next < length && seenCost < limit; next++) {
+            seenCost += instance.getVisitCost(last, tour[next], seenCost);
+            last = tour[next];
+        }
+        if (seenCost >= limit) {
+            return Integer.MAX_VALUE;
+        }
+        int cost = seenCost + instance.getCost(last, 0) + instance.getDuration(0);
+        return cost < limit ? cost : Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,293 @@
+package services.tsp;
+
+import com.google.java.contract.Requires;
+import models.AbstractWaypoint;
+import models.DeliveryGraph;
+import models.Warehouse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The data of a TSP problem as primitive arrays indexed from 0 to n - 1, so that the solvers do not look up
+ * maps nor unbox integers in their inner loops. The index 0 is the warehouse, from which the tours start, and
+ * the other way points keep the order of the delivery graph. The way points are only used again to build the
+ * Planning of a solution.
+ */
+public class TspInstance {
+
+    /**
+     * The number of seconds in a day, which is also the penalty of a way point reached after its time window.
+     */
+    public static final int DAY = 86400;
+
+    /**
+     * The way point of each index.
+     */
+    private final AbstractWaypoint[] waypoints;
+
+    /**
+     * The duration of the route from each way point to each other one (0 from a way point to itself).
+     */
+    private final int[][] costs;
+
+    /**
+     * The delivery duration of each way point.
+     */
+    private final int[] durations;
+
+    /**
+     * The start of the time window of each way point.
+     */
+    private final int[] timeStarts;
+
+    /**
+     * The end of the time window of each way point.
+     */
+    private final int[] timeEnds;
+
+    /**
+     * The orders of delivery forbidden by the time windows, computed by the first search needing them.
+     */
+    private TimeWindowPrecedence precedence;
+
+    /**
+     * Convert a delivery graph. The start point is the first warehouse of the graph.
+     * @param graph The (complete) graph representing all delivery points and the warehouse.
+     */
+    @Requires({"graph != null", "graph.size() > 0"})
+    public TspInstance(DeliveryGraph graph) {
+        List<AbstractWaypoint> nodes = graph.getNodes();
+        AbstractWaypoint warehouse = nodes.get(0);
+        for (AbstractWaypoint node : nodes) {
+            if (node instanceof Warehouse) {
+                warehouse = node;
+                break;
+            }
+        }
+        List<AbstractWaypoint> ordered = new ArrayList<AbstractWaypoint>(nodes.size());
+        ordered.add(warehouse);
+        for (AbstractWaypoint node : nodes) {
+            if (node != warehouse) {
+                ordered.add(node);
+            }
+        }
+
+        int size = ordered.size();
+        this.waypoints = ordered.toArray(new AbstractWaypoint[size]);
+        this.costs = new int[size][size];
+        this.durations = new int[size];
+        this.timeStarts = new int[size];
+        this.timeEnds = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                if (i != j) {
+                    this.costs[i][j] = graph.getDuration(this.waypoints[i], this.waypoints[j]);
+                }
+            }
+            this.durations[i] = this.waypoints[i].getDuration();
+            this.timeStarts[i] = this.waypoints[i].getTimeStart();
+            this.timeEnds[i] = this.waypoints[i].getTimeEnd();
+        }
+    }
+
+    /**
+     * Get the number of way points, including the warehouse.
+     * @return the number of way points.
+     */
+    public int size() {
+        return this.waypoints.length;
+    }
+
+    /**
+     * Get the way point of an index.
+     * @param index The index of the way point.
+     * @return the way point.
+     */
+    public AbstractWaypoint getWaypoint(int index) {
+        return this.waypoints[index];
+    }
+
+    /**
+     * Get the duration of the route between two way points.
+     * @param start The index of the starting way point.
+     * @param end The index of the ending way point.
+     * @return the duration of the route, 0 if both indexes are the same.
+     */
+    public int getCost(int start, int end) {
+        return this.costs[start][end];
+    }
+
+    /**
+     * Get the durations of the routes from a way point. The array must not be modified.
+     * @param start The index of the starting way point.
+     * @return the duration of the route to each way point.
+     */
+    public int[] getCosts(int start) {
+        return this.costs[start];
+    }
+
+    /**
+     * Get the delivery duration of a way point.
+     * @param index The index of the way point.
+     * @return the delivery duration.
+     */
+    public int getDuration(int index) {
+        return this.durations[index];
+    }
+
+    /**
+     * Get the start of the time window of a way point.
+     * @param index The index of the way point.
+     * @return the time from which the way point can be delivered, in seconds.
+     */
+    public int getTimeStart(int index) {
+        return this.timeStarts[index];
+    }
+
+    /**
+     * Get the end of the time window of a way point.
+     * @param index The index of the way point.
+     * @return the time before which the delivery must be done, in seconds.
+     */
+    public int getTimeEnd(int index) {
+        return this.timeEnds[index];
+    }
+
+    /**
+     * Get the time at which the tours leave the warehouse.
+     * @return the start time of the warehouse, in seconds.
+     */
+    public int getStartTime() {
+        return this.timeStarts[0];
+    }
+
+    /**
+     * Check if a way point can be delivered at a given time (see `AbstractWaypoint.canBePassed`).
+     * @param index The index of the way point.
+     * @param timeOfPassage The time of arrival, in seconds.
+     * @return true if the delivery can start at this time and end before the end of the time window.
+     */
+    public boolean canBePassed(int index, int timeOfPassage) {
+        timeOfPassage %= DAY;
+        return this.timeStarts[index] <= timeOfPassage && this.timeEnds[index] >= timeOfPassage + this.durations[index];
+    }
+
+    /**
+     * Get the waiting time before delivering a way point, when it is reached before its time window.
+     * @param lastNode The index of the way point from which the route starts.
+     * @param nextNode The index of the way point to deliver.
+     * @param seenCost The cost of the tour until the last way point, which is also the time elapsed since the start.
+     * @return the time to wait at the way point, or 0.
+     */
+    public int getWaitingTime(int lastNode, int nextNode, int seenCost) {
+        int arrivalTime = (this.getStartTime() + seenCost + this.costs[lastNode][nextNode]) % DAY;
+        if (!this.canBePassed(nextNode, arrivalTime) && arrivalTime < this.timeStarts[nextNode]) {
+            return this.timeStarts[nextNode] - arrivalTime;
+        }
+        return 0;
+    }
+
+    /**
+     * Get the cost of going to a way point and delivering it, as counted by the branch and bound: the duration of
+     * the route, the waiting time if the way point is reached before its time window or a one day penalty if it is
+     * reached after, and the delivery duration.
+     * @param lastNode The index of the way point from which the route starts.
+     * @param nextNode The index of the way point to deliver.
+     * @param seenCost The cost of the tour until the last way point, which is also the time elapsed since the start.
+     * @return the cost added to the tour.
+     */
+    public int getVisitCost(int lastNode, int nextNode, int seenCost) {
+        int cost = this.costs[lastNode][nextNode];
+        int arrivalTime = (this.getStartTime() + seenCost + cost) % DAY;
+        if (!this.canBePassed(nextNode, arrivalTime)) {
+            cost += arrivalTime < this.timeStarts[nextNode] ? this.timeStarts[nextNode] - arrivalTime : DAY;
+        }
+        return cost + this.durations[nextNode];
+    }
+
+    /**
+     * Get the full cost of a tour, as counted by the branch and bound: the cost of each visit, then the route back
+     * to the warehouse and its delivery duration.
+     * @param tour The indexes of all the way points, in the order of the tour, starting with the warehouse.
+     * @return the cost of the tour.
+     */
+    public int getTourCost(int[] tour) {
+        return getTourCost(tour, tour.length);
+    }
+
+    /**
+     * Get the full cost of the beginning of a tour, as if it went back to the warehouse after its last way point.
+     * @param tour The indexes of the way points, in the order of the tour, starting with the warehouse.
+     * @param length The number of way points of the tour.
+     * @return the cost of the tour.
+     */
+    @Requires({"length > 0", "tour[0] == 0"})
+    public int getTourCost(int[] tour, int length) {
+        int seenCost = 0;
+        for (int i = 1; i < length; i++) {
+            seenCost += this.getVisitCost(tour[i - 1], tour[i], seenCost);
+        }
+        return seenCost + this.costs[tour[length - 1]][0] + this.durations[0];
+    }
+
+    /**
+     * Get the waiting time before each way point of a tour.
+     * @param tour The indexes of all the way points, in the order of the tour, starting with the warehouse.
+     * @return the waiting time before each way point, by index of way point.
+     */
+    @Requires({"tour.length > 0", "tour[0] == 0"})
+    public int[] getTourWaitingTimes(int[] tour) {
+        int[] waitingTimes = new int[this.waypoints.length];
+        int seenCost = 0;
+        for (int i = 1; i < tour.length; i++) {
+            waitingTimes[tour[i]] = this.getWaitingTime(tour[i - 1], tour[i], seenCost);
+            seenCost += this.getVisitCost(tour[i - 1], tour[i], seenCost);
+        }
+        return waitingTimes;
+    }
+
+    /**
+     * Get the way points of a tour.
+     * @param tour The indexes of the way points, in the order of the tour.
+     * @param length The number of way points of the tour.
+     * @return the way points, in the order of the tour.
+     */
+    public List<AbstractWaypoint> getWaypoints(int[] tour, int length) {
+        List<AbstractWaypoint> waypoints = new ArrayList<AbstractWaypoint>(length);
+        for (int i = 0; i < length; i++) {
+            waypoints.add(this.waypoints[tour[i]]);
+        }
+        return waypoints;
+    }
+
+    /**
+     * Get the waiting times of a tour by way point.
+     * @param tour The indexes of the way points, in the order of the tour.
+     * @param waitingTimes The waiting time before each way point of the tour, by index of way point.
+     * @param length The number of way points of the tour.
+     * @return the waiting time of each way point which has one.
+     */
+    public Map<AbstractWaypoint, Integer> getWaitingTimes(int[] tour, int[] waitingTimes, int length) {
+        Map<AbstractWaypoint, Integer> result = new HashMap<AbstractWaypoint, Integer>();
+        for (int i = 0; i < length; i++) {
+            if (waitingTimes[tour[i]] > 0) {
+                result.put(this.waypoints[tour[i]], waitingTimes[tour[i]]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Get the orders of delivery forbidden by the time windows, computing them on the first call.
+     * @return the precedence relation of the instance.
+     */
+    synchronized TimeWindowPrecedence getPrecedence() {
+        if (this.precedence == null) {
+            this.precedence = new TimeWindowPrecedence(this);
+        }
+        return this.precedence;
+    }
+}
@@ -11,6 +11,15 @@ public class TspSolver extends AbstractThreadedTspSolver {
 
     protected Warehouse startPoint;
     private DeliveryGraph graph;
+    private TspInstance instance;
+    private TimeWindowPrecedence precedence;
+
+    /**
+     * The cheapest partial tours met by the current search, for the instances of at most 64 way points (else null),
+     * and the set of the way points of the current partial tour as a bit mask.
+     */
+    private DominanceTable dominanceTable;
+    private long visitedMask;
     private SimpleObjectProperty<Planning> bestPlanningObservable = new SimpleObjectProperty<>(this, "planning", null);
     private Planning bestPlanning;
 
@@ -54,38 +63,39 @@ public class TspSolver extends AbstractThreadedTspSolver {
         }
         // Initialize solver parameters
         this.bestSolutionCost = Integer.MAX_VALUE;
+        this.exploredNodeCount = 0;
         this.bestSolution = new AbstractWaypoint[graph.size()];
+        // Get the costs, the durations and the time windows as arrays, the warehouse being the first way point
+        this.instance = new TspInstance(graph);
+        startPoint = (Warehouse) instance.getWaypoint(0);
         // Initialize unseen nodes
-        ArrayList<AbstractWaypoint> unseen = graph.getNodes();
+        BitSet unseen = new BitSet(instance.size());
+        unseen.set(1, instance.size());
         // Initialize seen nodes
-        ArrayList<AbstractWaypoint> seen = new ArrayList<AbstractWaypoint>(graph.size());
-        // Initialize map of by node waiting time
-        Map<AbstractWaypoint, Integer> wayPointWaitingTime = new HashMap<>();
-        // Let's say that the starting point is the first warehouse found
-        for (AbstractWaypoint point : unseen) {
-            if (point instanceof Warehouse) {
-                startPoint = (Warehouse) point;
-                break;
-            }
-        }
-        seen.add(startPoint);
-        unseen.remove(startPoint);
-
-        // Get the cost for all routes
-        Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs = new HashMap<>();
-        graph.iterator().forEachRemaining((startPoint) -> {
-            HashMap<AbstractWaypoint, Integer> costsFromStartPoint = new HashMap<>();
-            startPoint.getValue().entrySet().forEach((endPoint) -> {
-                costsFromStartPoint.put(endPoint.getKey(), endPoint.getValue().getDuration());
-            });
-            costs.put(startPoint.getKey(), costsFromStartPoint);
-        });
-
-        // Get the time needed to deliver each way point
-        Map<AbstractWaypoint, Integer> deliveryDurations = graph.getDeliveryDurations();
+        int[] seen = new int[instance.size()];
+        // Initialize array of by node waiting time
+        int[] wayPointWaitingTime = new int[instance.size()];
+        this.precedence = instance.getPrecedence();
+        // Sized from the instance, so that the small requests do not take the memory of the large ones
+        this.dominanceTable = instance.size() <= Long.SIZE ? new DominanceTable(DominanceTable.getCapacity(instance.size())) : null;
+        this.visitedMask = 1L;
+        prepare(instance);
+        // Start from the best constructed tour, so that the branch and bound prunes from the beginning
+        int[] initialTour = TourConstruction.bestTour(instance);
+        instance.getWaypoints(initialTour, initialTour.length).toArray(this.bestSolution);
+        bestSolutionWaitingTime = instance.getWaitingTimes(initialTour, instance.getTourWaitingTimes(initialTour), initialTour.length);
+        this.bestSolutionCost = instance.getTourCost(initialTour);
+        this.updateBestPlanning();
+        notifyListenersOfImprovement(bestPlanning);
+        // The search still replaces it by the first tour as good as it, to give the same planning as without it
+        this.bestSolutionCost++;
         // Compute solution
-        branchAndBound(startPoint, unseen, seen, 0, costs, deliveryDurations, wayPointWaitingTime);
-
+        try {
+            branchAndBound(0, unseen, instance.size() - 1, seen, 1, 0, wayPointWaitingTime);
+        } finally {
+            // The solver may be kept after the search: do not keep the table with it
+            this.dominanceTable = null;
+        }
     }
 
     /**
@@ -127,115 +137,140 @@ public class TspSolver extends AbstractThreadedTspSolver {
      * Basic branch an bound algorithm
      *
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            all nodes not explored yet.
+     *            the set of the indexes of all nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seen
-     *            all nodes already explored.
+     *            the indexes of all nodes already explored, in the order of the tour.
+     * @param seenCount
+     *            the number of nodes already explored.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param costs
-     *            the cost of the path between each node.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
+     * @param wayPointWaitingTime
+     *            the waiting time before each explored node.
      */
-    private void branchAndBound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen, ArrayList<AbstractWaypoint> seen,
-            int seenCost, Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs, Map<AbstractWaypoint, Integer> deliveryDurations,
-            Map<AbstractWaypoint, Integer> wayPointWaitingTime) {
+    private void branchAndBound(int lastSeenNode, BitSet unseen, int unseenCount, int[] seen, int seenCount, int seenCost,
+            int[] wayPointWaitingTime) {
         if (stop) {
             return;
         }
-        if (unseen.size() == 0) {
+        exploredNodeCount++;
+        if (unseenCount == 0) {
             // All nodes have been seen
             // Just complete the circuit...
-            seenCost += costs.get(lastSeenNode).get(this.startPoint) + deliveryDurations.get(startPoint);
+            seenCost += instance.getCost(lastSeenNode, 0) + instance.getDuration(0);
             // ...and check if this was a better solution
             if (seenCost < this.bestSolutionCost) {
                 // Indeed it was ! Let's update the previous one
-                seen.toArray(this.bestSolution);
-                bestSolutionWaitingTime = new HashMap<>(wayPointWaitingTime);
+                instance.getWaypoints(seen, seenCount).toArray(this.bestSolution);
+                bestSolutionWaitingTime = instance.getWaitingTimes(seen, wayPointWaitingTime, seenCount);
                 this.bestSolutionCost = seenCost;
                 this.updateBestPlanning();
             }
         } // else if the estimation of time left show possible new best solution
-        else if (seenCost + this.bound(lastSeenNode, unseen, costs, deliveryDurations, seenCost) < this.bestSolutionCost) {
+        else if (!isDominated(lastSeenNode, seenCost)
+            && seenCost + this.bound(instance, lastSeenNode, unseen, unseenCount, seenCost) < this.bestSolutionCost) {
             // We have a great candidate !
-            Iterator<AbstractWaypoint> it = this.iterator(lastSeenNode, unseen, costs, deliveryDurations, seenCost);
+            PrimitiveIterator.OfInt it = this.iterator(instance, lastSeenNode, unseen, unseenCount, seenCost);
             int i = 0;
             int minCost = Integer.MAX_VALUE;
-            while (it.hasNext() && i++ < unseen.size() / EXPLORATION_WIDTH_DIVISOR + MIN_EXPLORATION_WIDTH) {
-                AbstractWaypoint nextNode = it.next();
-                seen.add(nextNode);
-                unseen.remove(nextNode);
-                int costRouteAndDelivery = costs.get(lastSeenNode).get(nextNode);
+            while (it.hasNext() && i++ < unseenCount / EXPLORATION_WIDTH_DIVISOR + MIN_EXPLORATION_WIDTH) {
+                int nextNode = it.nextInt();
+                int costRouteAndDelivery = instance.getCost(lastSeenNode, nextNode);
                 if (i == 1)
                     minCost = costRouteAndDelivery;
                 else if (costRouteAndDelivery > MAX_NUMBER_OF_MIN_COST * minCost)
                     break; // if currant cost is bigger than two time the min value cut the currant branch.
+                // skip the next nodes after which an unseen node is always late, once counted by the cuts above so
+                // that the width and the min cost are still measured on all the unseen nodes
+                if (precedence.canPrune(this.bestSolutionCost) && !precedence.isAllowedNext(nextNode, unseen))
+                    continue;
+                seen[seenCount] = nextNode;
+                unseen.clear(nextNode);
+                visitedMask |= 1L << nextNode;
+                visit(nextNode);
                 // if we can pass to the selected node
-                int arrivalTime = this.startPoint.getTimeStart() + seenCost + costRouteAndDelivery;
-                arrivalTime %= 86400;
-                if (!nextNode.canBePassed(arrivalTime)) {
-                    if (arrivalTime < nextNode.getTimeStart()) {
+                int arrivalTime = instance.getStartTime() + seenCost + costRouteAndDelivery;
+                arrivalTime %= TspInstance.DAY;
+                if (!instance.canBePassed(nextNode, arrivalTime)) {
+                    if (arrivalTime < instance.getTimeStart(nextNode)) {
                         // wait until opening of the delivery point
-                        int waitingDuration = nextNode.getTimeStart() - arrivalTime;
+                        int waitingDuration = instance.getTimeStart(nextNode) - arrivalTime;
                         costRouteAndDelivery += waitingDuration;
-                        wayPointWaitingTime.put(nextNode, waitingDuration);
+                        wayPointWaitingTime[nextNode] = waitingDuration;
                     } else {
                         // add a one day cost (longer than the max delivery time)
-                        costRouteAndDelivery += 86400;
+                        costRouteAndDelivery += TspInstance.DAY;
                     }
                 }
-                costRouteAndDelivery += deliveryDurations.get(nextNode);
-                branchAndBound(nextNode, unseen, seen, seenCost + costRouteAndDelivery, costs, deliveryDurations, wayPointWaitingTime);
-                unseen.add(nextNode);
-                seen.remove(nextNode);
-                wayPointWaitingTime.remove(nextNode); // remove the possible waiting time
+                costRouteAndDelivery += instance.getDuration(nextNode);
+                branchAndBound(nextNode, unseen, unseenCount - 1, seen, seenCount + 1, seenCost + costRouteAndDelivery, wayPointWaitingTime);
+                unseen.set(nextNode);
+                visitedMask &= ~(1L << nextNode);
+                backtrack(nextNode);
+                wayPointWaitingTime[nextNode] = 0; // remove the possible waiting time
             }
         }
     }
 
+    /**
+     * Check if the current partial tour is dominated by a cheaper one with the same way points and the same last
+     * one, met before. Only done once a tour without penalty is known, as the later arrivals are not always worse
+     * for the tours with a penalty or ending after midnight.
+     *
+     * @param lastSeenNode
+     *            the index of the last explored node.
+     * @param seenCost
+     *            the cost of all explored nodes.
+     * @return true if the branch cannot lead to a better tour than the ones already explored
+     */
+    private boolean isDominated(int lastSeenNode, int seenCost) {
+        return dominanceTable != null && this.bestSolutionCost <= TspInstance.DAY - instance.getStartTime()
+            && dominanceTable.isDominated(visitedMask, lastSeenNode, seenCost);
+    }
+
     /**
      * The most basic bounding algorithm.
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            the collection in which you want to iterate.
-     * @param costs
-     *            the cost of the path between each node.
+     *            the set of the indexes of the nodes not explored yet.
+     * @param unseenCount
+     *            the number of nodes not explored yet.
      * @param seenCost
      *            the cost of all explored nodes.
-     * @param deliveryDurations
-     *            the delivery duration of each node.
      * @return
      *            a min bound of the left cost
      */
     @Override
-    protected int bound(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-            Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs, Map<AbstractWaypoint, Integer> deliveryDurations, int seenCost) {
+    protected int bound(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
         return 0; // The most basic bound
     }
 
     /**
-     * Return an iterator on the given collection.
+     * Return an iterator on the given nodes.
      *
+     * @param instance
+     *            the way points, costs and time windows of the problem.
      * @param lastSeenNode
-     *            the last explored node.
+     *            the index of the last explored node.
      * @param unseen
-     *            the collection in which you want to iterate.
-     * @param costs
-     *            the cost of the path between each node.
+     *            the set of the indexes of the nodes in which you want to iterate.
+     * @param unseenCount
+     *            the number of nodes in which you want to iterate.
      * @param seenCost
      *            the cost of all explored nodes.
      * @return
      *            a optimised for the tsp waypoint iterator
      */
     @Override
-    protected Iterator<AbstractWaypoint> iterator(AbstractWaypoint lastSeenNode, ArrayList<AbstractWaypoint> unseen,
-            Map<AbstractWaypoint, Map<AbstractWaypoint, Integer>> costs, Map<AbstractWaypoint, Integer> deliveryDurations, int seenCost) {
-
-        return new WaypointIterator(unseen, costs.get(lastSeenNode));
+    protected PrimitiveIterator.OfInt iterator(TspInstance instance, int lastSeenNode, BitSet unseen, int unseenCount, int seenCost) {
+        return new WaypointIterator(unseen, unseenCount, instance.getCosts(lastSeenNode));
     }
 
     /**
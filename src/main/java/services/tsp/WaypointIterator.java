@@ -1,55 +1,51 @@
 package services.tsp;
 
 import com.google.java.contract.Requires;
-import models.AbstractWaypoint;
 
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.BitSet;
+import java.util.PrimitiveIterator;
 
-public class WaypointIterator implements Iterator<AbstractWaypoint> {
+public class WaypointIterator implements PrimitiveIterator.OfInt {
 
-    private AbstractWaypoint[] waypoints;
+    private int[] waypoints;
     private int waypointsLeft;
 
     /**
-     * Construct an iterator on the given structure.
-     * @param points the collection in which you want to iterate.
-     * @param costs the costs associated with points.
+     * Construct an iterator on the given way points, by increasing cost. Way points with the same cost are
+     * returned from the last to the first one.
+     * @param points the set of the indexes of the way points in which you want to iterate.
+     * @param count the number of way points in the set.
+     * @param costs the costs associated with points, by index.
      */
-    public WaypointIterator(Collection<AbstractWaypoint> points, Map<AbstractWaypoint, Integer> costs, int seenCost, int startTime){
-        //call basic constructor
-        this(points);
-        //sort array the bigger cost first as the table is read end first
-        Arrays.sort(waypoints, (a,b) -> costs.get(b).compareTo(costs.get(a) - (a.canBePassed(startTime+seenCost+costs.get(a)) ? 86400 : 0)));
-    }
-    /**
-     * Construct an iterator on the given structure.
-     * @param points the collection in which you want to iterate.
-     * @param costs the costs associated with points.
-     */
-    public WaypointIterator(Collection<AbstractWaypoint> points, Map<AbstractWaypoint, Integer> costs){
-        //call basic constructor
-        this(points);
-        //sort array the bigger cost first as the table is read end first
-        Arrays.sort(waypoints, (a,b) -> costs.get(b).compareTo(costs.get(a)));
+    public WaypointIterator(BitSet points, int count, int[] costs) {
+        // sort the costs, then the indexes, the bigger first as the table is read end first
+        long[] keys = new long[count];
+        int i = 0;
+        for (int point = points.nextSetBit(0); point >= 0; point = points.nextSetBit(point + 1)) {
+            keys[i++] = ((long) costs[point] << 32) | (Integer.MAX_VALUE - point);
+        }
+        Arrays.sort(keys);
+        this.waypoints = new int[count];
+        this.waypointsLeft = count;
+        for (i = 0; i < count; i++) {
+            this.waypoints[count - 1 - i] = Integer.MAX_VALUE - (int) keys[i];
+        }
     }
+
     /**
-     * Construct an iterator on the given structure.
-     * @param points the collection in which you want to iterate.
+     * Construct an iterator on the given way points, from the last to the first one.
+     * @param points the set of the indexes of the way points in which you want to iterate.
+     * @param count the number of way points in the set.
      */
-    public WaypointIterator(Collection<AbstractWaypoint> points) {
-        this.waypoints = new AbstractWaypoint[points.size()];
+    public WaypointIterator(BitSet points, int count) {
+        this.waypoints = new int[count];
         this.waypointsLeft = 0;
-        for(AbstractWaypoint point: points) {
+        for (int point = points.nextSetBit(0); point >= 0; point = points.nextSetBit(point + 1)) {
             this.waypoints[waypointsLeft++] = point;
         }
     }
 
-
-
-
     /**
      *
      * @return true only if there is a Waypoint left in the collection.
@@ -61,11 +57,11 @@ public class WaypointIterator implements Iterator<AbstractWaypoint> {
 
     /**
      *
-     * @return the next item in the collection.
+     * @return the index of the next way point in the collection.
      */
     @Override
     @Requires("this.hasNext()")
-    public AbstractWaypoint next() {
+    public int nextInt() {
         return this.waypoints[--waypointsLeft];
     }
 }
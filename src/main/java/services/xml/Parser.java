@@ -12,6 +12,7 @@ import services.xml.exception.ParserMissingAttributeException;
 import services.xml.exception.ParserShouldBeIntegerValueException;
 import services.xml.exception.ParserTimeConstraintsException;
 import services.xml.exception.ParserTimeSyntaxException;
+import services.xml.exception.ParserUnreachableAddressException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -236,7 +237,11 @@ public class Parser {
                     DELIVERY_ADDRESS_NAME);
 
         for (int i = 0; i < deliveryAddressesNodes.getLength(); i++) {
-            deliveryAddresses.add(getDeliveryAddress((Element) deliveryAddressesNodes.item(i), cityMap, deliveryAddresses));
+            DeliveryAddress deliveryAddress = getDeliveryAddress((Element) deliveryAddressesNodes.item(i), cityMap, deliveryAddresses);
+            if (!cityMap.canReach(warehouse, deliveryAddress) || !cityMap.canReach(deliveryAddress, warehouse))
+                throw new ParserUnreachableAddressException("The delivery address " + deliveryAddress.getId()
+                        + " cannot be reached from the warehouse or cannot reach it");
+            deliveryAddresses.add(deliveryAddress);
         }
 
         return new DeliveryRequest(cityMap, warehouse, deliveryAddresses, startPlanningTimestamp);
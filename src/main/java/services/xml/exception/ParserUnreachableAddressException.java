@@ -0,0 +1,22 @@
+package services.xml.exception;
+
+/**
+ * This type of exception is thrown when an address of a delivery request cannot be reached from the warehouse, or cannot reach it,
+ * because of the one-way streets of the city map.
+ */
+public class ParserUnreachableAddressException extends ParserSemanticException {
+
+    private static final long serialVersionUID = 5218347061994432761L;
+
+    public ParserUnreachableAddressException(String message) {
+        super(message);
+    }
+
+    public ParserUnreachableAddressException(Throwable cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    public ParserUnreachableAddressException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
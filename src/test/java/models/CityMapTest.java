@@ -1,12 +1,29 @@
 package models;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
+import services.xml.Parser;
+import services.xml.exception.ParserException;
 
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 public class CityMapTest {
@@ -251,4 +268,449 @@ public class CityMapTest {
         expectedRoute = new Route(deliveryAdress2, deliveryAdress1, expectedRouteStreetSections);
         assertTrue(deliveryGraphRoute.equals(expectedRoute));
     }
+
+    @Test
+    public void shortestPathOnExampleMapsTest() throws IOException, ParserException {
+        File[] cityMapFiles = new File("data/examples").listFiles((dir, name) -> name.startsWith("plan") && name.endsWith(".xml"));
+        assertNotNull(cityMapFiles);
+        assertTrue(cityMapFiles.length > 0);
+
+        for (File cityMapFile : cityMapFiles) {
+            CityMap cityMap = new Parser().getCityMap(cityMapFile);
+            List<Intersection> intersections = cityMap.getIntersections();
+            List<AbstractWaypoint> endWaypoints = new ArrayList<AbstractWaypoint>();
+            for (Intersection intersection : intersections) {
+                endWaypoints.add(new DeliveryAddress(intersection, 0));
+            }
+
+            // Around 25 start points per city map
+            int step = Math.max(1, intersections.size() / 25);
+            for (int i = 0; i < intersections.size(); i += step) {
+                Warehouse startWaypoint = new Warehouse(intersections.get(i));
+                List<Route> routes = cityMap.shortestPath(startWaypoint, endWaypoints);
+                List<Route> expectedRoutes = linearScanShortestPath(cityMap, startWaypoint, endWaypoints);
+
+                assertTrue(routes.size() == expectedRoutes.size());
+                for (int j = 0; j < routes.size(); j++) {
+                    assertTrue(cityMapFile.getName(), routes.get(j).equals(expectedRoutes.get(j)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void computeDeliveryGraphInParallelTest() throws IOException, ParserException {
+        Parser parser = new Parser();
+        CityMap cityMap = parser.getCityMap(new File("data/examples/plan10x10.xml"));
+        DeliveryRequest request = parser.getDeliveryRequest(new File("data/examples/livraisons10x10-9.xml"), cityMap);
+
+        DeliveryGraph expectedGraph = cityMap.computeDeliveryGraph(request);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        DeliveryGraph graph;
+        try {
+            graph = cityMap.computeDeliveryGraph(request, executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(graph.size() == expectedGraph.size());
+        for (AbstractWaypoint start : expectedGraph.getNodes()) {
+            for (AbstractWaypoint end : expectedGraph.getNodes()) {
+                if (!start.equals(end)) {
+                    assertTrue(graph.getRoute(start, end).equals(expectedGraph.getRoute(start, end)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void lazyDeliveryGraphRoutesTest() throws IOException, ParserException {
+        Parser parser = new Parser();
+        CityMap cityMap = parser.getCityMap(new File("data/examples/plan10x10.xml"));
+        DeliveryRequest request = parser.getDeliveryRequest(new File("data/examples/livraisons10x10-9.xml"), cityMap);
+        DeliveryGraph graph = cityMap.computeDeliveryGraph(request);
+
+        CityMap otherCityMap = parser.getCityMap(new File("data/examples/plan10x10.xml"));
+        for (AbstractWaypoint start : graph.getNodes()) {
+            List<AbstractWaypoint> ends = graph.getNodes();
+            ends.remove(start);
+            List<Route> expectedRoutes = otherCityMap.shortestPath(start, ends);
+            for (int i = 0; i < ends.size(); i++) {
+                Route route = graph.getRoute(start, ends.get(i));
+                assertTrue(route.equals(expectedRoutes.get(i)));
+                assertTrue(graph.getDuration(start, ends.get(i)) == route.getDuration());
+                // The routes are only kept if asked for
+                assertTrue(graph.getRoute(start, ends.get(i)) != route);
+            }
+        }
+
+        graph.setRouteMemoization(true);
+        AbstractWaypoint start = graph.getNodes().get(0);
+        AbstractWaypoint end = graph.getNodes().get(1);
+        assertTrue(graph.getRoute(start, end) == graph.getRoute(start, end));
+    }
+
+    @Test
+    public void targetedShortestPathTest() throws IOException, ParserException {
+        CityMap cityMap = new Parser().getCityMap(new File("data/examples/plan10x10.xml"));
+        // Without cache, as the tree of the expected routes would answer all the targeted searches
+        cityMap.getShortestPathCache().setCapacity(0);
+        checkAgainstDijkstra(cityMap, 15, 3, (startWaypoint, endWaypoint, expectedRoute) -> {
+            assertTrue(cityMap.shortestPath(startWaypoint, endWaypoint).equals(expectedRoute));
+
+            // A duration ceiling equal to the duration of the route does not change the route
+            assertTrue(cityMap.shortestPath(startWaypoint, endWaypoint, expectedRoute.getDuration()).equals(expectedRoute));
+            if (expectedRoute.getDuration() > 0) {
+                assertTrue(cityMap.shortestPath(startWaypoint, endWaypoint, expectedRoute.getDuration() - 1) == null);
+            }
+        });
+        assertTrue(cityMap.getShortestPathCache().getHitCount() == 0);
+    }
+
+    @Test
+    public void aStarShortestPathTest() throws IOException, ParserException {
+        for (Map.Entry<String, CityMap> example : getExampleCityMaps().entrySet()) {
+            CityMap cityMap = example.getValue();
+            checkAgainstDijkstra(cityMap, 10, 1, (startWaypoint, endWaypoint, dijkstraRoute) -> {
+                // When several paths have the same duration, A* may not return the same one as Dijkstra
+                Route route = cityMap.shortestPath(startWaypoint, endWaypoint);
+                assertTrue(example.getKey(), route.getDuration() == dijkstraRoute.getDuration());
+                assertIsPath(route);
+            });
+            assertTrue(example.getKey(), cityMap.getShortestPathCache().getHitCount() == 0);
+        }
+    }
+
+    @Test
+    public void landmarkIndexTest() throws IOException, ParserException {
+        for (Map.Entry<String, CityMap> example : getExampleCityMaps().entrySet()) {
+            CityMap cityMap = example.getValue();
+            cityMap.buildLandmarkIndex(4);
+            checkAgainstDijkstra(cityMap, 10, 1, (startWaypoint, endWaypoint, dijkstraRoute) -> {
+                assertTrue(example.getKey(), cityMap.getLowerBound(startWaypoint, endWaypoint) <= dijkstraRoute.getDuration());
+                Route route = cityMap.shortestPath(startWaypoint, endWaypoint);
+                assertTrue(example.getKey(), route.getDuration() == dijkstraRoute.getDuration());
+                assertIsPath(route);
+            });
+        }
+    }
+
+    @Test
+    public void landmarkIndexWithDeadEndTest() {
+        // S (0) -> U (1) -> V (2) is shorter than S -> V, but the dead end V cannot reach the landmarks, while U and S
+        // are far from L (3) and E (4). All the intersections have the same coordinates, so only the landmarks guide A*.
+        int[][] streets = { { 0, 1, 1 }, { 1, 2, 1 }, { 0, 2, 5 }, { 1, 3, 100 }, { 0, 4, 50 }, { 4, 3, 1 }, { 3, 0, 1 }, { 3, 4, 1 } };
+        for (int landmarkCount = 1; landmarkCount <= 2; landmarkCount++) {
+            List<Intersection> intersections = new ArrayList<Intersection>();
+            for (int i = 0; i < 5; i++) {
+                intersections.add(new Intersection(i, 0, 0));
+            }
+            List<StreetSection> streetSections = new ArrayList<StreetSection>();
+            for (int[] street : streets) {
+                streetSections.add(new StreetSection(street[2], 1, "s", intersections.get(street[0]), intersections.get(street[1])));
+            }
+            CityMap cityMap = new CityMap(intersections, streetSections);
+            List<AbstractWaypoint> allWaypoints = new ArrayList<AbstractWaypoint>();
+            for (Intersection intersection : intersections) {
+                allWaypoints.add(new DeliveryAddress(intersection, 0));
+            }
+            int[][] durations = new CityMap(intersections, streetSections).getDurations(allWaypoints, allWaypoints);
+            cityMap.buildLandmarkIndex(landmarkCount);
+
+            // The tree of the search towards E is cached, and then answers the search towards V
+            assertTrue(cityMap.shortestPath(allWaypoints.get(0), allWaypoints.get(4)).getDuration() == 50);
+            assertTrue(cityMap.shortestPath(allWaypoints.get(0), allWaypoints.get(2)).getDuration() == 2);
+            for (int i = 0; i < allWaypoints.size(); i++) {
+                for (int j = allWaypoints.size() - 1; j >= 0; j--) {
+                    if (durations[i][j] != ContractionHierarchy.UNREACHABLE) {
+                        assertTrue(cityMap.getLowerBound(allWaypoints.get(i), allWaypoints.get(j)) <= durations[i][j]);
+                        Route route = cityMap.shortestPath(allWaypoints.get(i), allWaypoints.get(j));
+                        assertTrue(route.getDuration() == durations[i][j]);
+                        assertIsPath(route);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bidirectionalShortestPathTest() throws IOException, ParserException {
+        for (Map.Entry<String, CityMap> example : getExampleCityMaps().entrySet()) {
+            CityMap cityMap = example.getValue();
+            checkAgainstDijkstra(cityMap, 10, 1, (startWaypoint, endWaypoint, dijkstraRoute) -> {
+                Route route = cityMap.bidirectionalShortestPath(startWaypoint, endWaypoint);
+                assertTrue(example.getKey(), route.getDuration() == dijkstraRoute.getDuration());
+                assertIsPath(route);
+            });
+        }
+    }
+
+    @Test
+    public void concurrentShortestPathTest() throws IOException, ParserException, InterruptedException, ExecutionException {
+        final CityMap cityMap = new Parser().getCityMap(new File("data/examples/plan20x20.xml"));
+        final List<Intersection> intersections = cityMap.getIntersections();
+        final int step = Math.max(1, intersections.size() / 20);
+        final int[] durations = new int[intersections.size()];
+        for (int i = 0; i < intersections.size(); i += step) {
+            durations[i] = cityMap.bidirectionalShortestPath(new Warehouse(intersections.get(0)),
+                new DeliveryAddress(intersections.get(i), 0)).getDuration();
+        }
+
+        // The searches of each thread use their own workspace, so they give the same routes as the sequential ones
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(() -> {
+                boolean equal = true;
+                for (int i = 0; i < intersections.size(); i += step) {
+                    Warehouse start = new Warehouse(intersections.get(0));
+                    DeliveryAddress end = new DeliveryAddress(intersections.get(i), 0);
+                    equal &= cityMap.bidirectionalShortestPath(start, end).getDuration() == durations[i];
+                    equal &= cityMap.shortestPath(start, end).getDuration() == durations[i];
+                }
+                return equal;
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void canReachTest() {
+        // Two strongly connected components {0, 1} and {2, 3}, joined by a one-way street, and an isolated intersection 4
+        List<Intersection> intersections = new ArrayList<Intersection>();
+        for (int i = 0; i < 5; i++) {
+            intersections.add(new Intersection(i, i, 0));
+        }
+        List<StreetSection> streetSections = new ArrayList<StreetSection>();
+        streetSections.add(new StreetSection(10, 1, "a", intersections.get(0), intersections.get(1)));
+        streetSections.add(new StreetSection(10, 1, "a", intersections.get(1), intersections.get(0)));
+        streetSections.add(new StreetSection(10, 1, "b", intersections.get(1), intersections.get(2)));
+        streetSections.add(new StreetSection(10, 1, "c", intersections.get(2), intersections.get(3)));
+        streetSections.add(new StreetSection(10, 1, "c", intersections.get(3), intersections.get(2)));
+        CityMap cityMap = new CityMap(intersections, streetSections);
+
+        for (Intersection start : intersections) {
+            for (Intersection end : intersections) {
+                Warehouse startWaypoint = new Warehouse(start);
+                DeliveryAddress endWaypoint = new DeliveryAddress(end, 0);
+                boolean expected = start.getId() == end.getId()
+                    || (start.getId() <= 1 && end.getId() <= 3) || (start.getId() >= 2 && start.getId() <= 3 && end.getId() >= 2 && end.getId() <= 3);
+                assertTrue(cityMap.canReach(startWaypoint, endWaypoint) == expected);
+                assertTrue((cityMap.shortestPath(startWaypoint, endWaypoint, Integer.MAX_VALUE) != null) == expected);
+            }
+        }
+    }
+
+    @Test
+    public void shortestPathCacheTest() throws IOException, ParserException {
+        CityMap cityMap = new Parser().getCityMap(new File("data/examples/plan10x10.xml"));
+        List<Intersection> intersections = cityMap.getIntersections();
+        List<AbstractWaypoint> allWaypoints = new ArrayList<AbstractWaypoint>();
+        for (Intersection intersection : intersections) {
+            allWaypoints.add(new DeliveryAddress(intersection, 0));
+        }
+        ShortestPathCache cache = cityMap.getShortestPathCache();
+
+        Warehouse startWaypoint = new Warehouse(intersections.get(0));
+        List<Route> routes = cityMap.shortestPath(startWaypoint, allWaypoints);
+        assertTrue(cache.getMissCount() == 1 && cache.getHitCount() == 0 && cache.size() == 1);
+        // The tree of the start way point settled every intersection
+        for (int i = 0; i < intersections.size(); i++) {
+            assertTrue(cityMap.shortestPath(startWaypoint, allWaypoints.get(i)).getStreetSections()
+                .equals(routes.get(i).getStreetSections()));
+        }
+        assertTrue(cache.getMissCount() == 1 && cache.getHitCount() == intersections.size());
+
+        // Only the most recently used trees are kept when the capacity is reached
+        long treeMemoryUsage = cache.getMemoryUsage();
+        cache.setCapacity(3 * treeMemoryUsage);
+        for (int i = 1; i <= 4; i++) {
+            cityMap.shortestPath(new Warehouse(intersections.get(i)), allWaypoints);
+        }
+        assertTrue(cache.size() == 3 && cache.getEvictionCount() == 2);
+        assertTrue(cache.getMemoryUsage() <= cache.getCapacity());
+        cityMap.shortestPath(new Warehouse(intersections.get(4)), allWaypoints);
+        assertTrue(cache.getMissCount() == 5 && cache.getHitCount() == intersections.size() + 1);
+    }
+
+    @Test
+    public void contractionHierarchyTest() throws IOException, ParserException {
+        File[] cityMapFiles = new File("data/examples").listFiles((dir, name) -> name.startsWith("plan") && name.endsWith(".xml"));
+        assertNotNull(cityMapFiles);
+
+        for (File cityMapFile : cityMapFiles) {
+            CityMap cityMap = new Parser().getCityMap(cityMapFile);
+            List<Intersection> intersections = cityMap.getIntersections();
+            List<AbstractWaypoint> allWaypoints = new ArrayList<AbstractWaypoint>();
+            for (Intersection intersection : intersections) {
+                allWaypoints.add(new DeliveryAddress(intersection, 0));
+            }
+            int[][] dijkstraDurations = cityMap.getDurations(allWaypoints, allWaypoints);
+
+            cityMap.buildContractionHierarchy();
+            int[][] hierarchyDurations = cityMap.getDurations(allWaypoints, allWaypoints);
+            for (int i = 0; i < intersections.size(); i++) {
+                assertTrue(cityMapFile.getName(), Arrays.equals(dijkstraDurations[i], hierarchyDurations[i]));
+                for (int j = 0; j < intersections.size(); j++) {
+                    Route route = cityMap.shortestPath(allWaypoints.get(i), allWaypoints.get(j));
+                    if (dijkstraDurations[i][j] == ContractionHierarchy.UNREACHABLE) {
+                        assertTrue(route.getStreetSections().isEmpty());
+                    } else {
+                        assertTrue(cityMapFile.getName(), route.getDuration() == dijkstraDurations[i][j]);
+                        assertIsPath(route);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void contractionHierarchySerializationTest() throws IOException, ParserException, ClassNotFoundException {
+        CityMap cityMap = new Parser().getCityMap(new File("data/examples/plan10x10.xml"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(cityMap.buildContractionHierarchy());
+        }
+
+        CityMap loadedCityMap = new Parser().getCityMap(new File("data/examples/plan10x10.xml"));
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loadedCityMap.setContractionHierarchy((ContractionHierarchy) in.readObject());
+        }
+        List<AbstractWaypoint> allWaypoints = new ArrayList<AbstractWaypoint>();
+        for (Intersection intersection : loadedCityMap.getIntersections()) {
+            allWaypoints.add(new DeliveryAddress(intersection, 0));
+        }
+        int[][] durations = loadedCityMap.getDurations(allWaypoints, allWaypoints);
+        int[][] expectedDurations = new Parser().getCityMap(new File("data/examples/plan10x10.xml")).getDurations(allWaypoints, allWaypoints);
+        for (int i = 0; i < durations.length; i++) {
+            assertTrue(Arrays.equals(expectedDurations[i], durations[i]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void contractionHierarchyOfAnotherCityMapTest() throws IOException, ParserException {
+        CityMap cityMap = new Parser().getCityMap(new File("data/examples/plan10x10.xml"));
+        CityMap otherCityMap = new Parser().getCityMap(new File("data/examples/plan5x5.xml"));
+        otherCityMap.setContractionHierarchy(cityMap.buildContractionHierarchy());
+    }
+
+    // ================================================= Utility methods ==============================================
+
+    /**
+     * The assertions on a search between two intersections, given the route found by Dijkstra.
+     */
+    private interface RouteCheck {
+        void check(AbstractWaypoint startWaypoint, AbstractWaypoint endWaypoint, Route dijkstraRoute);
+    }
+
+    /**
+     * Load the city maps of data/examples, without shortest path cache, so that the trees of the Dijkstra searches
+     * do not answer the searches they are compared to.
+     */
+    private Map<String, CityMap> getExampleCityMaps() throws IOException, ParserException {
+        File[] cityMapFiles = new File("data/examples").listFiles((dir, name) -> name.startsWith("plan") && name.endsWith(".xml"));
+        assertNotNull(cityMapFiles);
+        Map<String, CityMap> cityMaps = new TreeMap<String, CityMap>();
+        for (File cityMapFile : cityMapFiles) {
+            CityMap cityMap = new Parser().getCityMap(cityMapFile);
+            cityMap.getShortestPathCache().setCapacity(0);
+            cityMaps.put(cityMapFile.getName(), cityMap);
+        }
+        return cityMaps;
+    }
+
+    /**
+     * Run a check from about `startCount` start intersections of a city map to every `endStep`-th intersection
+     * they can reach, with the route found by Dijkstra from the start intersection as reference.
+     */
+    private void checkAgainstDijkstra(CityMap cityMap, int startCount, int endStep, RouteCheck check) {
+        List<Intersection> intersections = cityMap.getIntersections();
+        List<AbstractWaypoint> allWaypoints = new ArrayList<AbstractWaypoint>();
+        for (Intersection intersection : intersections) {
+            allWaypoints.add(new DeliveryAddress(intersection, 0));
+        }
+
+        int step = Math.max(1, intersections.size() / startCount);
+        for (int i = 0; i < intersections.size(); i += step) {
+            Warehouse startWaypoint = new Warehouse(intersections.get(i));
+            List<Route> dijkstraRoutes = cityMap.shortestPath(startWaypoint, allWaypoints);
+            for (int j = 0; j < intersections.size(); j += endStep) {
+                if (cityMap.canReach(startWaypoint, allWaypoints.get(j))) {
+                    check.check(startWaypoint, allWaypoints.get(j), dijkstraRoutes.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Check that the street sections of the given route are a path from its start to its end way point.
+     */
+    private void assertIsPath(Route route) {
+        Intersection current = route.getStartWaypoint().getIntersection();
+        for (StreetSection streetSection : route.getStreetSections()) {
+            assertTrue(streetSection.getStartIntersection().equals(current));
+            current = streetSection.getEndIntersection();
+        }
+        assertTrue(current.equals(route.getEndWaypoint().getIntersection()));
+    }
+
+    /**
+     * Reference implementation of the shortest paths search, which looks for the minimal grey intersection
+     * with a linear scan.
+     */
+    private List<Route> linearScanShortestPath(CityMap cityMap, AbstractWaypoint startWaypoint, List<AbstractWaypoint> endWaypoints) {
+        Map<Integer, Map<Integer, StreetSection>> outStreetSections = new TreeMap<Integer, Map<Integer, StreetSection>>();
+        for (StreetSection streetSection : cityMap.getStreetSections()) {
+            outStreetSections.computeIfAbsent(streetSection.getStartIntersection().getId(), id -> new TreeMap<Integer, StreetSection>())
+                .put(streetSection.getEndIntersection().getId(), streetSection);
+        }
+
+        Map<Integer, Integer> durations = new TreeMap<Integer, Integer>();
+        Map<Integer, StreetSection> predecessors = new TreeMap<Integer, StreetSection>();
+        Set<Integer> blacks = new TreeSet<Integer>();
+        List<Intersection> greys = new LinkedList<Intersection>();
+        greys.add(startWaypoint.getIntersection());
+        durations.put(startWaypoint.getId(), 0);
+
+        while (!greys.isEmpty()) {
+            Intersection minimalGreyIntersection = null;
+            for (Intersection grey : greys) {
+                if (minimalGreyIntersection == null || durations.get(grey.getId()) < durations.get(minimalGreyIntersection.getId())) {
+                    minimalGreyIntersection = grey;
+                }
+            }
+            int duration = durations.get(minimalGreyIntersection.getId());
+            for (StreetSection streetSection : outStreetSections.getOrDefault(minimalGreyIntersection.getId(),
+                new TreeMap<Integer, StreetSection>()).values()) {
+                Intersection successor = streetSection.getEndIntersection();
+                if (!blacks.contains(successor.getId())) {
+                    Integer successorDuration = durations.get(successor.getId());
+                    if (successorDuration == null) {
+                        greys.add(successor);
+                    }
+                    if (successorDuration == null || successorDuration > duration + streetSection.getDuration()) {
+                        durations.put(successor.getId(), duration + streetSection.getDuration());
+                        predecessors.put(successor.getId(), streetSection);
+                    }
+                }
+            }
+            greys.remove(minimalGreyIntersection);
+            blacks.add(minimalGreyIntersection.getId());
+        }
+
+        List<Route> routes = new ArrayList<Route>();
+        for (AbstractWaypoint endWaypoint : endWaypoints) {
+            LinkedList<StreetSection> streetSections = new LinkedList<StreetSection>();
+            StreetSection predecessor = predecessors.get(endWaypoint.getId());
+            while (predecessor != null) {
+                streetSections.addFirst(predecessor);
+                predecessor = predecessors.get(predecessor.getStartIntersection().getId());
+            }
+            routes.add(new Route(startWaypoint, endWaypoint, streetSections));
+        }
+        return routes;
+    }
 }
@@ -2,10 +2,14 @@ package models;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.Test;
+import services.xml.Parser;
+import services.xml.exception.ParserException;
 
 public class DeliveryRequestTest {
 
@@ -67,4 +71,71 @@ public class DeliveryRequestTest {
         assertTrue(!base.equals(moreDeliveryAddresses));
         assertTrue(!base.equals(modifiedStartTime));
     }
+
+    @Test
+    public void deliveryGraphUpdateTest() throws IOException, ParserException {
+        Parser parser = new Parser();
+        CityMap cityMap = parser.getCityMap(new File("data/examples/plan10x10.xml"));
+        DeliveryRequest request = parser.getDeliveryRequest(new File("data/examples/livraisons10x10-9.xml"), cityMap);
+        DeliveryGraph graph = request.computeDeliveryGraph();
+
+        DeliveryAddress removedAddress = request.getDeliveryAddresses().iterator().next();
+        request.removeDeliveryAddress(removedAddress);
+        for (Intersection intersection : cityMap.getIntersections()) {
+            DeliveryAddress address = new DeliveryAddress(intersection, 300);
+            if (!graph.contains(address) && !address.equals(removedAddress)) {
+                request.addDeliveryAddress(address);
+                if (graph.size() == 12) {
+                    break;
+                }
+            }
+        }
+        assertTrue(!graph.contains(removedAddress));
+        assertTrue(request.getDeliveryGraph() == graph);
+
+        // The updated graph must be the same as a graph computed from scratch
+        CityMap otherCityMap = parser.getCityMap(new File("data/examples/plan10x10.xml"));
+        DeliveryGraph expectedGraph = otherCityMap.computeDeliveryGraph(request);
+        assertTrue(graph.getNodes().equals(expectedGraph.getNodes()));
+        for (AbstractWaypoint start : graph.getNodes()) {
+            for (AbstractWaypoint end : graph.getNodes()) {
+                if (!start.equals(end)) {
+                    Route route = graph.getRoute(start, end);
+                    assertTrue(graph.getDuration(start, end) == expectedGraph.getDuration(start, end));
+                    assertTrue(route.getDuration() == expectedGraph.getDuration(start, end));
+                    Intersection current = start.getIntersection();
+                    for (StreetSection streetSection : route.getStreetSections()) {
+                        assertTrue(streetSection.getStartIntersection().equals(current));
+                        current = streetSection.getEndIntersection();
+                    }
+                    assertTrue(current.equals(end.getIntersection()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unreachableDeliveryAddressTest() throws IOException, ParserException {
+        CityMap cityMap = new Parser().getCityMap(new File("src/test/resources/services/xml/cityMap/cityMap2x2WithDeadEnd.xml"));
+        List<DeliveryAddress> deliveryAddresses = new LinkedList<DeliveryAddress>();
+        deliveryAddresses.add(new DeliveryAddress(cityMap.getIntersection(1), 60));
+        DeliveryRequest request = new DeliveryRequest(cityMap, new Warehouse(cityMap.getIntersection(0)), deliveryAddresses, 28800);
+        DeliveryGraph graph = request.computeDeliveryGraph();
+
+        // No street leaves the intersection 4: the request and its graph are left unchanged
+        DeliveryAddress unreachableAddress = new DeliveryAddress(cityMap.getIntersection(4), 60);
+        boolean thrown = false;
+        try {
+            request.addDeliveryAddress(unreachableAddress);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+        assertTrue(!graph.contains(unreachableAddress));
+        for (DeliveryAddress deliveryAddress : request.getDeliveryAddresses()) {
+            assertTrue(!deliveryAddress.equals(unreachableAddress));
+        }
+        request.removeDeliveryAddress(deliveryAddresses.get(0));
+        assertTrue(graph.size() == 1);
+    }
 }
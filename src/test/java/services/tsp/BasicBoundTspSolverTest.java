@@ -8,7 +8,10 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -44,6 +47,221 @@ public class BasicBoundTspSolverTest {
         checkPlanning(idWaypoints, waitingTime, 5 * 100 + 4 * 60 + 4 * 86400, planning);
     }
 
+    @Test
+    public void testSameCostAsExhaustiveSearch() throws URISyntaxException, IOException, ParserException {
+        for (String directoryPath : new String[] { "timeConstraints/uniqueSolution", "timeConstraints/waitBeforeAWaypoint",
+                "timeConstraints/noSolution" }) {
+            DeliveryGraph deliveryGraph = getDeliveryGraph(directoryPath);
+            AbstractThreadedTspSolver boundSolver = new BasicBoundTspSolver();
+            AbstractThreadedTspSolver exhaustiveSolver = new BasicTspSolver();
+            Planning planning = boundSolver.solve(deliveryGraph);
+            Planning exhaustivePlanning = exhaustiveSolver.solve(deliveryGraph);
+
+            assertTrue(planning.getFullTime() == exhaustivePlanning.getFullTime());
+            // The bound prunes a part of the search tree
+            assertTrue(boundSolver.getExploredNodeCount() > 0);
+            assertTrue(boundSolver.getExploredNodeCount() < exhaustiveSolver.getExploredNodeCount());
+        }
+    }
+
+    @Test
+    public void testSameCostAsHeldKarp() throws URISyntaxException, IOException, ParserException {
+        for (String directoryPath : new String[] { "timeConstraints/uniqueSolution", "timeConstraints/waitBeforeAWaypoint",
+                "timeConstraints/noSolution" }) {
+            DeliveryGraph deliveryGraph = getDeliveryGraph(directoryPath);
+            Planning planning = new BasicBoundTspSolver().solve(deliveryGraph);
+            Planning heldKarpPlanning = new HeldKarpTspSolver().solve(deliveryGraph);
+
+            assertTrue(planning.getFullTime() == heldKarpPlanning.getFullTime());
+            assertTrue(planning.getWaypoints().equals(heldKarpPlanning.getWaypoints()));
+        }
+    }
+
+    @Test
+    public void testHeldKarpLimits() throws IOException, ParserException {
+        DeliveryGraph deliveryGraph = getExampleDeliveryGraph("20x20", "20x20-14-TW");
+        int cost = new BasicBoundTspSolver().solve(deliveryGraph).getFullTime();
+        // Too many addresses: solved by the branch and bound
+        HeldKarpTspSolver fallbackSolver = new HeldKarpTspSolver(10);
+        assertEquals(cost, fallbackSolver.solve(deliveryGraph).getFullTime());
+        // The maximal number of addresses is clamped to the states fitting in memory
+        assertEquals(cost, new HeldKarpTspSolver(30).solve(deliveryGraph).getFullTime());
+    }
+
+    @Test
+    public void testSameCostInParallel() throws IOException, ParserException {
+        for (String deliveryRequestName : new String[] { "20x20-14", "20x20-14-TW" }) {
+            DeliveryGraph deliveryGraph = getExampleDeliveryGraph("20x20", deliveryRequestName);
+            Planning planning = new BasicBoundTspSolver().solve(deliveryGraph);
+            // 14 addresses: the tasks split the tree on 4 levels, with many more branches than threads
+            ParallelTspSolver parallelSolver = new ParallelTspSolver(new BasicBoundTspSolver(), 4);
+            Planning parallelPlanning = parallelSolver.solve(deliveryGraph);
+
+            assertEquals(planning.getFullTime(), parallelPlanning.getFullTime());
+            assertEquals(deliveryGraph.size(), parallelPlanning.getWaypoints().size());
+            assertTrue(parallelSolver.getExploredNodeCount() > 0);
+        }
+    }
+
+    @Test
+    public void testSameCostWithLagrangianBound() throws IOException, ParserException {
+        for (String deliveryRequestName : new String[] { "20x20-14", "20x20-14-TW" }) {
+            DeliveryGraph deliveryGraph = getExampleDeliveryGraph("20x20", deliveryRequestName);
+            BasicBoundTspSolver boundSolver = new BasicBoundTspSolver();
+            Planning planning = boundSolver.solve(deliveryGraph);
+            LagrangianBoundTspSolver lagrangianSolver = new LagrangianBoundTspSolver();
+            Planning lagrangianPlanning = lagrangianSolver.solve(deliveryGraph);
+
+            assertEquals(planning.getFullTime(), lagrangianPlanning.getFullTime());
+            // Without time windows, the bound is tighter than the one of BasicBoundTspSolver
+            if (!deliveryRequestName.endsWith("-TW")) {
+                assertTrue(lagrangianSolver.getExploredNodeCount() < boundSolver.getExploredNodeCount());
+            }
+        }
+    }
+
+    @Test
+    public void testLocalSearch() throws URISyntaxException, IOException, ParserException {
+        for (String directoryPath : new String[] { "timeConstraints/uniqueSolution", "timeConstraints/waitBeforeAWaypoint",
+                "timeConstraints/noSolution" }) {
+            DeliveryGraph deliveryGraph = getDeliveryGraph(directoryPath);
+            TspInstance instance = new TspInstance(deliveryGraph);
+            int[] tour = TourConstruction.nearestNeighbour(instance);
+            Planning planning = new Planning(deliveryGraph.getCityMap(), instance.getWaypoints(tour, tour.length),
+                instance.getWaitingTimes(tour, instance.getTourWaitingTimes(tour), tour.length), instance.getTourCost(tour));
+            Planning improvedPlanning = new LocalSearch(deliveryGraph).improve(planning);
+
+            assertTrue(improvedPlanning.getFullTime() <= planning.getFullTime());
+            assertTrue(improvedPlanning.getFullTime() >= new BasicBoundTspSolver().solve(deliveryGraph).getFullTime());
+            assertEquals(instance.size(), improvedPlanning.getWaypoints().size());
+        }
+    }
+
+    @Test
+    public void testLocalSearchOptimum() throws IOException, ParserException {
+        DeliveryGraph deliveryGraph = getExampleDeliveryGraph("20x20", "20x20-14-TW");
+        TspInstance instance = new TspInstance(deliveryGraph);
+        LocalSearch localSearch = new LocalSearch(deliveryGraph);
+        Random random = new Random(0);
+        int[] tour = TourConstruction.nearestNeighbour(instance);
+        for (int start = 0; start < 30; start++) {
+            int[] improvedTour = localSearch.improve(tour);
+            int cost = instance.getTourCost(improvedTour);
+            assertTrue(cost <= instance.getTourCost(tour));
+            // Without penalty, the moves are evaluated in constant time, and none of them must be missed
+            if (cost < TspInstance.DAY) {
+                assertTrue(!hasImprovingMove(instance, improvedTour, cost));
+            }
+            tour = shuffle(tour, random);
+        }
+    }
+
+    @Test
+    public void testLargeNeighbourhoodSearch() throws IOException, ParserException {
+        for (String[] names : new String[][] { { "20x20", "20x20-14-TW" }, { "25x25", "25x25-19-TW" } }) {
+            DeliveryGraph deliveryGraph = getExampleDeliveryGraph(names[0], names[1]);
+            TspInstance instance = new TspInstance(deliveryGraph);
+            int seedCost = instance.getTourCost(TourConstruction.bestTour(instance));
+            int optimalCost = new BasicBoundTspSolver().solve(deliveryGraph).getFullTime();
+            // A bounded number of iterations, so that the result only depends on the seed
+            Planning planning = new LnsTspSolver(60000, 1000, 42).solve(deliveryGraph);
+            Planning samePlanning = new LnsTspSolver(60000, 1000, 42).solve(deliveryGraph);
+
+            assertTrue(planning.getFullTime() <= seedCost);
+            // At most 1 % above the optimal cost
+            assertTrue(planning.getFullTime() <= optimalCost * 1.01);
+            assertEquals(planning.getFullTime(), samePlanning.getFullTime());
+            assertEquals(planning.getWaypoints(), samePlanning.getWaypoints());
+        }
+    }
+
+    @Test
+    public void testGeneticAlgorithm() throws IOException, ParserException {
+        for (String[] names : new String[][] { { "20x20", "20x20-14-TW" }, { "25x25", "25x25-19-TW" } }) {
+            DeliveryGraph deliveryGraph = getExampleDeliveryGraph(names[0], names[1]);
+            TspInstance instance = new TspInstance(deliveryGraph);
+            int seedCost = instance.getTourCost(TourConstruction.bestTour(instance));
+            int optimalCost = new BasicBoundTspSolver().solve(deliveryGraph).getFullTime();
+            // A single island and a bounded number of generations, so that the result only depends on the seed
+            Planning planning = new GeneticTspSolver(60000, 10000, 1, 42).solve(deliveryGraph);
+            Planning samePlanning = new GeneticTspSolver(60000, 10000, 1, 42).solve(deliveryGraph);
+            Planning islandsPlanning = new GeneticTspSolver(60000, 10000, 4, 42).solve(deliveryGraph);
+
+            assertTrue(planning.getFullTime() <= seedCost);
+            assertTrue(islandsPlanning.getFullTime() <= seedCost);
+            // At most 2 % above the optimal cost
+            assertTrue(planning.getFullTime() <= optimalCost * 1.02);
+            assertEquals(planning.getFullTime(), samePlanning.getFullTime());
+            assertEquals(planning.getWaypoints(), samePlanning.getWaypoints());
+        }
+    }
+
+    @Test
+    public void testIncrementalBound() throws URISyntaxException, IOException, ParserException {
+        for (String directoryPath : new String[] { "timeConstraints/uniqueSolution", "timeConstraints/waitBeforeAWaypoint",
+                "timeConstraints/noSolution" }) {
+            TspInstance instance = new TspInstance(getDeliveryGraph(directoryPath));
+            IncrementalBound incrementalBound = new IncrementalBound(instance);
+            BitSet unseen = new BitSet(instance.size());
+            unseen.set(1, instance.size());
+            // Visit the way points in the order 1, 2, ..., then backtrack and visit them from the last one
+            checkIncrementalBound(instance, incrementalBound, 0, unseen, 0);
+            for (int node = 1; node < instance.size() - 1; node++) {
+                unseen.clear(node);
+                incrementalBound.visit(node);
+                checkIncrementalBound(instance, incrementalBound, node, unseen, node * 100);
+            }
+            for (int node = instance.size() - 2; node >= 1; node--) {
+                unseen.set(node);
+                incrementalBound.backtrack(node);
+            }
+            for (int node = instance.size() - 1; node > 1; node--) {
+                unseen.clear(node);
+                incrementalBound.visit(node);
+                checkIncrementalBound(instance, incrementalBound, node, unseen, node * 100);
+            }
+        }
+    }
+
+    @Test
+    public void testTimeWindowPrecedence() throws URISyntaxException, IOException, ParserException {
+        for (String directoryPath : new String[] { "timeConstraints/uniqueSolution", "timeConstraints/waitBeforeAWaypoint" }) {
+            DeliveryGraph deliveryGraph = getDeliveryGraph(directoryPath);
+            TspInstance instance = new TspInstance(deliveryGraph);
+            Planning planning = new BasicBoundTspSolver().solve(deliveryGraph);
+            // The optimal tour has no penalty, so none of its orders is forbidden
+            assertTrue(instance.getPrecedence().canPrune(planning.getFullTime()));
+            List<AbstractWaypoint> waypoints = planning.getWaypoints();
+            for (int i = 1; i < instance.size(); i++) {
+                for (int j = i + 1; j < instance.size(); j++) {
+                    assertTrue(waypoints.indexOf(instance.getWaypoint(i)) > waypoints.indexOf(instance.getWaypoint(j))
+                        || instance.getPrecedence().canPrecede(i, j));
+                }
+            }
+        }
+        // All the deliveries are late, so no order can be skipped
+        TspInstance instance = new TspInstance(getDeliveryGraph("timeConstraints/noSolution"));
+        assertTrue(!instance.getPrecedence().canPrune(0));
+    }
+
+    @Test
+    public void testDominanceTable() {
+        DominanceTable dominanceTable = new DominanceTable(1);
+        assertTrue(!dominanceTable.isDominated(0b111L, 2, 500));
+        assertTrue(dominanceTable.isDominated(0b111L, 2, 500));
+        assertTrue(dominanceTable.isDominated(0b111L, 2, 600));
+        // A cheaper partial tour replaces the kept one
+        assertTrue(!dominanceTable.isDominated(0b111L, 2, 400));
+        assertTrue(dominanceTable.isDominated(0b111L, 2, 450));
+        // A single entry: another state evicts the first one
+        assertTrue(!dominanceTable.isDominated(0b111L, 1, 900));
+        assertTrue(!dominanceTable.isDominated(0b111L, 2, 450));
+        // 2^4 sets of way points with the warehouse times 5 last way points, up to the default capacity
+        assertEquals(80, DominanceTable.getCapacity(5));
+        assertEquals(DominanceTable.DEFAULT_CAPACITY, DominanceTable.getCapacity(21));
+        assertEquals(DominanceTable.DEFAULT_CAPACITY, DominanceTable.getCapacity(64));
+    }
+
     // ================================================= Utility methods ==============================================
 
     private File getFile(String location) throws URISyntaxException {
@@ -56,6 +274,11 @@ public class BasicBoundTspSolverTest {
     }
 
     private Planning getPlanning(String directoryPath) throws URISyntaxException, IOException, ParserException {
+        AbstractThreadedTspSolver solver = new BasicBoundTspSolver();
+        return solver.solve(getDeliveryGraph(directoryPath));
+    }
+
+    private DeliveryGraph getDeliveryGraph(String directoryPath) throws URISyntaxException, IOException, ParserException {
         String location = "/services/tsp/" + directoryPath;
         Parser parser = new Parser();
         File cityMapXmlFile = getFile(location + "/cityMap.xml");
@@ -64,10 +287,75 @@ public class BasicBoundTspSolverTest {
         File deliveryRequestXmlFile = getFile(location + "/deliveryRequest.xml");
         DeliveryRequest deliveryRequest = parser.getDeliveryRequest(deliveryRequestXmlFile, cityMap);
 
-        DeliveryGraph deliveryGraph = cityMap.computeDeliveryGraph(deliveryRequest);
+        return cityMap.computeDeliveryGraph(deliveryRequest);
+    }
 
-        AbstractThreadedTspSolver solver = new BasicBoundTspSolver();
-        return solver.solve(deliveryGraph);
+    private DeliveryGraph getExampleDeliveryGraph(String cityMapName, String deliveryRequestName) throws IOException, ParserException {
+        Parser parser = new Parser();
+        CityMap cityMap = parser.getCityMap(new File("data/examples/plan" + cityMapName + ".xml"));
+        DeliveryRequest deliveryRequest = parser.getDeliveryRequest(new File("data/examples/livraisons" + deliveryRequestName + ".xml"),
+            cityMap);
+        return cityMap.computeDeliveryGraph(deliveryRequest);
+    }
+
+    private int[] shuffle(int[] tour, Random random) {
+        int[] shuffled = tour.clone();
+        for (int i = shuffled.length - 1; i > 1; i--) {
+            int j = 1 + random.nextInt(i);
+            int waypoint = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = waypoint;
+        }
+        return shuffled;
+    }
+
+    private boolean hasImprovingMove(TspInstance instance, int[] tour, int cost) {
+        int last = tour.length - 1;
+        for (int i = 1; i <= last; i++) {
+            for (int j = 1; j <= last; j++) {
+                // Relocate the sequence of 1 to 3 way points starting at i before the position j
+                for (int length = 1; length <= 3 && i + length - 1 <= last; length++) {
+                    int[] moved = new int[tour.length];
+                    int position = 0;
+                    for (int k = 0; k <= last; k++) {
+                        if (k == j && (k < i || k >= i + length)) {
+                            System.arraycopy(tour, i, moved, position, length);
+                            position += length;
+                        }
+                        if (k < i || k >= i + length) {
+                            moved[position++] = tour[k];
+                        }
+                    }
+                    if (position < tour.length) {
+                        System.arraycopy(tour, i, moved, position, length);
+                    }
+                    if (instance.getTourCost(moved) < cost) {
+                        return true;
+                    }
+                }
+                if (i < j) {
+                    // Swap the way points at i and j, and reverse the part from i to j
+                    int[] swapped = tour.clone();
+                    swapped[i] = tour[j];
+                    swapped[j] = tour[i];
+                    int[] reversed = tour.clone();
+                    for (int k = i; k <= j; k++) {
+                        reversed[k] = tour[i + j - k];
+                    }
+                    if (instance.getTourCost(swapped) < cost || instance.getTourCost(reversed) < cost) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private void checkIncrementalBound(TspInstance instance, IncrementalBound incrementalBound, int lastSeenNode, BitSet unseen,
+            int seenCost) {
+        // A solver which is not searching computes the bound from scratch
+        int bound = new BasicBoundTspSolver().bound(instance, lastSeenNode, unseen, unseen.cardinality(), seenCost);
+        assertEquals(bound, incrementalBound.bound(lastSeenNode, seenCost));
     }
 
     private void checkPlanning(int[] idWaypoints, int[] waitingTime, int fullTime, Planning planning) {
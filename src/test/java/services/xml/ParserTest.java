@@ -17,6 +17,7 @@ import services.xml.exception.ParserMissingAttributeException;
 import services.xml.exception.ParserShouldBeIntegerValueException;
 import services.xml.exception.ParserTimeConstraintsException;
 import services.xml.exception.ParserTimeSyntaxException;
+import services.xml.exception.ParserUnreachableAddressException;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -529,6 +530,19 @@ public class ParserTest {
         parser.getDeliveryRequest(deliveryRequestXmlFile, cityMap);
     }
 
+    @Test
+    public void parseDeliveryRequestUnreachableDeliveryAddressTest() throws URISyntaxException, IOException, ParserException {
+        Parser parser = new Parser();
+        File cityMapXmlFile = getFile("/services/xml/cityMap/cityMap2x2WithDeadEnd.xml");
+        CityMap cityMap = parser.getCityMap(cityMapXmlFile);
+
+        File deliveryRequestXmlFile = getFile("/services/xml/deliveryRequest/deliveryAddress/unreachableAddress.xml");
+
+        thrown.expect(ParserUnreachableAddressException.class);
+        thrown.expectMessage("The delivery address 4 cannot be reached from the warehouse or cannot reach it");
+        parser.getDeliveryRequest(deliveryRequestXmlFile, cityMap);
+    }
+
     // ================================================= Utility methods ==============================================
 
     private File getFile(String location) throws URISyntaxException {